@@ -0,0 +1,670 @@
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Micro benchmarks for HashTable, ConcurrentHashTable, Product, the catalog indexes, the command
+ * loop and batches. Every benchmark is warmed up and then measured for a number of timed
+ * iterations in this JVM, the average time per operation is printed and all results are written
+ * as JSON in the layout used by JMH so runs can be compared by the same tools.
+ *
+ * Usage: java Benchmark [-f regex] [-wi warmups] [-i iterations] [-t millis] [-o results.json]
+ * @author Noah Rouse <my_email@noahrouse36@gmail.com>
+ */
+public final class Benchmark {
+   /**
+    * A single timed operation, the result is kept so the work can not be optimized away
+    */
+   interface Operation {
+      Object run () throws Exception;
+   }
+
+   /**
+    * Builds the state for one parameter value and returns the operation to be timed
+    */
+   interface Setup {
+      Operation create (int param) throws Exception;
+   }
+
+   /**
+    * A named benchmark run once for each of its parameter values
+    */
+   private static final class Case {
+      private final String name;
+      private final String paramName;
+      private final int[] params;
+      private final boolean perItem;
+      private final Setup setup;
+
+      /**
+       *
+       * @param name name of benchmark
+       * @param paramName name of the parameter
+       * @param params values of the parameter to run with
+       * @param perItem true if one operation covers param items and the time is divided by it
+       * @param setup creates the operation for a parameter value
+       */
+      private Case (final String name, final String paramName, final int[] params,
+            final boolean perItem, final Setup setup) {
+         this.name = name;
+         this.paramName = paramName;
+         this.params = params;
+         this.perItem = perItem;
+         this.setup = setup;
+      }
+   }
+
+   private static final PrintStream NULL_OUT = new PrintStream(OutputStream.nullOutputStream());
+
+   static volatile Object sink;
+
+   private Benchmark () {
+   }
+
+   /**
+    *
+    * @return every benchmark that can be run
+    */
+   private static List<Case> cases () {
+      final List<Case> cases = new ArrayList<Case>();
+      final int[] sizes = {1000, 100000, 1000000};
+
+      cases.add(new Case("HashTable.get", "keys", sizes, false, (final int keys) -> {
+         final String[] names = names("sku", keys);
+         final HashTable<String, Product> table = catalog(names);
+         final int[] i = {0};
+         return () -> table.get(names[i[0]++ % keys]);
+      }));
+
+      // a miss reported by NoSuchElementException, the way the command handlers used to look up
+      cases.add(new Case("HashTable.getMiss", "keys", sizes, false, (final int keys) -> {
+         final String[] missing = names("missing", keys);
+         final HashTable<String, Product> table = catalog(names("sku", keys));
+         final int[] i = {0};
+         return () -> {
+            try {
+               return table.get(missing[i[0]++ % keys]);
+            } catch (final NoSuchElementException e) {
+               return null;
+            }
+         };
+      }));
+
+      cases.add(new Case("HashTable.getOrNullMiss", "keys", sizes, false, (final int keys) -> {
+         final String[] missing = names("missing", keys);
+         final HashTable<String, Product> table = catalog(names("sku", keys));
+         final int[] i = {0};
+         return () -> table.getOrNull(missing[i[0]++ % keys]);
+      }));
+
+      cases.add(new Case("HashTable.putIfAbsent", "keys", sizes, false, (final int keys) -> {
+         final String[] names = names("sku", keys);
+         final HashTable<String, Product> table = catalog(names);
+         final Product product = new Product("replacement");
+         final int[] i = {0};
+         return () -> table.putIfAbsent(names[i[0]++ % keys], product);
+      }));
+
+      cases.add(new Case("HashTable.put", "keys", sizes, false, (final int keys) -> {
+         final String[] names = names("sku", keys);
+         final HashTable<String, Product> table = catalog(names);
+         final Product product = new Product("replacement");
+         final int[] i = {0};
+         return () -> {
+            table.put(names[i[0]++ % keys], product);
+            return table;
+         };
+      }));
+
+      cases.add(new Case("HashTable.removePut", "keys", sizes, false, (final int keys) -> {
+         final String[] names = names("sku", keys);
+         final HashTable<String, Product> table = catalog(names);
+         final int[] i = {0};
+         return () -> {
+            final String name = names[i[0]++ % keys];
+            table.put(name, table.remove(name));
+            return table;
+         };
+      }));
+
+      cases.add(new Case("HashTable.values", "keys", sizes, true, (final int keys) -> {
+         final HashTable<String, Product> table = catalog(names("sku", keys));
+         return () -> {
+            long visited = 0;
+            for (final Product product: table.values()) {
+               visited += product.amount() + 1;
+            }
+            return visited(visited, keys);
+         };
+      }));
+
+      cases.add(new Case("HashTable.stats", "keys", sizes, true, (final int keys) -> {
+         final HashTable<String, Product> table = catalog(names("sku", keys));
+         return () -> table.stats(TableStats::stringBytes, TableStats::productBytes);
+      }));
+
+      cases.add(new Case("HashTable.forEach", "keys", sizes, true, (final int keys) -> {
+         final HashTable<String, Product> table = catalog(names("sku", keys));
+         final long[] visited = {0};
+         return () -> {
+            visited[0] = 0;
+            table.forEach((name, product) -> visited[0] += product.amount() + 1);
+            return visited(visited[0], keys);
+         };
+      }));
+
+      cases.add(new Case("HashTable.parallelStream", "keys", sizes, true, (final int keys) -> {
+         final HashTable<String, Product> table = catalog(names("sku", keys));
+         return () -> visited(table.values().parallelStream()
+               .mapToLong(product -> product.amount() + 1).sum(), keys);
+      }));
+
+      cases.add(new Case("Report.of", "products", sizes, true, (final int products) -> {
+         final HashTable<String, Product> table = catalog(names("sku", products));
+         BigDecimal expected = BigDecimal.ZERO;
+         for (final Product product: table.values()) {
+            expected = expected.add(product.price().multiply(BigDecimal.valueOf(product.amount())));
+         }
+         final BigDecimal value = expected;
+         return () -> {
+            final Report report = Report.of(table);
+            if (report.value().compareTo(value) != 0 || report.products() != products) {
+               throw new IllegalStateException("Reported " + report.value() + " not " + value);
+            }
+            return report;
+         };
+      }));
+
+      cases.add(new Case("ColumnarTable.get", "keys", sizes, false, (final int keys) -> {
+         final String[] names = names("sku", keys);
+         final ColumnarTable table = ColumnarTable.copyOf(catalog(names));
+         final int[] i = {0};
+         return () -> table.get(names[i[0]++ % keys]);
+      }));
+
+      cases.add(new Case("ColumnarTable.increaseInventory", "keys", sizes, false,
+            (final int keys) -> {
+         final String[] names = names("sku", keys);
+         final ColumnarTable table = ColumnarTable.copyOf(catalog(names));
+         final int[] i = {0};
+         return () -> table.get(names[i[0]++ % keys]).increaseInventory(1);
+      }));
+
+      cases.add(new Case("OffHeapTable.get", "keys", sizes, false, (final int keys) -> {
+         final String[] names = names("sku", keys);
+         final OffHeapTable table = OffHeapTable.copyOf(catalog(names), 1L << 30);
+         final int[] i = {0};
+         return () -> table.get(names[i[0]++ % keys]);
+      }));
+
+      // lookups of a hot thousand products, which stay cached in front of the columns
+      cases.add(new Case("CachedTable.get", "keys", sizes, false, (final int keys) -> {
+         final String[] names = names("sku", keys);
+         final CachedTable table = new CachedTable(ColumnarTable.copyOf(catalog(names)), 1000);
+         final int hot = Math.min(keys, 1000);
+         final int[] i = {0};
+         return () -> table.get(names[i[0]++ % hot]);
+      }));
+
+      // a full collection with the catalog live shows the pause its storage adds
+      final int[] live = {100000, 1000000};
+      cases.add(new Case("HashTable.fullGc", "products", live, false, (final int products) -> {
+         final HashTable<String, Product> table = catalog(names("sku", products));
+         return () -> collect(table);
+      }));
+
+      cases.add(new Case("ColumnarTable.fullGc", "products", live, false,
+            (final int products) -> {
+         final ColumnarTable table = ColumnarTable.copyOf(catalog(names("sku", products)));
+         return () -> collect(table);
+      }));
+
+      cases.add(new Case("OffHeapTable.fullGc", "products", live, false,
+            (final int products) -> {
+         final OffHeapTable table =
+               OffHeapTable.copyOf(catalog(names("sku", products)), 1L << 30);
+         return () -> collect(table);
+      }));
+
+      cases.add(new Case("ConcurrentHashTable.get", "keys", sizes, false, (final int keys) -> {
+         final String[] names = names("sku", keys);
+         final ConcurrentHashTable<String, Product> table =
+               new ConcurrentHashTable<String, Product>(keys);
+         for (final String name: names) {
+            table.put(name, new Product(name));
+         }
+         final int[] i = {0};
+         return () -> table.get(names[i[0]++ % keys]);
+      }));
+
+      cases.add(new Case("Catalog.productsBySupplier", "products", sizes, false,
+            (final int products) -> {
+         final String[] names = names("sku", products);
+         final Catalog catalog = new Catalog(catalog(names));
+         for (int i = 0; i < 10; i++) {
+            catalog.get(names[i * (products / 10)]).addSupplier("rare");
+         }
+         catalog.suppliers();
+         return () -> Main.productsBySupplier("rare", catalog, NULL_OUT);
+      }));
+
+      cases.add(new Case("Catalog.priceRange", "products", sizes, false,
+            (final int products) -> {
+         final Catalog catalog = new Catalog(catalog(names("sku", products)));
+         final BigDecimal price = new BigDecimal("5.99");
+         catalog.prices();
+         return () -> catalog.prices().between(price, price);
+      }));
+
+      cases.add(new Case("Catalog.lowStock", "products", sizes, false,
+            (final int products) -> {
+         final Catalog catalog = new Catalog(catalog(names("sku", products)));
+         catalog.inventory();
+         return () -> catalog.inventory().below(1);
+      }));
+
+      cases.add(new Case("Catalog.searchPrefix", "products", sizes, false,
+            (final int products) -> {
+         final Catalog catalog = new Catalog(catalog(names("sku", products)));
+         catalog.names();
+         final int[] i = {0};
+         return () -> catalog.names().search("SKU" + (i[0]++ % 100), 20, 20);
+      }));
+
+      cases.add(new Case("Product.addSupplier", "suppliers", new int[] {10, 100, 1000, 10000},
+            true, (final int suppliers) -> {
+         final String[] names = names("supplier", suppliers);
+         Collections.shuffle(Arrays.asList(names), new Random(42));
+         return () -> {
+            final Product product = new Product("product");
+            for (final String name: names) {
+               product.addSupplier(name);
+            }
+            return product;
+         };
+      }));
+
+      cases.add(new Case("Product.binarySearch", "suppliers", new int[] {10, 100, 1000, 10000},
+            false, (final int suppliers) -> {
+         final int[] ids = new int[suppliers];
+         for (int i = 0; i < suppliers; i++) {
+            ids[i] = i * 2;
+         }
+         final int[] i = {0};
+         // even targets are present and odd ones are misses
+         return () -> Product.binarySearch(ids, i[0]++ % (ids.length * 2 + 1));
+      }));
+
+      cases.add(new Case("Product.hasSupplier", "suppliers", new int[] {10, 100, 1000, 10000},
+            false, (final int suppliers) -> {
+         final String[] names = names("supplier", suppliers);
+         final Product product = new Product("product");
+         product.addSuppliers(names);
+         final String[] lookups = names("SUPPLIER", suppliers * 2);
+         final int[] i = {0};
+         return () -> product.hasSupplier(lookups[i[0]++ % lookups.length]);
+      }));
+
+      // a full save and reading it back with its deltas, the way the catalog is loaded
+      cases.add(new Case("SnapshotStore.saveLoad", "products", new int[] {1000, 100000},
+            false, (final int products) -> {
+         final HashTable<String, Product> table = catalog(names("sku", products));
+         final File file = File.createTempFile("benchmark", ".sav");
+         final File log = File.createTempFile("benchmark", ".log");
+         file.deleteOnExit();
+         log.deleteOnExit();
+         final SnapshotStore store = new SnapshotStore(file.getPath(), 0, 0);
+         final Journal journal = new Journal(log.getPath(), 0, 0);
+         return () -> {
+            store.save(table, journal, true);
+            final SnapshotCodec.Snapshot snapshot = Main.loadSnapshot(file.getPath());
+            new SnapshotStore(file.getPath(), snapshot.sequence, 0).layer(snapshot.table);
+            return snapshot.table;
+         };
+      }));
+
+      // a save after 100 products changed, as a delta, merged or in full when the deltas grow
+      cases.add(new Case("SnapshotStore.save", "products", new int[] {1000, 100000},
+            false, (final int products) -> {
+         final Catalog table = new Catalog(catalog(names("sku", products)));
+         final File file = File.createTempFile("benchmark", ".sav");
+         final File log = File.createTempFile("benchmark", ".log");
+         file.deleteOnExit();
+         log.deleteOnExit();
+         Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+               SnapshotStore.deleteDeltas(file.getPath(), -1);
+            } catch (final IOException e) {
+               e.printStackTrace();
+            }
+         }));
+         Main.saveHashTable(table, file.getPath());
+         final SnapshotStore store = new SnapshotStore(file.getPath(), 0, 8);
+         final Journal journal = new Journal(log.getPath(), 0, 0);
+         table.trackChanges();
+         final String[] changed = names("sku", 100);
+         final int[] i = {0};
+         return () -> {
+            for (final String name: changed) {
+               table.get(name).setInventory(i[0]++);
+            }
+            return store.save(table, journal, false);
+         };
+      }));
+
+      // the part of a background save that holds the table lock
+      cases.add(new Case("SnapshotCodec.encode", "products", new int[] {1000, 100000},
+            false, (final int products) -> {
+         final HashTable<String, Product> table = catalog(names("sku", products));
+         return () -> SnapshotCodec.encode(table, 0);
+      }));
+
+      cases.add(new Case("Main.execute", "products", new int[] {100, 1000}, true,
+            (final int products) -> {
+         final List<String> script = script(products);
+         final HashTable<String, Product> table = new HashTable<String, Product>();
+         return () -> {
+            for (final String line: script) {
+               Main.execute(line, table, NULL_OUT);
+            }
+            return table;
+         };
+      }));
+
+      // every command names a product or supplier that does not exist
+      cases.add(new Case("Main.executeMisses", "products", new int[] {1000, 100000}, true,
+            (final int products) -> {
+         final Catalog table = new Catalog(catalog(names("sku", products)));
+         final List<String[]> script = new ArrayList<String[]>();
+         for (int i = 0; i < products; i++) {
+            final String name = "missing" + i;
+            script.add(Commands.tokenize("DISPLAYPRODUCT " + name));
+            script.add(Commands.tokenize("SETINVENTORY " + name + " 5"));
+            script.add(Commands.tokenize("ADDSUPPLIER " + name + " supplier1"));
+            script.add(Commands.tokenize("REMOVESUPPLIER sku" + i + " missing"));
+            script.add(Commands.tokenize("ADDPRODUCT sku" + i));
+            script.add(Commands.tokenize("REMOVEPRODUCT " + name));
+         }
+         return () -> {
+            for (final String[] cmds: script) {
+               Main.execute(cmds, table, NULL_OUT);
+            }
+            return table;
+         };
+      }));
+
+      cases.add(new Case("Session.commit", "products", new int[] {100, 1000}, true,
+            (final int products) -> {
+         final List<String[]> script = new ArrayList<String[]>();
+         for (final String line: script(products)) {
+            script.add(Commands.tokenize(line));
+         }
+         final File file = File.createTempFile("benchmark", ".log");
+         final File snapshot = File.createTempFile("benchmark", ".sav");
+         file.deleteOnExit();
+         snapshot.deleteOnExit();
+         final Journal journal = new Journal(file.getPath(), 1, 0);
+         final HashTable<String, Product> table = new HashTable<String, Product>();
+         // never saves on its own, the script has no FLUSH
+         final Persister persister = new Persister(table, journal,
+               new SnapshotStore(snapshot.getPath(), 0, 0), TimeUnit.DAYS.toMillis(1), 0);
+         final Session session = new Session(table, journal, persister, true);
+         return () -> {
+            session.commit(script.iterator(), NULL_OUT);
+            journal.reset();
+            return session;
+         };
+      }));
+
+      return cases;
+   }
+
+   /**
+    * Creates distinct names with a shared prefix
+    * @param prefix start of every name
+    * @param count amount of names
+    * @return array of names
+    */
+   static String[] names (final String prefix, final int count) {
+      final String[] names = new String[count];
+      for (int i = 0; i < count; i++) {
+         names[i] = prefix + i;
+      }
+      return names;
+   }
+
+   /**
+    * Creates a table holding a priced, stocked and supplied product for each name
+    * @param names names of the products
+    * @return the filled table
+    */
+   static HashTable<String, Product> catalog (final String[] names) {
+      final HashTable<String, Product> table = new HashTable<String, Product>(names.length);
+      for (int i = 0; i < names.length; i++) {
+         final Product product = new Product(names[i], (i % 1000) + 0.99, i % 500);
+         product.addSupplier("supplier" + (i % 100));
+         table.put(names[i], product);
+      }
+      return table;
+   }
+
+   /**
+    * Runs a full collection while the table is still in use
+    * @param table the table kept live
+    * @return the table
+    */
+   static Table<String, Product> collect (final Table<String, Product> table) {
+      System.gc();
+      return table;
+   }
+
+   /**
+    * Checks a walk over a table made by catalog visited every product once
+    * @param visited sum of the inventory plus one over the products visited
+    * @param products amount of products in the table
+    * @return the sum
+    * @throws IllegalStateException when a product was missed or visited twice
+    */
+   static Long visited (final long visited, final int products) {
+      // inventory runs from 0 to 499 over and over, so each full run adds up to 500 * 501 / 2
+      final long partial = products % 500;
+      final long expected = (products / 500) * 125250L + partial * (partial + 1) / 2;
+      if (visited != expected) {
+         throw new IllegalStateException("Visited " + visited + " instead of " + expected);
+      }
+      return visited;
+   }
+
+   /**
+    * A command stream that adds, edits, shows and finally removes each product, so the table
+    * is left empty and the script can be replayed
+    * @param products amount of products handled by the script
+    * @return lines of the script
+    */
+   static List<String> script (final int products) {
+      final List<String> script = new ArrayList<String>();
+      for (int i = 0; i < products; i++) {
+         final String name = "sku" + i;
+         script.add("ADDPRODUCT " + name);
+         script.add("SETINVENTORY " + name + " " + (i % 500));
+         script.add("SETPRICE " + name + " " + (i % 100) + ".99");
+         script.add("ADDSUPPLIER " + name + " supplier" + (i % 100));
+         script.add("INCREASEINVENTORY " + name + " 10");
+         script.add("DECREASEINVENTORY " + name + " 5");
+         script.add("DISPLAYPRODUCT " + name);
+      }
+      script.add("DISPLAYALLPRODUCTS");
+      for (int i = 0; i < products; i++) {
+         script.add("REMOVEPRODUCT sku" + i);
+      }
+      return script;
+   }
+
+   /**
+    * Creates the operation of a benchmark for the JMH benchmarks in src/jmh, which time it
+    * themselves
+    * @param name name of benchmark
+    * @param param value of its parameter
+    * @return the operation, one call runs it once
+    * @throws Exception when the setup fails
+    * @throws IllegalArgumentException when there is no benchmark of that name
+    */
+   public static Callable<Object> operation (final String name, final int param)
+         throws Exception {
+      for (final Case c: cases()) {
+         if (c.name.equals(name)) {
+            return c.setup.create(param)::run;
+         }
+      }
+      throw new IllegalArgumentException("No benchmark " + name);
+   }
+
+   /**
+    * Runs the operation repeatedly for about the given time
+    * @param operation operation being timed
+    * @param nanos minimum time to run for
+    * @return average nanoseconds per operation
+    * @throws Exception when the operation fails
+    */
+   private static double iteration (final Operation operation, final long nanos)
+         throws Exception {
+      long count = 0;
+      final long start = System.nanoTime();
+      long elapsed;
+      do {
+         sink = operation.run();
+         count++;
+         elapsed = System.nanoTime() - start;
+      } while (elapsed < nanos);
+
+      return (double) elapsed / count;
+   }
+
+   public static void main (final String[] args) throws Exception {
+      Pattern filter = Pattern.compile(".*");
+      int warmups = 3;
+      int iterations = 5;
+      long millis = 1000;
+      String output = "benchmark-results.json";
+      for (int i = 0; i + 1 < args.length; i += 2) {
+         switch (args[i]) {
+            case "-f":
+               filter = Pattern.compile(args[i + 1]);
+               break;
+            case "-wi":
+               warmups = Integer.parseInt(args[i + 1]);
+               break;
+            case "-i":
+               iterations = Integer.parseInt(args[i + 1]);
+               break;
+            case "-t":
+               millis = Long.parseLong(args[i + 1]);
+               break;
+            case "-o":
+               output = args[i + 1];
+               break;
+            default:
+               System.out.printf("Unknown option %s\n", args[i]);
+               return;
+         }
+      }
+
+      final StringBuilder json = new StringBuilder("[\n");
+      final long nanos = millis * 1000000;
+      for (final Case c: cases()) {
+         if (!filter.matcher(c.name).find()) {
+            continue;
+         }
+
+         for (final int param: c.params) {
+            final Operation operation = c.setup.create(param);
+            for (int i = 0; i < warmups; i++) {
+               iteration(operation, nanos);
+            }
+
+            final double[] scores = new double[iterations];
+            for (int i = 0; i < iterations; i++) {
+               scores[i] = iteration(operation, nanos) / (c.perItem ? param : 1);
+            }
+            sink = null;
+
+            double mean = 0;
+            for (final double score: scores) {
+               mean += score;
+            }
+            mean /= scores.length;
+            double variance = 0;
+            for (final double score: scores) {
+               variance += (score - mean) * (score - mean);
+            }
+            final double error = scores.length > 1
+                  ? Math.sqrt(variance / (scores.length - 1))
+                  : 0;
+
+            System.out.printf(Locale.ROOT, "%-28s %-18s %16.3f +- %14.3f ns/op\n", c.name,
+                  c.paramName + "=" + param, mean, error);
+            if (json.length() > 2) {
+               json.append(",\n");
+            }
+            json.append(result(c, param, warmups, millis, mean, error, scores));
+         }
+      }
+      json.append("\n]\n");
+
+      try (FileWriter writer = new FileWriter(output)) {
+         writer.write(json.toString());
+      } catch (final IOException e) {
+         e.printStackTrace();
+      }
+   }
+
+   /**
+    * Formats one result as a JMH style JSON object
+    * @return JSON text of the result
+    */
+   private static String result (final Case c, final int param, final int warmups,
+         final long millis, final double score, final double error, final double[] scores) {
+      final StringBuilder raw = new StringBuilder();
+      for (final double s: scores) {
+         if (raw.length() > 0) {
+            raw.append(", ");
+         }
+         raw.append(String.format(Locale.ROOT, "%.3f", s));
+      }
+
+      return String.format(Locale.ROOT, "   {\n"
+            + "      \"benchmark\" : \"%s\",\n"
+            + "      \"mode\" : \"avgt\",\n"
+            + "      \"threads\" : 1,\n"
+            + "      \"forks\" : 0,\n"
+            + "      \"warmupIterations\" : %d,\n"
+            + "      \"measurementIterations\" : %d,\n"
+            + "      \"measurementTime\" : \"%d ms\",\n"
+            + "      \"params\" : {\n"
+            + "         \"%s\" : \"%d\"\n"
+            + "      },\n"
+            + "      \"primaryMetric\" : {\n"
+            + "         \"score\" : %.3f,\n"
+            + "         \"scoreError\" : %.3f,\n"
+            + "         \"scoreUnit\" : \"ns/op\",\n"
+            + "         \"rawData\" : [\n"
+            + "            [%s]\n"
+            + "         ]\n"
+            + "      }\n"
+            + "   }", c.name, warmups, scores.length, millis, c.paramName, param, score, error,
+            raw);
+   }
+}
@@ -0,0 +1,290 @@
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * Keeps the most recently used products of another table in memory, so looking up a hot
+ * product does not go back to a table that decodes it from disk or rebuilds it from columns
+ * every time. At most capacity products are kept, the least recently used one is dropped to
+ * make room for the next.
+ *
+ * Changes are written through: put and remove go to the table before the cache, and a
+ * product handed out by a table that listens to its products, like MappedTable or
+ * ColumnarTable, is listened to by the cache instead, which passes every change on to the
+ * table. A change reported for a copy of a product that is not the cached one drops the
+ * cached one, so it is read again from the table next time.
+ *
+ * Every method locks the cache. keySet and values are those of the table.
+ * @author Noah Rouse <my_email@noahrouse36@gmail.com>
+ */
+public final class CachedTable implements Table<String, Product>, Product.Listener {
+   private final Table<String, Product> table;
+   private final Product.Listener storage;
+   private final int capacity;
+   private final LinkedHashMap<String, Product> cache;
+   private long hits = 0;
+   private long misses = 0;
+   private long evictions = 0;
+
+   /**
+    *
+    * @param table the table holding the products
+    * @param capacity most products kept in the cache
+    */
+   public CachedTable (final Table<String, Product> table, final int capacity) {
+      if (capacity < 1) {
+         throw new IllegalArgumentException("Illegal capacity: " + capacity);
+      }
+      this.table = table;
+      this.storage = table instanceof Product.Listener ? (Product.Listener) table : null;
+      this.capacity = capacity;
+      this.cache = new LinkedHashMap<String, Product>(16, 0.75f, true) {
+         private static final long serialVersionUID = 1L;
+
+         @Override
+         protected boolean removeEldestEntry (final Map.Entry<String, Product> eldest) {
+            if (size() > CachedTable.this.capacity) {
+               evictions++;
+               return true;
+            }
+            return false;
+         }
+      };
+   }
+
+   /**
+    *
+    * @return the table holding the products
+    */
+   public Table<String, Product> table () {
+      return table;
+   }
+
+   /**
+    *
+    * @return most products kept in the cache
+    */
+   public int capacity () {
+      return capacity;
+   }
+
+   /**
+    *
+    * @return amount of products in the cache
+    */
+   public synchronized int cached () {
+      return cache.size();
+   }
+
+   /**
+    *
+    * @return amount of lookups answered by the cache
+    */
+   public synchronized long hits () {
+      return hits;
+   }
+
+   /**
+    *
+    * @return amount of lookups passed on to the table, including ones for missing products
+    */
+   public synchronized long misses () {
+      return misses;
+   }
+
+   /**
+    *
+    * @return amount of products dropped to make room for others
+    */
+   public synchronized long evictions () {
+      return evictions;
+   }
+
+   @Override
+   public synchronized int size () {
+      return table.size();
+   }
+
+   @Override
+   public synchronized boolean isEmpty () {
+      return table.isEmpty();
+   }
+
+   @Override
+   public synchronized void ensureCapacity (final int expected) {
+      table.ensureCapacity(expected);
+   }
+
+   @Override
+   public synchronized Product get (final String key) throws NoSuchElementException {
+      final Product product = getOrNull(key);
+      if (product == null) {
+         throw new NoSuchElementException("Key not added");
+      }
+      return product;
+   }
+
+   @Override
+   public synchronized Product getOrNull (final String key) {
+      final Product cached = cache.get(key);
+      if (cached != null) {
+         hits++;
+         return cached;
+      }
+
+      misses++;
+      final Product product = table.getOrNull(key);
+      if (product != null) {
+         listen(product);
+         cache.put(key, product);
+      }
+      return product;
+   }
+
+   @Override
+   public synchronized boolean containsKey (final String key) {
+      return cache.containsKey(key) || table.containsKey(key);
+   }
+
+   /**
+    * Caches whichever product the key ends up with, the given one or the one already there
+    */
+   @Override
+   public synchronized Product putIfAbsent (final String key, final Product value) {
+      final Product cached = cache.get(key);
+      if (cached != null) {
+         return cached;
+      }
+
+      final Product current = table.putIfAbsent(key, value);
+      final Product product = current != null ? current : value;
+      listen(product);
+      cache.put(key, product);
+      return current;
+   }
+
+   @Override
+   public synchronized void put (final String key, final Product value) {
+      table.put(key, value);
+      listen(value);
+      cache.put(key, value);
+   }
+
+   /**
+    * Removes the product from the table and the cache, handing out the cached copy if there
+    * is one since that is the one the caller has been changing
+    */
+   @Override
+   public synchronized Product remove (final String key) throws NoSuchElementException {
+      final Product removed = table.remove(key);
+      final Product cached = cache.remove(key);
+      return cached != null ? cached : removed;
+   }
+
+   @Override
+   public synchronized Product removeOrNull (final String key) {
+      final Product removed = table.removeOrNull(key);
+      final Product cached = cache.remove(key);
+      return cached != null ? cached : removed;
+   }
+
+   @Override
+   public synchronized Product computeIfAbsent (final String key,
+         final Function<? super String, ? extends Product> mapping) {
+      return Table.super.computeIfAbsent(key, mapping);
+   }
+
+   @Override
+   public synchronized Product compute (final String key,
+         final BiFunction<? super String, ? super Product, ? extends Product> remapping) {
+      return Table.super.compute(key, remapping);
+   }
+
+   @Override
+   public synchronized Product merge (final String key, final Product value,
+         final BiFunction<? super Product, ? super Product, ? extends Product> remapping) {
+      return Table.super.merge(key, value, remapping);
+   }
+
+   @Override
+   public Collection<String> keySet () {
+      return table.keySet();
+   }
+
+   @Override
+   public Collection<Product> values () {
+      return table.values();
+   }
+
+   @Override
+   public synchronized void supplierAdded (final Product product, final String supplier) {
+      if (storage != null) {
+         try {
+            storage.supplierAdded(product, supplier);
+         } catch (final RuntimeException e) {
+            refused(product);
+            throw e;
+         }
+      }
+      changed(product);
+   }
+
+   @Override
+   public synchronized void supplierRemoved (final Product product, final String supplier) {
+      if (storage != null) {
+         try {
+            storage.supplierRemoved(product, supplier);
+         } catch (final RuntimeException e) {
+            refused(product);
+            throw e;
+         }
+      }
+      changed(product);
+   }
+
+   @Override
+   public synchronized void inventoryChanged (final Product product) {
+      if (storage != null) {
+         storage.inventoryChanged(product);
+      }
+      changed(product);
+   }
+
+   @Override
+   public synchronized void priceChanged (final Product product) {
+      if (storage != null) {
+         storage.priceChanged(product);
+      }
+      changed(product);
+   }
+
+   /**
+    * Takes over listening to a product the table listens to, so its changes pass the cache
+    */
+   private void listen (final Product product) {
+      if (storage != null && product.listener() == storage) {
+         product.setListener(this);
+      }
+   }
+
+   /**
+    * Drops the cached product when the table refused a change to it, like an off-heap table
+    * with no room left for its suppliers, so it is read again as the table holds it
+    */
+   private void refused (final Product product) {
+      cache.remove(product.name());
+   }
+
+   /**
+    * Drops the cached product of the same name when a different copy of it was changed
+    */
+   private void changed (final Product product) {
+      final Product cached = cache.get(product.name());
+      if (cached != null && cached != product) {
+         cache.remove(product.name());
+      }
+   }
+}
@@ -0,0 +1,566 @@
+import java.math.BigDecimal;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * The product table used by Main, wrapping the table the products are stored in and keeping
+ * the secondary indexes over it up to date. Indexes are built the first time they are used,
+ * so a catalog that is only read lazily from disk is not decoded in full until then. From
+ * that point every product added, removed or handed out by get is registered with them and
+ * the catalog listens to it, passing its changes on to the indexes. A table that listens to
+ * its own products, like ColumnarTable, MappedTable or CachedTable, is passed the changes
+ * first.
+ *
+ * Once trackChanges is called the catalog also remembers the names of the products added,
+ * changed or removed, so SnapshotStore can save only those. It then listens to every product
+ * it hands out, whether indexes exist or not.
+ * @author Noah Rouse <my_email@noahrouse36@gmail.com>
+ */
+public final class Catalog implements Table<String, Product>, Product.Listener {
+   private final Table<String, Product> table;
+   private final Product.Listener storage;
+   private volatile SupplierIndex suppliers;
+   private volatile RangeIndex<BigDecimal> prices;
+   private volatile RangeIndex<Integer> inventory;
+   private volatile NameIndex names;
+   private volatile boolean indexed = false;
+   private volatile boolean tracking = false;
+   // guarded by itself rather than the catalog, as tables may report changes under locks of
+   // their own
+   private final HashSet<String> changed = new HashSet<String>();
+
+   /**
+    *
+    * @param table the table holding the products
+    */
+   public Catalog (final Table<String, Product> table) {
+      this.table = table;
+      this.storage = table instanceof Product.Listener ? (Product.Listener) table : null;
+   }
+
+   /**
+    *
+    * @return the table holding the products
+    */
+   public Table<String, Product> table () {
+      return table;
+   }
+
+   /**
+    * Starts remembering the names of the products that change, called before the journal is
+    * replayed so its commands count as changes too
+    */
+   public void trackChanges () {
+      tracking = true;
+   }
+
+   /**
+    *
+    * @return true once trackChanges has been called
+    */
+   public boolean tracksChanges () {
+      return tracking;
+   }
+
+   /**
+    * Callers hold the catalog lock so no change is missed while the names are used
+    * @return amount of products changed since the last call to takeChanges
+    */
+   public int changes () {
+      synchronized (changed) {
+         return changed.size();
+      }
+   }
+
+   /**
+    * Hands over the names of the products changed since the last call, the table holds their
+    * current state and lacks the ones removed
+    * @return the names, which the catalog no longer uses
+    */
+   public Set<String> takeChanges () {
+      synchronized (changed) {
+         final HashSet<String> names = new HashSet<String>(changed);
+         changed.clear();
+         return names;
+      }
+   }
+
+   /**
+    * Builds the supplier index on first use, holding the catalog lock while it is built
+    * @return the supplier index
+    */
+   public SupplierIndex suppliers () {
+      if (suppliers == null) {
+         synchronized (this) {
+            if (suppliers == null) {
+               final SupplierIndex index = new SupplierIndex();
+               for (final Product product: table.values()) {
+                  index.add(product);
+                  product.setListener(this);
+               }
+               suppliers = index;
+               indexed = true;
+            }
+         }
+      }
+      return suppliers;
+   }
+
+   /**
+    * Builds the price index on first use, holding the catalog lock while it is built
+    * @return index of the products by price
+    */
+   public RangeIndex<BigDecimal> prices () {
+      if (prices == null) {
+         synchronized (this) {
+            if (prices == null) {
+               prices = build(Product::price);
+               indexed = true;
+            }
+         }
+      }
+      return prices;
+   }
+
+   /**
+    * Builds the inventory index on first use, holding the catalog lock while it is built
+    * @return index of the products by inventory
+    */
+   public RangeIndex<Integer> inventory () {
+      if (inventory == null) {
+         synchronized (this) {
+            if (inventory == null) {
+               inventory = build(Product::amount);
+               indexed = true;
+            }
+         }
+      }
+      return inventory;
+   }
+
+   /**
+    * Builds the name index on first use from the keys of the table, holding the catalog lock
+    * while it is built. Names do not change, so products do not have to be listened to.
+    * @return index of the product names
+    */
+   public NameIndex names () {
+      if (names == null) {
+         synchronized (this) {
+            if (names == null) {
+               final NameIndex index = new NameIndex();
+               for (final String name: table.keySet()) {
+                  index.add(name);
+               }
+               names = index;
+            }
+         }
+      }
+      return names;
+   }
+
+   /**
+    * The name index of a Catalog, other tables get an index built on the spot
+    * @param table contains all products
+    * @return index of the product names
+    */
+   public static NameIndex namesOf (final Table<String, Product> table) {
+      if (table instanceof Catalog) {
+         return ((Catalog) table).names();
+      }
+      final NameIndex index = new NameIndex();
+      for (final String name: table.keySet()) {
+         index.add(name);
+      }
+      return index;
+   }
+
+   /**
+    * The supplier index of a Catalog, other tables get an index built on the spot
+    * @param table contains all products
+    * @return index over the suppliers of the table
+    */
+   public static SupplierIndex suppliersOf (final Table<String, Product> table) {
+      if (table instanceof Catalog) {
+         return ((Catalog) table).suppliers();
+      }
+      final SupplierIndex index = new SupplierIndex();
+      for (final Product product: table.values()) {
+         index.add(product);
+      }
+      return index;
+   }
+
+   /**
+    * The price index of a Catalog, other tables get an index built on the spot
+    * @param table contains all products
+    * @return index of the products by price
+    */
+   public static RangeIndex<BigDecimal> pricesOf (final Table<String, Product> table) {
+      if (table instanceof Catalog) {
+         return ((Catalog) table).prices();
+      }
+      final RangeIndex<BigDecimal> index = new RangeIndex<BigDecimal>(Product::price);
+      for (final Product product: table.values()) {
+         index.update(product);
+      }
+      return index;
+   }
+
+   /**
+    * The inventory index of a Catalog, other tables get an index built on the spot
+    * @param table contains all products
+    * @return index of the products by inventory
+    */
+   public static RangeIndex<Integer> inventoryOf (final Table<String, Product> table) {
+      if (table instanceof Catalog) {
+         return ((Catalog) table).inventory();
+      }
+      final RangeIndex<Integer> index = new RangeIndex<Integer>(Product::amount);
+      for (final Product product: table.values()) {
+         index.update(product);
+      }
+      return index;
+   }
+
+   @Override
+   public int size () {
+      return table.size();
+   }
+
+   @Override
+   public boolean isEmpty () {
+      return table.isEmpty();
+   }
+
+   @Override
+   public void ensureCapacity (final int expected) {
+      table.ensureCapacity(expected);
+   }
+
+   /**
+    * Retrieves a product, making sure the indexes follow any change made to it
+    */
+   @Override
+   public Product get (final String key) throws NoSuchElementException {
+      final Product product = getOrNull(key);
+      if (product == null) {
+         throw new NoSuchElementException("Key not added");
+      }
+      return product;
+   }
+
+   /**
+    * Retrieves a product like get, counting the lookup as a hit or miss in Stats
+    */
+   @Override
+   public Product getOrNull (final String key) {
+      final Product product = table.getOrNull(key);
+      Stats.lookup(product != null);
+      return product == null ? null : track(product);
+   }
+
+   @Override
+   public boolean containsKey (final String key) {
+      return table.containsKey(key);
+   }
+
+   /**
+    * Stores the product before indexing it, so a table that refuses it, like an off-heap
+    * table out of budget, leaves the indexes as they were
+    */
+   @Override
+   public void put (final String key, final Product value) {
+      final Product current = indexed ? table.getOrNull(key) : null;
+      table.put(key, value);
+      changed(key);
+      if (indexed) {
+         if (current != null) {
+            detach(current);
+         }
+         attach(value);
+      }
+      final NameIndex index = names;
+      if (index != null) {
+         index.add(key);
+      }
+   }
+
+   @Override
+   public Product putIfAbsent (final String key, final Product value) {
+      final Product product = computeIfAbsent(key, k -> value);
+      return product == value ? null : product;
+   }
+
+   @Override
+   public Product removeOrNull (final String key) {
+      final Product product = table.removeOrNull(key);
+      if (product == null) {
+         return null;
+      }
+      changed(key);
+      if (indexed) {
+         detach(product);
+      }
+      final NameIndex index = names;
+      if (index != null) {
+         index.remove(key);
+      }
+      return product;
+   }
+
+   /**
+    * Runs the computeIfAbsent of the table, so the key is looked for once, counting the lookup
+    * as a hit or miss in Stats by whether the mapping function ran. The product it makes is
+    * indexed from inside it and taken out again when the table refuses it.
+    */
+   @Override
+   public Product computeIfAbsent (final String key,
+         final Function<? super String, ? extends Product> mapping) {
+      final boolean[] missed = {false};
+      final Product[] made = new Product[1];
+      final Product product;
+      try {
+         product = table.computeIfAbsent(key, k -> {
+            missed[0] = true;
+            final Product value = mapping.apply(k);
+            if (value != null) {
+               changed(k);
+               if (indexed) {
+                  attach(value);
+               }
+               made[0] = value;
+            }
+            return value;
+         });
+      } catch (final RuntimeException e) {
+         if (indexed && made[0] != null) {
+            detach(made[0]);
+         }
+         throw e;
+      }
+      Stats.lookup(!missed[0]);
+      if (product == null) {
+         return null;
+      }
+      if (product != made[0]) {
+         return track(product);
+      }
+      final NameIndex index = names;
+      if (index != null) {
+         index.add(key);
+      }
+      return product;
+   }
+
+   /**
+    * Runs the compute of the table, so it is as atomic as the table makes it, updating the
+    * indexes from inside the remapping function when the product of the key is replaced. The
+    * table stores the product after the function returns, when it refuses it the indexes are
+    * put back.
+    */
+   @Override
+   public Product compute (final String key,
+         final BiFunction<? super String, ? super Product, ? extends Product> remapping) {
+      // the product replaced and its replacement, the same when nothing was replaced
+      final Product[] replaced = new Product[2];
+      final Product value;
+      try {
+         value = table.compute(key, (k, current) -> {
+            final Product product = current == null ? null : track(current);
+            final Product next = remapping.apply(k, product);
+            if (next != product) {
+               changed(k);
+               if (indexed && product != null) {
+                  detach(product);
+               }
+               if (indexed && next != null) {
+                  attach(next);
+               }
+               replaced[0] = product;
+               replaced[1] = next;
+            }
+            return next;
+         });
+      } catch (final RuntimeException e) {
+         if (indexed && replaced[0] != replaced[1]) {
+            if (replaced[1] != null) {
+               detach(replaced[1]);
+            }
+            if (replaced[0] != null) {
+               attach(replaced[0]);
+            }
+         }
+         throw e;
+      }
+      final NameIndex index = names;
+      if (index != null) {
+         if (value != null) {
+            index.add(key);
+         } else {
+            index.remove(key);
+         }
+      }
+      return value;
+   }
+
+   @Override
+   public Product remove (final String key) throws NoSuchElementException {
+      final Product product = table.remove(key);
+      changed(key);
+      if (indexed) {
+         detach(product);
+      }
+      final NameIndex index = names;
+      if (index != null) {
+         index.remove(key);
+      }
+      return product;
+   }
+
+   @Override
+   public Collection<String> keySet () {
+      return table.keySet();
+   }
+
+   @Override
+   public Collection<Product> values () {
+      return table.values();
+   }
+
+   @Override
+   public void supplierAdded (final Product product, final String supplier) {
+      changed(product.name());
+      if (storage != null) {
+         storage.supplierAdded(product, supplier);
+      }
+      final SupplierIndex index = suppliers;
+      if (index != null) {
+         index.supplierAdded(product, supplier);
+      }
+   }
+
+   @Override
+   public void supplierRemoved (final Product product, final String supplier) {
+      changed(product.name());
+      if (storage != null) {
+         storage.supplierRemoved(product, supplier);
+      }
+      final SupplierIndex index = suppliers;
+      if (index != null) {
+         index.supplierRemoved(product, supplier);
+      }
+   }
+
+   @Override
+   public void inventoryChanged (final Product product) {
+      changed(product.name());
+      if (storage != null) {
+         storage.inventoryChanged(product);
+      }
+      final RangeIndex<Integer> index = inventory;
+      if (index != null) {
+         index.update(product);
+      }
+   }
+
+   @Override
+   public void priceChanged (final Product product) {
+      changed(product.name());
+      if (storage != null) {
+         storage.priceChanged(product);
+      }
+      final RangeIndex<BigDecimal> index = prices;
+      if (index != null) {
+         index.update(product);
+      }
+   }
+
+   /**
+    * Makes sure the indexes follow any change made to a product handed out by the table
+    * @param product product the table handed out
+    * @return the product
+    */
+   private Product track (final Product product) {
+      if ((indexed || tracking) && product.listener() != this) {
+         if (storage != null && product.listener() == storage) {
+            // rebuilt or decoded from a copy that is indexed already, only the changes need
+            // passing on
+            product.setListener(this);
+         } else {
+            // a product the table handed out without listening to it
+            attach(product);
+         }
+      }
+      return product;
+   }
+
+   /**
+    * Remembers that a product was added, changed or removed, once tracking
+    * @param name name of the product
+    */
+   private void changed (final String name) {
+      if (tracking) {
+         synchronized (changed) {
+            changed.add(name);
+         }
+      }
+   }
+
+   /**
+    * Indexes every product under the value read from it and starts listening to it
+    * @param value reads the indexed value of a product
+    * @return the new index
+    */
+   private <K extends Comparable<K>> RangeIndex<K> build (final Function<Product, K> value) {
+      final RangeIndex<K> index = new RangeIndex<K>(value);
+      for (final Product product: table.values()) {
+         index.update(product);
+         product.setListener(this);
+      }
+      return index;
+   }
+
+   /**
+    * Registers a product with every index built so far and listens to it
+    */
+   private void attach (final Product product) {
+      final SupplierIndex supplierIndex = suppliers;
+      if (supplierIndex != null) {
+         supplierIndex.add(product);
+      }
+      final RangeIndex<BigDecimal> priceIndex = prices;
+      if (priceIndex != null) {
+         priceIndex.update(product);
+      }
+      final RangeIndex<Integer> inventoryIndex = inventory;
+      if (inventoryIndex != null) {
+         inventoryIndex.update(product);
+      }
+      product.setListener(this);
+   }
+
+   /**
+    * Removes a product from every index and stops listening to it
+    */
+   private void detach (final Product product) {
+      if (product.listener() == this) {
+         product.setListener(null);
+      }
+      final SupplierIndex supplierIndex = suppliers;
+      if (supplierIndex != null) {
+         supplierIndex.remove(product);
+      }
+      final RangeIndex<BigDecimal> priceIndex = prices;
+      if (priceIndex != null) {
+         priceIndex.remove(product);
+      }
+      final RangeIndex<Integer> inventoryIndex = inventory;
+      if (inventoryIndex != null) {
+         inventoryIndex.remove(product);
+      }
+   }
+}
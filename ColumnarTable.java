@@ -0,0 +1,448 @@
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.AbstractCollection;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Spliterator;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+import java.util.stream.IntStream;
+
+/**
+ * Product table stored as columns instead of one object per product. Every product is a row
+ * of parallel arrays: its name, its inventory, its price as a fixed point amount of cents and
+ * its SupplierRegistry ids, so a product costs its name and a few array slots instead of a
+ * Product, a BigDecimal and a table entry. The id arrays are shared with the products they
+ * came from as neither ever changes them.
+ * Rows are found through an open addressing index of row numbers and removing a product moves
+ * the last row into its place, so the columns stay dense.
+ *
+ * get and values hand out products rebuilt from the row. The table listens to them and writes
+ * every change back to the row, so they are changed like the products of any other table,
+ * but they are copies and should only be held while a command runs. The price column holds
+ * the cents shifted left by two bits with the amount of decimals, 0 to 2, in the low bits, so
+ * $2.5 is read back as $2.5 and not $2.50. Prices with more decimals, like $2.500, are kept
+ * as they are next to the columns.
+ *
+ * Every method locks the table, the views read a row at a time and are only weakly
+ * consistent while the table is being changed.
+ * @author Noah Rouse <my_email@noahrouse36@gmail.com>
+ */
+public final class ColumnarTable implements Table<String, Product>, Product.Listener {
+   private static final int DEFAULT_CAPACITY = 16;
+   private static final float LOAD_FACTOR = 0.75f;
+   static final long NO_PRICE = Long.MIN_VALUE;
+   private static final int SCALE_BITS = 2;
+   private static final int MAX_SCALE = 2;
+   private static final BigInteger MAX_CENTS = BigInteger.valueOf(Long.MAX_VALUE >> SCALE_BITS);
+   // one above the lowest so no price encodes to NO_PRICE
+   private static final BigInteger MIN_CENTS =
+         BigInteger.valueOf((Long.MIN_VALUE >> SCALE_BITS) + 1);
+
+   private String[] names;
+   private int[] inventory;
+   private long[] cents;
+   private int[][] suppliers;
+   private final HashMap<String, BigDecimal> exactPrices = new HashMap<String, BigDecimal>();
+   private int[] slots;
+   private int size = 0;
+
+   /**
+    * Creates an empty table
+    */
+   public ColumnarTable () {
+      this(DEFAULT_CAPACITY);
+   }
+
+   /**
+    * Creates an empty table with room for the given amount of products
+    * @param initialCapacity amount of products held before the columns grow
+    */
+   public ColumnarTable (final int initialCapacity) {
+      final int rows = Math.max(initialCapacity, DEFAULT_CAPACITY);
+      names = new String[rows];
+      inventory = new int[rows];
+      cents = new long[rows];
+      suppliers = new int[rows][];
+      slots = new int[slotsFor(rows)];
+   }
+
+   /**
+    * Copies every product of another table into a new columnar table
+    * @param table the products
+    * @return the new table
+    */
+   public static ColumnarTable copyOf (final Table<String, Product> table) {
+      final ColumnarTable copy = new ColumnarTable(table.size());
+      for (final Product product: table.values()) {
+         copy.put(product.name(), product);
+      }
+      return copy;
+   }
+
+   @Override
+   public synchronized int size () {
+      return size;
+   }
+
+   @Override
+   public synchronized boolean isEmpty () {
+      return size == 0;
+   }
+
+   @Override
+   public synchronized Product get (final String key) throws NoSuchElementException {
+      final int row = rowOf(key);
+      if (row == -1) {
+         throw new NoSuchElementException("Key not added");
+      }
+      return product(row);
+   }
+
+   @Override
+   public synchronized Product getOrNull (final String key) {
+      final int row = rowOf(key);
+      return row == -1 ? null : product(row);
+   }
+
+   /**
+    * Answered from the index without rebuilding the product
+    */
+   @Override
+   public synchronized boolean containsKey (final String key) {
+      return rowOf(key) != -1;
+   }
+
+   /**
+    * The defaults of Table run under the table lock, so nothing changes the key in between
+    */
+   @Override
+   public synchronized Product putIfAbsent (final String key, final Product value) {
+      return Table.super.putIfAbsent(key, value);
+   }
+
+   @Override
+   public synchronized Product removeOrNull (final String key) {
+      return Table.super.removeOrNull(key);
+   }
+
+   @Override
+   public synchronized Product computeIfAbsent (final String key,
+         final Function<? super String, ? extends Product> mapping) {
+      return Table.super.computeIfAbsent(key, mapping);
+   }
+
+   @Override
+   public synchronized Product compute (final String key,
+         final BiFunction<? super String, ? super Product, ? extends Product> remapping) {
+      return Table.super.compute(key, remapping);
+   }
+
+   @Override
+   public synchronized Product merge (final String key, final Product value,
+         final BiFunction<? super Product, ? super Product, ? extends Product> remapping) {
+      return Table.super.merge(key, value, remapping);
+   }
+
+   /**
+    * Stores the fields of the product in the row of the key. The product is listened to if
+    * nothing else does, so later changes to it are stored as well.
+    */
+   @Override
+   public synchronized void put (final String key, final Product value) {
+      int row = rowOf(key);
+      if (row == -1) {
+         if (size == names.length) {
+            grow();
+         }
+         row = size++;
+         names[row] = key;
+         link(row);
+      }
+      inventory[row] = value.amount();
+      store(row, value.price());
+      suppliers[row] = value.supplierIds();
+      if (value.listener() == null) {
+         value.setListener(this);
+      }
+   }
+
+   @Override
+   public synchronized Product remove (final String key) throws NoSuchElementException {
+      final int row = rowOf(key);
+      if (row == -1) {
+         throw new NoSuchElementException("Key not added");
+      }
+      final Product product = product(row);
+      unlink(key);
+      exactPrices.remove(key);
+
+      final int last = --size;
+      if (row != last) {
+         // move the last row into the hole and point its slot at the new row
+         names[row] = names[last];
+         inventory[row] = inventory[last];
+         cents[row] = cents[last];
+         suppliers[row] = suppliers[last];
+         slots[slotOf(names[row])] = row + 1;
+      }
+      names[last] = null;
+      suppliers[last] = null;
+      return product;
+   }
+
+   /**
+    *
+    * @return a view of the names, read a row at a time
+    */
+   @Override
+   public Collection<String> keySet () {
+      return new Rows<String>(this::name);
+   }
+
+   /**
+    *
+    * @return a view of the products, each one rebuilt from its row as it is handed out
+    */
+   @Override
+   public Collection<Product> values () {
+      return new Rows<Product>(this::productAt);
+   }
+
+   @Override
+   public synchronized void supplierAdded (final Product product, final String supplier) {
+      final int row = rowOf(product.name());
+      if (row != -1) {
+         suppliers[row] = product.supplierIds();
+      }
+   }
+
+   @Override
+   public synchronized void supplierRemoved (final Product product, final String supplier) {
+      final int row = rowOf(product.name());
+      if (row != -1) {
+         suppliers[row] = product.supplierIds();
+      }
+   }
+
+   @Override
+   public synchronized void inventoryChanged (final Product product) {
+      final int row = rowOf(product.name());
+      if (row != -1) {
+         inventory[row] = product.amount();
+      }
+   }
+
+   @Override
+   public synchronized void priceChanged (final Product product) {
+      final int row = rowOf(product.name());
+      if (row != -1) {
+         store(row, product.price());
+      }
+   }
+
+   /**
+    * View over the rows handing out what the reader makes of each one
+    */
+   private final class Rows<T> extends AbstractCollection<T> {
+      private final IntFunction<T> reader;
+
+      private Rows (final IntFunction<T> reader) {
+         this.reader = reader;
+      }
+
+      @Override
+      public int size () {
+         return ColumnarTable.this.size();
+      }
+
+      @Override
+      public Iterator<T> iterator () {
+         return new Iterator<T>() {
+            private int row = 0;
+            private T next = reader.apply(0);
+
+            @Override
+            public boolean hasNext () {
+               return next != null;
+            }
+
+            @Override
+            public T next () {
+               if (next == null) {
+                  throw new NoSuchElementException();
+               }
+               final T current = next;
+               next = reader.apply(++row);
+               return current;
+            }
+         };
+      }
+
+      /**
+       * Splits along row ranges so reports can read the table in parallel
+       */
+      @Override
+      public Spliterator<T> spliterator () {
+         return IntStream.range(0, size()).mapToObj(reader).filter(Objects::nonNull)
+               .spliterator();
+      }
+   }
+
+   /**
+    * @return the name in a row or null once past the last row
+    */
+   private synchronized String name (final int row) {
+      return row < size ? names[row] : null;
+   }
+
+   /**
+    * @return the product in a row or null once past the last row
+    */
+   private synchronized Product productAt (final int row) {
+      return row < size ? product(row) : null;
+   }
+
+   /**
+    * Rebuilds the product stored in a row and listens to it
+    */
+   private Product product (final int row) {
+      final long price = cents[row];
+      final Product product = new Product(names[row], suppliers[row], inventory[row],
+            price == NO_PRICE ? exactPrices.get(names[row]) : decodePrice(price));
+      product.setListener(this);
+      return product;
+   }
+
+   /**
+    * Stores a price as cents when it has at most two decimals and as it is otherwise
+    */
+   private void store (final int row, final BigDecimal price) {
+      final long value = encodePrice(price);
+      cents[row] = value;
+      if (value == NO_PRICE && price != null) {
+         exactPrices.put(names[row], price);
+      } else {
+         exactPrices.remove(names[row]);
+      }
+   }
+
+   /**
+    * @param price the price or null
+    * @return the price in cents with its amount of decimals in the low bits, or NO_PRICE when
+    * it has more than two decimals, a negative scale, is too large or there is no price
+    */
+   static long encodePrice (final BigDecimal price) {
+      if (price == null || price.scale() < 0 || price.scale() > MAX_SCALE) {
+         return NO_PRICE;
+      }
+      final BigInteger cents = price.setScale(2).unscaledValue();
+      if (cents.compareTo(MAX_CENTS) > 0 || cents.compareTo(MIN_CENTS) < 0) {
+         return NO_PRICE;
+      }
+      return cents.longValue() << SCALE_BITS | price.scale();
+   }
+
+   /**
+    * @param value a price returned by encodePrice other than NO_PRICE
+    * @return the price with the amount of decimals it was stored with
+    */
+   static BigDecimal decodePrice (final long value) {
+      // the cents past the decimals kept are zero, so dropping them is exact
+      return BigDecimal.valueOf(value >> SCALE_BITS, 2)
+            .setScale((int) (value & ((1 << SCALE_BITS) - 1)));
+   }
+
+   /**
+    * @return the row of the key or -1 if it is not stored
+    */
+   private int rowOf (final String key) {
+      final int slot = slotOf(key);
+      return slot == -1 ? -1 : slots[slot] - 1;
+   }
+
+   /**
+    * Linear probe for the slot pointing at the row of the key
+    * @return the slot or -1 if the key is not stored
+    */
+   private int slotOf (final String key) {
+      final int mask = slots.length - 1;
+      int i = hash(key) & mask;
+      int row;
+      while ((row = slots[i]) != 0) {
+         if (names[row - 1].equals(key)) {
+            return i;
+         }
+         i = (i + 1) & mask;
+      }
+      return -1;
+   }
+
+   /**
+    * Points the first empty slot of the name's probe sequence at the row
+    */
+   private void link (final int row) {
+      final int mask = slots.length - 1;
+      int i = hash(names[row]) & mask;
+      while (slots[i] != 0) {
+         i = (i + 1) & mask;
+      }
+      slots[i] = row + 1;
+   }
+
+   /**
+    * Empties the slot of a key and shifts back any slots of the same cluster that probed
+    * past it, like HashTable does
+    */
+   private void unlink (final String key) {
+      final int mask = slots.length - 1;
+      int index = slotOf(key);
+      int i = index;
+      while (true) {
+         i = (i + 1) & mask;
+         if (slots[i] == 0) {
+            break;
+         }
+         final int home = hash(names[slots[i] - 1]) & mask;
+         if (((i - home) & mask) >= ((i - index) & mask)) {
+            slots[index] = slots[i];
+            index = i;
+         }
+      }
+      slots[index] = 0;
+   }
+
+   /**
+    * Doubles the columns and rebuilds the index for them
+    */
+   private void grow () {
+      final int rows = names.length * 2;
+      names = Arrays.copyOf(names, rows);
+      inventory = Arrays.copyOf(inventory, rows);
+      cents = Arrays.copyOf(cents, rows);
+      suppliers = Arrays.copyOf(suppliers, rows);
+      slots = new int[slotsFor(rows)];
+      for (int row = 0; row < size; row++) {
+         link(row);
+      }
+   }
+
+   private static int slotsFor (final int rows) {
+      final long needed = (long) Math.ceil(rows / (double) LOAD_FACTOR) + 1;
+      int capacity = DEFAULT_CAPACITY;
+      while (capacity < needed) {
+         capacity <<= 1;
+      }
+      return capacity;
+   }
+
+   private static int hash (final Object key) {
+      final int h = key.hashCode() * 0x9E3779B9;
+      return h ^ (h >>> 16);
+   }
+}
@@ -0,0 +1,424 @@
+import java.io.PrintStream;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Registry of the commands understood by the command loop. Commands are found by name,
+ * ignoring case, through an open addressing table hashed over the case folded characters so
+ * looking a command up neither walks a chain of comparisons nor allocates. Every command
+ * declares the parameters it takes, missing and unparsable arguments are reported the same
+ * way for all commands before the handler runs, and extra arguments are ignored. Trailing
+ * parameters may be optional, the handler then gets their default value.
+ * @author Noah Rouse <my_email@noahrouse36@gmail.com>
+ */
+public final class Commands {
+   /**
+    * Runs a command whose arguments have been checked and parsed
+    */
+   public interface Handler {
+      /**
+       * @param args the parsed arguments, one per declared parameter
+       * @param table contains all products
+       * @param out stream the result is printed to
+       * @return status of the command
+       */
+      Main.Status run (Object[] args, Table<String, Product> table, PrintStream out);
+   }
+
+   /**
+    * Turns an argument into the value passed to the handler
+    */
+   public interface Parser {
+      /**
+       * @param text the argument as typed
+       * @return the parsed value
+       * @throws IllegalArgumentException when the argument is invalid
+       */
+      Object parse (String text);
+   }
+
+   /**
+    * A declared parameter of a command
+    */
+   public static final class Param {
+      private final String description;
+      private final String kind;
+      private final Parser parser;
+      private final String fallback;
+
+      /**
+       *
+       * @param description what is missing when the argument is not given
+       * @param kind what is invalid when the argument can not be parsed
+       * @param parser parses the argument
+       */
+      public Param (final String description, final String kind, final Parser parser) {
+         this(description, kind, parser, null);
+      }
+
+      private Param (final String description, final String kind, final Parser parser,
+            final String fallback) {
+         this.description = description;
+         this.kind = kind;
+         this.parser = parser;
+         this.fallback = fallback;
+      }
+
+      /**
+       * @param fallback argument used when none is given
+       * @return the same parameter made optional
+       */
+      public Param orElse (final String fallback) {
+         return new Param(description, kind, parser, fallback);
+      }
+
+      /**
+       * @param description what is missing when the argument is not given
+       * @return a parameter passed to the handler as a String
+       */
+      public static Param text (final String description) {
+         return new Param(description, description, text -> text);
+      }
+
+      /**
+       * @param description what is missing when the argument is not given
+       * @return a parameter passed to the handler as an Integer
+       */
+      public static Param amount (final String description) {
+         return new Param(description, "amount", Integer::valueOf);
+      }
+
+      /**
+       * @param description what is missing when the argument is not given
+       * @return a parameter passed to the handler as a BigDecimal
+       */
+      public static Param price (final String description) {
+         return new Param(description, "price", BigDecimal::new);
+      }
+   }
+
+   /**
+    * A named command, its parameters and its handler
+    */
+   public static final class Command {
+      private final String name;
+      private final boolean mutates;
+      private final Param[] params;
+      private final Handler handler;
+      private final LatencyHistogram latency = new LatencyHistogram();
+
+      /**
+       *
+       * @param name name of the command, matched ignoring case
+       * @param mutates true if the command may change the table and must be journaled
+       * @param handler runs the command
+       * @param params the parameters the command requires, in order
+       */
+      public Command (final String name, final boolean mutates, final Handler handler,
+            final Param... params) {
+         this.name = name.toUpperCase();
+         this.mutates = mutates;
+         this.handler = handler;
+         this.params = params;
+      }
+
+      /**
+       *
+       * @return the upper case name of the command
+       */
+      public String name () {
+         return name;
+      }
+
+      /**
+       *
+       * @return true if the command may change the table
+       */
+      public boolean mutates () {
+         return mutates;
+      }
+
+      /**
+       *
+       * @return how long the command took each time it ran
+       */
+      public LatencyHistogram latency () {
+         return latency;
+      }
+
+      /**
+       *
+       * @return the name followed by a placeholder for each parameter
+       */
+      public String usage () {
+         final StringBuilder usage = new StringBuilder(name);
+         for (final Param param: params) {
+            if (param.fallback == null) {
+               usage.append(" <").append(param.description).append('>');
+            } else {
+               usage.append(" [").append(param.description).append(']');
+            }
+         }
+         return usage.toString();
+      }
+   }
+
+   private static final List<Command> ORDER = new ArrayList<Command>();
+   private static volatile Command[] slots = new Command[64];
+
+   static {
+      register(new Command("HELP", false, (args, table, out) -> {
+         for (final Command command: commands()) {
+            out.println(command.usage());
+         }
+         return Main.Status.READ;
+      }));
+      register(new Command("EXIT", false, (args, table, out) -> Main.Status.EXIT));
+      register(new Command("DISPLAYPRODUCT", false, (args, table, out) -> {
+         Main.displayProduct((String) args[0], table, out);
+         return Main.Status.READ;
+      }, Param.text("product name")));
+      register(new Command("DISPLAYALLPRODUCTS", false, (args, table, out) -> {
+         Main.displayAllProducts(table, out);
+         return Main.Status.READ;
+      }));
+      register(new Command("ADDPRODUCT", true, (args, table, out) ->
+            changed(Main.addProduct((String) args[0], table, out) != null),
+            Param.text("product name")));
+      register(new Command("REMOVEPRODUCT", true, (args, table, out) ->
+            changed(Main.removeProduct((String) args[0], table, out) != null),
+            Param.text("product name")));
+      register(new Command("ADDSUPPLIER", true, (args, table, out) ->
+            changed(Main.addSupplier((String) args[0], (String) args[1], table, out) != null),
+            Param.text("product name"), Param.text("supplier name")));
+      register(new Command("REMOVESUPPLIER", true, (args, table, out) ->
+            changed(Main.removeSupplier((String) args[0], (String) args[1], table, out) != null),
+            Param.text("product name"), Param.text("supplier name")));
+      register(new Command("SETINVENTORY", true, (args, table, out) ->
+            changed(Main.setInventory((String) args[0], (Integer) args[1], table, out) != -1),
+            Param.text("product name"), Param.amount("inventory amount")));
+      register(new Command("INCREASEINVENTORY", true, (args, table, out) ->
+            changed(Main.increaseInventory((String) args[0], (Integer) args[1], table, out)
+                  != -1),
+            Param.text("product name"), Param.amount("increase amount")));
+      register(new Command("DECREASEINVENTORY", true, (args, table, out) ->
+            changed(Main.decreaseInventory((String) args[0], (Integer) args[1], table, out)
+                  != -1),
+            Param.text("product name"), Param.amount("decrease amount")));
+      register(new Command("SETPRICE", true, (args, table, out) ->
+            changed(Main.setPrice((String) args[0], (BigDecimal) args[1], table, out) != null),
+            Param.text("product name"), Param.price("price")));
+      register(new Command("PRODUCTSBYSUPPLIER", false, (args, table, out) -> {
+         Main.productsBySupplier((String) args[0], table, out);
+         return Main.Status.READ;
+      }, Param.text("supplier name")));
+      register(new Command("REMOVESUPPLIEREVERYWHERE", true, (args, table, out) ->
+            changed(Main.removeSupplierEverywhere((String) args[0], table, out) > 0),
+            Param.text("supplier name")));
+      register(new Command("RENAMESUPPLIER", true, (args, table, out) ->
+            changed(Main.renameSupplier((String) args[0], (String) args[1], table, out) != null),
+            Param.text("supplier name"), Param.text("new supplier name")));
+      register(new Command("FINDPRODUCT", false, (args, table, out) -> {
+         Main.findProduct((String) args[0], table, out);
+         return Main.Status.READ;
+      }, Param.text("product name")));
+      register(new Command("SEARCHPREFIX", false, (args, table, out) -> {
+         Main.searchPrefix((String) args[0], (Integer) args[1], table, out);
+         return Main.Status.READ;
+      }, Param.text("name prefix"), Param.amount("page").orElse("1")));
+      register(new Command("PRICERANGE", false, (args, table, out) -> {
+         Main.priceRange((BigDecimal) args[0], (BigDecimal) args[1], table, out);
+         return Main.Status.READ;
+      }, Param.price("minimum price"), Param.price("maximum price")));
+      register(new Command("LOWSTOCK", false, (args, table, out) -> {
+         Main.lowStock((Integer) args[0], table, out);
+         return Main.Status.READ;
+      }, Param.amount("inventory threshold")));
+      register(new Command("REPORT", false, (args, table, out) -> {
+         Main.report(table, out);
+         return Main.Status.READ;
+      }));
+      register(new Command("STATS", false, (args, table, out) -> {
+         Stats.print(table, out);
+         return Main.Status.READ;
+      }));
+      register(new Command("TABLESTATS", false, (args, table, out) -> {
+         Main.tableStats(table, out);
+         return Main.Status.READ;
+      }));
+      register(new Command("FLUSH", false, (args, table, out) -> Main.Status.SAVE));
+      register(new Command("IMPORT", true, (args, table, out) ->
+            Main.importProducts((String) args[0], table, out) == -1
+                  ? Main.Status.FAILED
+                  : Main.Status.SAVE,
+            Param.text("file name")));
+      register(new Command("EXPORT", false, (args, table, out) -> {
+         Main.exportProducts((String) args[0], table, out);
+         return Main.Status.READ;
+      }, Param.text("file name")));
+   }
+
+   private Commands () {
+   }
+
+   /**
+    * Adds a command, replacing any command with the same name
+    * @param command the command
+    */
+   public static synchronized void register (final Command command) {
+      Command[] table = slots;
+      if ((ORDER.size() + 1) * 2 > table.length) {
+         table = new Command[table.length * 2];
+         for (final Command existing: ORDER) {
+            table[slot(table, existing.name)] = existing;
+         }
+      } else {
+         table = table.clone();
+      }
+
+      final int i = slot(table, command.name);
+      if (table[i] != null) {
+         ORDER.set(ORDER.indexOf(table[i]), command);
+      } else {
+         ORDER.add(command);
+      }
+      table[i] = command;
+      slots = table;
+   }
+
+   /**
+    *
+    * @return every command in the order they were registered
+    */
+   public static synchronized List<Command> commands () {
+      return Collections.unmodifiableList(new ArrayList<Command>(ORDER));
+   }
+
+   /**
+    * Finds a command ignoring case
+    * @param name name of the command
+    * @return the command or null if there is none by that name
+    */
+   public static Command lookup (final String name) {
+      final Command[] table = slots;
+      return table[slot(table, name)];
+   }
+
+   /**
+    * @param name name of a command
+    * @return true if the command may change the table
+    */
+   public static boolean mutates (final String name) {
+      final Command command = lookup(name);
+      return command != null && command.mutates;
+   }
+
+   /**
+    * Splits a line at runs of whitespace, leading and trailing whitespace is dropped
+    * @param line the line
+    * @return the words of the line
+    */
+   public static String[] tokenize (final String line) {
+      int count = 0;
+      final int length = line.length();
+      for (int i = 0; i < length; i++) {
+         if (!Character.isWhitespace(line.charAt(i))
+               && (i == 0 || Character.isWhitespace(line.charAt(i - 1)))) {
+            count++;
+         }
+      }
+
+      final String[] tokens = new String[count];
+      int i = 0;
+      for (int t = 0; t < count; t++) {
+         while (Character.isWhitespace(line.charAt(i))) {
+            i++;
+         }
+         final int start = i;
+         while (i < length && !Character.isWhitespace(line.charAt(i))) {
+            i++;
+         }
+         tokens[t] = line.substring(start, i);
+      }
+      return tokens;
+   }
+
+   /**
+    * Checks and parses the arguments of a command and runs it, recording how long the
+    * handler took in the latency of the command
+    * @param cmds the command followed by its arguments
+    * @param table contains all products
+    * @param out stream the result is printed to
+    * @return status of the command, FAILED when it is unknown, its arguments are not valid or
+    * the table could not take the change
+    */
+   public static Main.Status execute (final String[] cmds, final Table<String, Product> table,
+         final PrintStream out) {
+      if (cmds.length == 0) {
+         return Main.Status.READ;
+      }
+      final Command command = lookup(cmds[0]);
+      if (command == null) {
+         out.printf("Unknown command %s\n", cmds[0]);
+         return Main.Status.FAILED;
+      }
+
+      final Param[] params = command.params;
+      boolean missing = false;
+      for (int i = cmds.length - 1; i < params.length; i++) {
+         if (params[i].fallback == null) {
+            out.printf("Missing %s\n", params[i].description);
+            missing = true;
+         }
+      }
+      if (missing) {
+         return Main.Status.FAILED;
+      }
+      final Object[] args = new Object[params.length];
+      for (int i = 0; i < params.length; i++) {
+         try {
+            final String text = i + 1 < cmds.length ? cmds[i + 1] : params[i].fallback;
+            args[i] = params[i].parser.parse(text);
+         } catch (final IllegalArgumentException e) {
+            out.printf("Invalid %s\n", params[i].kind);
+            return Main.Status.FAILED;
+         }
+      }
+      final Stats.CommandEvent event = Stats.beginCommand();
+      final long start = System.nanoTime();
+      Main.Status status = Main.Status.FAILED;
+      try {
+         status = command.handler.run(args, table, out);
+         return status;
+      } catch (final IllegalStateException e) {
+         // the table could not take the change, e.g. an off-heap table out of budget
+         out.printf("Could not run %s: %s\n", command.name, e.getMessage());
+         return Main.Status.FAILED;
+      } finally {
+         Stats.endCommand(command, event, status, System.nanoTime() - start);
+      }
+   }
+
+   private static Main.Status changed (final boolean changed) {
+      return changed ? Main.Status.CHANGED : Main.Status.FAILED;
+   }
+
+   /**
+    * Probes for the slot holding the name or the empty slot where it belongs
+    */
+   private static int slot (final Command[] table, final String name) {
+      int h = 0;
+      for (int i = 0; i < name.length(); i++) {
+         h = 31 * h + Character.toUpperCase(name.charAt(i));
+      }
+      h *= 0x9E3779B9;
+      final int mask = table.length - 1;
+      int i = (h ^ (h >>> 16)) & mask;
+      while (table[i] != null && !table[i].name.equalsIgnoreCase(name)) {
+         i = (i + 1) & mask;
+      }
+      return i;
+   }
+}
@@ -0,0 +1,468 @@
+import java.util.ArrayList;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
+
+/**
+ * A HashTable that can be shared between threads. Keys are spread over a fixed number of
+ * segments which each hold their own chained table and lock, so writers only block writers
+ * of the same segment. Chains are built from nodes whose links never change once published,
+ * a removal copies the nodes in front of the removed one, so readers walk them without any
+ * locking and always see a consistent chain.
+ * @author Noah Rouse <my_email@noahrouse36@gmail.com>
+ */
+public final class ConcurrentHashTable<K, V> implements Table<K, V> {
+   private static final int DEFAULT_SEGMENTS = 16;
+   private static final int MAXIMUM_SEGMENT_CAPACITY = 1 << 30;
+   private static final float LOAD_FACTOR = 0.75f;
+
+   /**
+    * A link of a chain, only the value may change after it is published
+    */
+   private static final class Node<K, V> {
+      private final int hash;
+      private final K key;
+      private volatile V value;
+      private final Node<K, V> next;
+
+      private Node (final int hash, final K key, final V value, final Node<K, V> next) {
+         this.hash = hash;
+         this.key = key;
+         this.value = value;
+         this.next = next;
+      }
+   }
+
+   /**
+    * A lock and the chained table of the keys hashing to it
+    */
+   private static final class Segment<K, V> extends ReentrantLock {
+      private static final long serialVersionUID = 1L;
+      private volatile AtomicReferenceArray<Node<K, V>> table;
+      private volatile int count = 0;
+      private int threshold;
+
+      private Segment (final int capacity) {
+         setTable(new AtomicReferenceArray<Node<K, V>>(capacity));
+      }
+
+      private void setTable (final AtomicReferenceArray<Node<K, V>> table) {
+         this.threshold = (int) (table.length() * LOAD_FACTOR);
+         this.table = table;
+      }
+
+      /**
+       * Lock free lookup
+       */
+      private Node<K, V> find (final int hash, final Object key) {
+         if (count == 0) {
+            return null;
+         }
+         final AtomicReferenceArray<Node<K, V>> tab = table;
+         Node<K, V> node = tab.get(hash & (tab.length() - 1));
+         while (node != null) {
+            if (node.hash == hash && node.key.equals(key)) {
+               return node;
+            }
+            node = node.next;
+         }
+         return null;
+      }
+
+      private V put (final int hash, final K key, final V value) {
+         lock();
+         try {
+            final Node<K, V> existing = find(hash, key);
+            if (existing != null) {
+               final V old = existing.value;
+               existing.value = value;
+               return old;
+            }
+
+            insert(hash, key, value);
+            return null;
+         } finally {
+            unlock();
+         }
+      }
+
+      private V putIfAbsent (final int hash, final K key, final V value) {
+         lock();
+         try {
+            final Node<K, V> existing = find(hash, key);
+            if (existing != null) {
+               return existing.value;
+            }
+
+            insert(hash, key, value);
+            return null;
+         } finally {
+            unlock();
+         }
+      }
+
+      /**
+       * Runs the remapping function on the current value while holding the lock, so no other
+       * writer of the segment can change the key in between
+       */
+      private V compute (final int hash, final K key,
+            final BiFunction<? super K, ? super V, ? extends V> remapping) {
+         lock();
+         try {
+            final Node<K, V> existing = find(hash, key);
+            final V value = remapping.apply(key, existing == null ? null : existing.value);
+            if (value == null) {
+               if (existing != null) {
+                  remove(hash, key);
+               }
+            } else if (existing != null) {
+               existing.value = value;
+            } else {
+               insert(hash, key, value);
+            }
+            return value;
+         } finally {
+            unlock();
+         }
+      }
+
+      /**
+       * Links a new node at the head of its chain, called with the lock held
+       */
+      private void insert (final int hash, final K key, final V value) {
+         if (count + 1 > threshold && table.length() < MAXIMUM_SEGMENT_CAPACITY) {
+            rehash();
+         }
+         final AtomicReferenceArray<Node<K, V>> tab = table;
+         final int i = hash & (tab.length() - 1);
+         tab.set(i, new Node<K, V>(hash, key, value, tab.get(i)));
+         count = count + 1;
+      }
+
+      private Node<K, V> remove (final int hash, final Object key) {
+         lock();
+         try {
+            final AtomicReferenceArray<Node<K, V>> tab = table;
+            final int i = hash & (tab.length() - 1);
+            final Node<K, V> first = tab.get(i);
+            Node<K, V> target = first;
+            while (target != null && !(target.hash == hash && target.key.equals(key))) {
+               target = target.next;
+            }
+            if (target == null) {
+               return null;
+            }
+
+            // copy the nodes in front of the removed one onto the rest of the chain
+            Node<K, V> chain = target.next;
+            for (Node<K, V> node = first; node != target; node = node.next) {
+               chain = new Node<K, V>(node.hash, node.key, node.value, chain);
+            }
+            tab.set(i, chain);
+            count = count - 1;
+            return target;
+         } finally {
+            unlock();
+         }
+      }
+
+      /**
+       * Builds a table twice as large, readers keep using the old one until it is swapped in
+       */
+      private void rehash () {
+         final AtomicReferenceArray<Node<K, V>> old = table;
+         final AtomicReferenceArray<Node<K, V>> tab =
+               new AtomicReferenceArray<Node<K, V>>(old.length() << 1);
+         final int mask = tab.length() - 1;
+         for (int j = 0; j < old.length(); j++) {
+            for (Node<K, V> node = old.get(j); node != null; node = node.next) {
+               final int i = node.hash & mask;
+               tab.set(i, new Node<K, V>(node.hash, node.key, node.value, tab.get(i)));
+            }
+         }
+         setTable(tab);
+      }
+   }
+
+   private final Segment<K, V>[] segments;
+   private final int segmentShift;
+
+   /**
+    * Creates a ConcurrentHashTable with 16 segments
+    */
+   public ConcurrentHashTable () {
+      this(16, DEFAULT_SEGMENTS);
+   }
+
+   /**
+    * Creates a ConcurrentHashTable able to hold the given amount of entries before growing
+    * @param initialCapacity amount of entries expected
+    */
+   public ConcurrentHashTable (final int initialCapacity) {
+      this(initialCapacity, DEFAULT_SEGMENTS);
+   }
+
+   /**
+    * Creates a ConcurrentHashTable able to hold the given amount of entries before growing
+    * @param initialCapacity amount of entries expected
+    * @param concurrency amount of threads expected to write at once, rounded up to a power
+    * of two amount of segments
+    * @throws IllegalArgumentException when the capacity is negative or concurrency is not
+    * positive
+    */
+   @SuppressWarnings("unchecked")
+   public ConcurrentHashTable (final int initialCapacity, final int concurrency) {
+      if (initialCapacity < 0) {
+         throw new IllegalArgumentException("Illegal capacity: " + initialCapacity);
+      }
+      if (concurrency <= 0) {
+         throw new IllegalArgumentException("Illegal concurrency: " + concurrency);
+      }
+
+      int count = 1;
+      int bits = 0;
+      while (count < concurrency && count < (1 << 16)) {
+         count <<= 1;
+         bits++;
+      }
+      this.segmentShift = 32 - bits;
+      this.segments = (Segment<K, V>[]) new Segment<?, ?>[count];
+      final long perSegment = (long) Math.ceil(initialCapacity / (double) count / LOAD_FACTOR);
+      int capacity = 2;
+      while (capacity < perSegment && capacity < MAXIMUM_SEGMENT_CAPACITY) {
+         capacity <<= 1;
+      }
+      for (int i = 0; i < count; i++) {
+         segments[i] = new Segment<K, V>(capacity);
+      }
+   }
+
+   /**
+    * Size of the table, counted segment by segment so it may miss concurrent changes
+    * @return returns the size of the table
+    */
+   @Override
+   public int size () {
+      long size = 0;
+      for (final Segment<K, V> segment: segments) {
+         size += segment.count;
+      }
+      return (int) Math.min(size, Integer.MAX_VALUE);
+   }
+
+   @Override
+   public boolean isEmpty () {
+      for (final Segment<K, V> segment: segments) {
+         if (segment.count != 0) {
+            return false;
+         }
+      }
+      return true;
+   }
+
+   @Override
+   public V get (final K key) throws NoSuchElementException {
+      final int hash = hash(key);
+      final Node<K, V> node = segmentFor(hash).find(hash, key);
+      if (node == null) {
+         throw new NoSuchElementException("Key not added");
+      }
+      return node.value;
+   }
+
+   @Override
+   public void put (final K key, final V value) {
+      if (value == null) {
+         throw new NullPointerException();
+      }
+      final int hash = hash(key);
+      segmentFor(hash).put(hash, key, value);
+   }
+
+   @Override
+   public V remove (final K key) throws NoSuchElementException {
+      final int hash = hash(key);
+      final Node<K, V> node = segmentFor(hash).remove(hash, key);
+      if (node == null) {
+         throw new NoSuchElementException("Key does not exist");
+      }
+      return node.value;
+   }
+
+   @Override
+   public V getOrNull (final K key) {
+      final int hash = hash(key);
+      final Node<K, V> node = segmentFor(hash).find(hash, key);
+      return node == null ? null : node.value;
+   }
+
+   @Override
+   public boolean containsKey (final K key) {
+      final int hash = hash(key);
+      return segmentFor(hash).find(hash, key) != null;
+   }
+
+   /**
+    * Looks for the key without locking first, the segment is only locked to insert
+    */
+   @Override
+   public V putIfAbsent (final K key, final V value) {
+      if (value == null) {
+         throw new NullPointerException();
+      }
+      final int hash = hash(key);
+      final Segment<K, V> segment = segmentFor(hash);
+      final Node<K, V> node = segment.find(hash, key);
+      return node != null ? node.value : segment.putIfAbsent(hash, key, value);
+   }
+
+   @Override
+   public V removeOrNull (final K key) {
+      final int hash = hash(key);
+      final Node<K, V> node = segmentFor(hash).remove(hash, key);
+      return node == null ? null : node.value;
+   }
+
+   /**
+    * Looks for the key without locking first, the mapping function runs while the segment of
+    * the key is locked so it is called at most once per key
+    */
+   @Override
+   public V computeIfAbsent (final K key, final Function<? super K, ? extends V> mapping) {
+      final int hash = hash(key);
+      final Segment<K, V> segment = segmentFor(hash);
+      final Node<K, V> node = segment.find(hash, key);
+      if (node != null) {
+         return node.value;
+      }
+      return segment.compute(hash, key, (k, current) ->
+            current != null ? current : mapping.apply(k));
+   }
+
+   /**
+    * The remapping function runs while the segment of the key is locked
+    */
+   @Override
+   public V compute (final K key,
+         final BiFunction<? super K, ? super V, ? extends V> remapping) {
+      final int hash = hash(key);
+      return segmentFor(hash).compute(hash, key, remapping);
+   }
+
+   /**
+    * The remapping function runs while the segment of the key is locked
+    */
+   @Override
+   public V merge (final K key, final V value,
+         final BiFunction<? super V, ? super V, ? extends V> remapping) {
+      if (value == null) {
+         throw new NullPointerException();
+      }
+      final int hash = hash(key);
+      return segmentFor(hash).compute(hash, key, (k, current) ->
+            current == null ? value : remapping.apply(current, value));
+   }
+
+   /**
+    * Walks every chain once to count its length and how far down it each entry sits, without
+    * counting the size of the keys and values
+    * @return the shape of the table
+    */
+   public TableStats stats () {
+      return stats(key -> 0, value -> 0);
+   }
+
+   /**
+    * Walks every chain once to count its length and how far down it each entry sits. The
+    * chains are read without locking, so entries changed meanwhile may or may not be seen.
+    * @param keyBytes estimates the size of a key
+    * @param valueBytes estimates the size of a value
+    * @return the shape of the table
+    */
+   @SuppressWarnings("unchecked")
+   public TableStats stats (final ToLongFunction<? super K> keyBytes,
+         final ToLongFunction<? super V> valueBytes) {
+      final AtomicReferenceArray<Node<K, V>>[] tables =
+            (AtomicReferenceArray<Node<K, V>>[]) new AtomicReferenceArray<?>[segments.length];
+      int capacity = 0;
+      for (int s = 0; s < segments.length; s++) {
+         tables[s] = segments[s].table;
+         capacity += tables[s].length();
+      }
+
+      final TableStats stats =
+            new TableStats("ConcurrentHashTable", capacity, size(), LOAD_FACTOR, true);
+      // the table, its segments with their locks, their chain arrays and every node
+      stats.table(TableStats.align(TableStats.OBJECT_HEADER + TableStats.REFERENCE
+            + Integer.BYTES) + TableStats.array(segments.length, TableStats.REFERENCE));
+      final long node = TableStats.align(TableStats.OBJECT_HEADER + Integer.BYTES
+            + 3 * TableStats.REFERENCE);
+      for (final AtomicReferenceArray<Node<K, V>> tab: tables) {
+         stats.table(2 * TableStats.align(TableStats.OBJECT_HEADER + 4 * Integer.BYTES)
+               + TableStats.align(TableStats.OBJECT_HEADER + TableStats.REFERENCE)
+               + TableStats.array(tab.length(), TableStats.REFERENCE));
+         for (int i = 0; i < tab.length(); i++) {
+            int length = 0;
+            for (Node<K, V> n = tab.get(i); n != null; n = n.next) {
+               length++;
+               stats.table(node);
+               stats.entry(length,
+                     keyBytes.applyAsLong(n.key) + valueBytes.applyAsLong(n.value));
+            }
+            stats.run(length);
+         }
+      }
+      return stats;
+   }
+
+   /**
+    * Copies the keys present while walking each segment
+    * @return all keys of the table
+    */
+   @Override
+   public ArrayList<K> keySet () {
+      final ArrayList<K> keySet = new ArrayList<K>(size());
+      for (final Segment<K, V> segment: segments) {
+         final AtomicReferenceArray<Node<K, V>> tab = segment.table;
+         for (int i = 0; i < tab.length(); i++) {
+            for (Node<K, V> node = tab.get(i); node != null; node = node.next) {
+               keySet.add(node.key);
+            }
+         }
+      }
+      return keySet;
+   }
+
+   /**
+    * Copies the values present while walking each segment
+    * @return all values of the table
+    */
+   @Override
+   public ArrayList<V> values () {
+      final ArrayList<V> values = new ArrayList<V>(size());
+      for (final Segment<K, V> segment: segments) {
+         final AtomicReferenceArray<Node<K, V>> tab = segment.table;
+         for (int i = 0; i < tab.length(); i++) {
+            for (Node<K, V> node = tab.get(i); node != null; node = node.next) {
+               values.add(node.value);
+            }
+         }
+      }
+      return values;
+   }
+
+   /**
+    * The top bits of the hash choose the segment and the bottom bits the chain
+    */
+   private Segment<K, V> segmentFor (final int hash) {
+      return segments.length == 1 ? segments[0] : segments[hash >>> segmentShift];
+   }
+
+   private static int hash (final Object key) {
+      final int h = key.hashCode() * 0x9E3779B9;
+      return h ^ (h >>> 16);
+   }
+}
@@ -0,0 +1,344 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Imports and exports the product table as CSV.
+ *
+ * Every row holds a product as its name, inventory and price followed by one column per
+ * supplier, an empty price column means the product has none. Fields holding a comma, quote
+ * or line break are quoted with quotes doubled. A first row starting with "name,inventory" is
+ * taken as the header and skipped.
+ *
+ * Imports read the file in chunks of rows which are parsed on a pool of threads while the
+ * next chunk is read, and only a few chunks are held at once so memory stays bounded no
+ * matter how large the file is. Parsed products are put into the table in file order, so a
+ * later row for the same name replaces an earlier one.
+ * @author Noah Rouse <my_email@noahrouse36@gmail.com>
+ */
+public final class CsvCodec {
+   static final String HEADER = "name,inventory,price,suppliers...";
+   private static final int CHUNK_ROWS = 16384;
+   private static final int BUFFER_SIZE = 1 << 16;
+
+   /**
+    * Counts of an import
+    */
+   static final class Summary {
+      final int imported;
+      final int skipped;
+      final long firstSkippedLine;
+
+      /**
+       *
+       * @param imported amount of rows put into the table
+       * @param skipped amount of malformed rows that were left out
+       * @param firstSkippedLine line number of the first malformed row or 0 if there is none
+       */
+      Summary (final int imported, final int skipped, final long firstSkippedLine) {
+         this.imported = imported;
+         this.skipped = skipped;
+         this.firstSkippedLine = firstSkippedLine;
+      }
+   }
+
+   /**
+    * Rows read from the file and the products parsed from them
+    */
+   private static final class Chunk {
+      private final ArrayList<String> rows = new ArrayList<String>(CHUNK_ROWS);
+      private final long[] lines = new long[CHUNK_ROWS];
+      private Product[] products;
+      private long firstSkippedLine = 0;
+      private int skipped = 0;
+   }
+
+   private CsvCodec () {
+   }
+
+   /**
+    * Writes every product of the table as a row
+    * @param table products being exported
+    * @param path file being written
+    * @return amount of products written
+    * @throws IOException when writing fails
+    */
+   public static int write (final Table<String, Product> table, final Path path)
+         throws IOException {
+      int count = 0;
+      try (Writer out = new BufferedWriter(Files.newBufferedWriter(path,
+            StandardCharsets.UTF_8), BUFFER_SIZE)) {
+         out.write(HEADER);
+         out.write('\n');
+         for (final Product product: table.values()) {
+            field(out, product.name());
+            out.write(',');
+            out.write(Integer.toString(product.amount()));
+            out.write(',');
+            if (product.price() != null) {
+               out.write(product.price().toPlainString());
+            }
+            for (final String supplier: product.suppliers()) {
+               out.write(',');
+               field(out, supplier);
+            }
+            out.write('\n');
+            count++;
+         }
+      }
+      return count;
+   }
+
+   /**
+    * Reads every row of the file into the table, rows that can not be parsed are skipped
+    * @param path file being read
+    * @param table table the products are put into
+    * @param threads amount of threads parsing rows
+    * @return counts of imported and skipped rows
+    * @throws IOException when the file can not be read
+    */
+   public static Summary read (final Path path, final Table<String, Product> table,
+         final int threads) throws IOException {
+      final long fileSize = Files.size(path);
+      final ExecutorService parsers = Executors.newFixedThreadPool(threads, runnable -> {
+         final Thread thread = new Thread(runnable, "csv-parse");
+         thread.setDaemon(true);
+         return thread;
+      });
+      final ArrayDeque<Future<Chunk>> pending = new ArrayDeque<Future<Chunk>>();
+      int imported = 0;
+      int skipped = 0;
+      long firstSkippedLine = 0;
+      try (BufferedReader in = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+         final long[] line = {0};
+         long charsRead = 0;
+         boolean first = true;
+         while (true) {
+            final Chunk chunk = new Chunk();
+            charsRead += readRows(in, chunk, line, first);
+            if (chunk.rows.isEmpty()) {
+               break;
+            }
+            if (first) {
+               // presize from the average row length of the first chunk
+               final long estimate = fileSize * chunk.rows.size() / Math.max(charsRead, 1);
+               table.ensureCapacity((int) Math.min(table.size() + estimate, Integer.MAX_VALUE - 8));
+            }
+            first = false;
+
+            pending.add(parsers.submit(() -> parse(chunk)));
+            if (pending.size() >= threads * 2) {
+               final Chunk done = await(pending.poll());
+               imported += insert(done, table);
+               if (skipped == 0 && done.skipped > 0) {
+                  firstSkippedLine = done.firstSkippedLine;
+               }
+               skipped += done.skipped;
+            }
+         }
+
+         while (!pending.isEmpty()) {
+            final Chunk done = await(pending.poll());
+            imported += insert(done, table);
+            if (skipped == 0 && done.skipped > 0) {
+               firstSkippedLine = done.firstSkippedLine;
+            }
+            skipped += done.skipped;
+         }
+      } finally {
+         parsers.shutdownNow();
+      }
+      return new Summary(imported, skipped, firstSkippedLine);
+   }
+
+   /**
+    * Fills a chunk with up to CHUNK_ROWS rows, joining lines while a quoted field is open
+    * @param in file being read
+    * @param chunk chunk being filled
+    * @param line number of the last line read, updated as lines are read
+    * @param first true for the first chunk, whose header row is skipped
+    * @return amount of characters read
+    * @throws IOException when the file can not be read
+    */
+   private static long readRows (final BufferedReader in, final Chunk chunk, final long[] line,
+         final boolean first) throws IOException {
+      long chars = 0;
+      String text;
+      while (chunk.rows.size() < CHUNK_ROWS && (text = in.readLine()) != null) {
+         line[0]++;
+         chars += text.length() + 1;
+         final long start = line[0];
+         if (quotes(text) % 2 != 0) {
+            final StringBuilder row = new StringBuilder(text);
+            int open = quotes(text);
+            while (open % 2 != 0 && (text = in.readLine()) != null) {
+               line[0]++;
+               chars += text.length() + 1;
+               row.append('\n').append(text);
+               open += quotes(text);
+            }
+            text = row.toString();
+         }
+
+         if (text.isEmpty() || (first && start == 1 && text.startsWith("name,inventory"))) {
+            continue;
+         }
+         chunk.lines[chunk.rows.size()] = start;
+         chunk.rows.add(text);
+      }
+      return chars;
+   }
+
+   /**
+    * Parses the rows of a chunk, malformed rows leave a null product
+    * @param chunk chunk being parsed
+    * @return the chunk
+    */
+   private static Chunk parse (final Chunk chunk) {
+      final HashMap<String, String> suppliers = new HashMap<String, String>();
+      final ArrayList<String> fields = new ArrayList<String>();
+      chunk.products = new Product[chunk.rows.size()];
+      for (int i = 0; i < chunk.products.length; i++) {
+         fields.clear();
+         try {
+            split(chunk.rows.get(i), fields);
+            if (fields.size() < 3 || fields.get(0).isEmpty()) {
+               throw new IllegalArgumentException("Missing columns");
+            }
+            final Product product = new Product(fields.get(0),
+                  Integer.parseInt(fields.get(1).trim()));
+            final String price = fields.get(2).trim();
+            if (!price.isEmpty()) {
+               product.setPrice(new BigDecimal(price));
+            }
+            if (fields.size() > 3) {
+               final List<String> names = new ArrayList<String>(fields.size() - 3);
+               for (int j = 3; j < fields.size(); j++) {
+                  // rows of a dump share few suppliers, keep one copy of each name
+                  final String name = fields.get(j);
+                  if (!name.isEmpty()) {
+                     names.add(suppliers.computeIfAbsent(name, key -> key));
+                  }
+               }
+               product.addSuppliers(names);
+            }
+            chunk.products[i] = product;
+         } catch (final IllegalArgumentException e) {
+            if (chunk.skipped == 0) {
+               chunk.firstSkippedLine = chunk.lines[i];
+            }
+            chunk.skipped++;
+         }
+      }
+      chunk.rows.clear();
+      return chunk;
+   }
+
+   /**
+    * Splits a row into its fields, removing quotes
+    * @param row the row
+    * @param fields list the fields are added to
+    * @throws IllegalArgumentException when a quoted field is not closed properly
+    */
+   private static void split (final String row, final List<String> fields) {
+      final StringBuilder field = new StringBuilder();
+      int i = 0;
+      while (true) {
+         field.setLength(0);
+         if (i < row.length() && row.charAt(i) == '"') {
+            i++;
+            while (true) {
+               if (i >= row.length()) {
+                  throw new IllegalArgumentException("Unclosed quote");
+               }
+               final char c = row.charAt(i++);
+               if (c != '"') {
+                  field.append(c);
+               } else if (i < row.length() && row.charAt(i) == '"') {
+                  field.append('"');
+                  i++;
+               } else {
+                  break;
+               }
+            }
+            if (i < row.length() && row.charAt(i) != ',') {
+               throw new IllegalArgumentException("Text after quote");
+            }
+         } else {
+            final int end = row.indexOf(',', i);
+            field.append(row, i, end == -1 ? row.length() : end);
+            i = end == -1 ? row.length() : end;
+         }
+         fields.add(field.toString());
+         if (i >= row.length()) {
+            return;
+         }
+         i++;
+      }
+   }
+
+   /**
+    * Puts the parsed products of a chunk into the table
+    * @return amount of products put
+    */
+   private static int insert (final Chunk chunk, final Table<String, Product> table) {
+      int count = 0;
+      for (final Product product: chunk.products) {
+         if (product != null) {
+            table.put(product.name(), product);
+            count++;
+         }
+      }
+      return count;
+   }
+
+   private static Chunk await (final Future<Chunk> future) throws IOException {
+      try {
+         return future.get();
+      } catch (final InterruptedException e) {
+         Thread.currentThread().interrupt();
+         throw new IOException("Import interrupted", e);
+      } catch (final ExecutionException e) {
+         throw new IOException("Import failed", e.getCause());
+      }
+   }
+
+   private static int quotes (final String text) {
+      int count = 0;
+      for (int i = text.indexOf('"'); i != -1; i = text.indexOf('"', i + 1)) {
+         count++;
+      }
+      return count;
+   }
+
+   /**
+    * Writes a field, quoting it when it holds a comma, quote or line break
+    */
+   private static void field (final Writer out, final String value) throws IOException {
+      boolean quote = value.isEmpty();
+      for (int i = 0; i < value.length() && !quote; i++) {
+         final char c = value.charAt(i);
+         quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+      }
+      if (!quote) {
+         out.write(value);
+         return;
+      }
+      out.write('"');
+      out.write(value.replace("\"", "\"\""));
+      out.write('"');
+   }
+}
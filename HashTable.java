@@ -1,23 +1,56 @@
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.util.AbstractCollection;
+import java.util.AbstractSet;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
 import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+import java.util.function.ToLongFunction;
 
 /**
- * A generic HashTable in java uses an initial array size of 16, however the key must be
- * comparable
+ * A generic HashTable using open addressing, keys and values are kept in two parallel
+ * arrays whose capacity is always a power of two and grows once the load factor is reached.
+ * Collisions are resolved with linear probing and removals shift the following entries
+ * back so no tombstones are left behind.
+ *
+ * keySet, values and entrySet are live views read straight from the slot arrays, their
+ * iterators fail fast when the table is changed while they are in use and their
+ * spliterators split the slot range in halves so parallel streams can share the work.
+ *
+ * getOrNull, putIfAbsent, removeOrNull and the compute operations probe for the key once and
+ * insert into the empty slot the probe ended on, a mapping function that changes the table
+ * while it runs makes them throw ConcurrentModificationException.
  * @author Noah Rouse <my_email@noahrouse36@gmail.com>
  */
 public final class HashTable<K extends Comparable<K> & Serializable, V extends Serializable>
-      implements Serializable {
+      implements Table<K, V>, Iterable<HashTable.Entry<K, V>>, Serializable {
+   private static final long serialVersionUID = -5652120679453176011L;
+   private static final int DEFAULT_CAPACITY = 16;
+   private static final float DEFAULT_LOAD_FACTOR = 0.75f;
+   private static final int MAXIMUM_CAPACITY = 1 << 30;
+
    /**
-    * A class dedicated to entering things into the hash set
+    * A key-value pair handed out by entrySet and the iterator
     */
-   public static final class Entry <K extends Comparable<K> & Serializable, 
+   public static final class Entry <K extends Comparable<K> & Serializable,
          V extends Serializable> implements Serializable {
+      private static final long serialVersionUID = 8932211670731254731L;
       private final K key;
       private V value;
       /**
-       * 
+       *
        * @param key key to search for entry
        * @param value the value that the entry holds
        */
@@ -27,184 +60,768 @@ public final class HashTable<K extends Comparable<K> & Serializable, V extends S
       }
 
       /**
-       * 
+       *
        * @return key of entry
        */
-      private K key () {
+      public K key () {
          return this.key;
       }
 
       /**
-       * 
+       *
        * @return value of entry
        */
-      private V value () {
+      public V value () {
          return this.value;
       }
    }
 
-   private final ArrayList<ArrayList<Entry<K, V>>> table = new ArrayList<>(17);
-   private int size = 0;
+   private transient Object[] keys;
+   private transient Object[] values;
+   private transient int size = 0;
+   private transient int threshold;
+   private transient int modCount = 0;
+   private float loadFactor;
 
    /**
-    * Creates all of the buckets for the HashSet
+    * Creates a HashTable with the default capacity and load factor
     */
-   public HashTable() {
-      for (int i = 0; i < 17; i++) {
-         table.add(new ArrayList<Entry<K, V>>());
+   public HashTable () {
+      this(DEFAULT_CAPACITY, DEFAULT_LOAD_FACTOR);
+   }
+
+   /**
+    * Creates a HashTable able to hold the given amount of entries before growing
+    * @param initialCapacity amount of entries expected
+    */
+   public HashTable (final int initialCapacity) {
+      this(initialCapacity, DEFAULT_LOAD_FACTOR);
+   }
+
+   /**
+    * Creates a HashTable able to hold the given amount of entries before growing
+    * @param initialCapacity amount of entries expected
+    * @param loadFactor fraction of the slots that may be used before the table grows
+    * @throws IllegalArgumentException when the capacity is negative or the load factor is
+    * not between 0 and 1
+    */
+   public HashTable (final int initialCapacity, final float loadFactor) {
+      if (initialCapacity < 0) {
+         throw new IllegalArgumentException("Illegal capacity: " + initialCapacity);
+      }
+      if (!(loadFactor > 0 && loadFactor < 1)) {
+         throw new IllegalArgumentException("Illegal load factor: " + loadFactor);
       }
+
+      this.loadFactor = loadFactor;
+      allocate(capacityFor(initialCapacity, loadFactor));
    }
+
    /**
     * Size of the HashTable
     * @return returns the size of the HashTable
     */
+   @Override
    public int size () {
       return size;
    }
 
    /**
-    * 
+    *
     * @return Returns true if HashTable is empty
     */
+   @Override
    public boolean isEmpty () {
       return size == 0;
    }
 
+   /**
+    *
+    * @return amount of slots currently allocated
+    */
+   public int capacity () {
+      return keys.length;
+   }
+
+   /**
+    *
+    * @return fraction of the slots that may be used before the table grows
+    */
+   public float loadFactor () {
+      return loadFactor;
+   }
+
    /**
     * Retrieves the value associated with the key
     * @param key associated value for entry
     * @return returns value associated with key
     * @throws NoSuchElementException if the key does not exist
     */
+   @Override
    public V get (final K key) throws NoSuchElementException {
-      final int i = key.hashCode() % 17;
-      final ArrayList<Entry<K, V>> bucket = table.get(i);
-      if (bucket.isEmpty()) {
-         throw new NoSuchElementException("Empty Bucket");
-      }
-      int index = binarySearch(key, bucket, 0, bucket.size() - 1);
+      final int index = indexOf(key);
       if (index == -1) {
          throw new NoSuchElementException("Key not added");
       }
 
-      return bucket.get(index).value();
+      return valueAt(index);
    }
 
    /**
-    * Insets the entry into the HashTable
+    * Insets the entry into the HashTable, replacing the value if the key already exists
     * @param key index to grab the value
     * @param value element to be contained
     */
+   @Override
    public void put (final K key, final V value) {
-      final Entry<K, V> entry = new Entry<>(key, value);
-      final ArrayList<Entry<K,V>> bucket = table.get(key.hashCode() % 17);
-      // checking sorted order
-      for (int i = 0; i < bucket.size(); i++) {
-         if (key.compareTo(bucket.get(i).key()) < 0) {
-            bucket.add(i, entry);
-            return;
-         }
-
+      final int slot = slotOf(key);
+      if (slot >= 0) {
          // case where key already exists
-         if (key.compareTo(bucket.get(i).key()) == 0) {
-            bucket.set(i, entry);
-            return;
-         }
+         values[slot] = value;
+         return;
       }
 
-      // case is last
-      bucket.add(entry);
-      return;
+      insertAt(-slot - 1, key, value);
    }
 
    /**
-    * Removes entry from HashSet
+    * Removes entry from HashTable
     * @param key index of the value to be removed
+    * @return the value that was removed
     * @throws NoSuchElementException when key does not exist
     */
+   @Override
    public V remove (final K key) throws NoSuchElementException {
-      final ArrayList<Entry<K, V>> bucket = table.get(key.hashCode() % 17);
-      final int index = binarySearch(key, bucket, 0, bucket.size() - 1);
+      final int index = indexOf(key);
       if (index == -1) {
          throw new NoSuchElementException("Key does not exist");
       }
-      return bucket.remove(index).value();
+
+      final V removed = valueAt(index);
+      deleteAt(index);
+      return removed;
    }
 
    /**
-    * 
-    * @return an iterable set of all entries
+    * Retrieves the value associated with the key without throwing when it is missing
+    * @param key associated value for entry
+    * @return value associated with key or null if the key does not exist
     */
-   public ArrayList<K> keySet () {
-      final ArrayList<K> keySet = new ArrayList<K>();
-      for (final ArrayList<Entry<K, V>> i: table) {
-         for (final Entry<K, V> j: i) {
-            keySet.add(j.key());
+   @Override
+   public V getOrNull (final K key) {
+      final int index = indexOf(key);
+      return index == -1 ? null : valueAt(index);
+   }
+
+   @Override
+   public boolean containsKey (final K key) {
+      return indexOf(key) != -1;
+   }
+
+   @Override
+   public V putIfAbsent (final K key, final V value) {
+      final int slot = slotOf(key);
+      if (slot >= 0) {
+         return valueAt(slot);
+      }
+
+      insertAt(-slot - 1, key, value);
+      return null;
+   }
+
+   @Override
+   public V removeOrNull (final K key) {
+      final int index = indexOf(key);
+      if (index == -1) {
+         return null;
+      }
+
+      final V removed = valueAt(index);
+      deleteAt(index);
+      return removed;
+   }
+
+   @Override
+   public V computeIfAbsent (final K key, final Function<? super K, ? extends V> mapping) {
+      final int slot = slotOf(key);
+      if (slot >= 0) {
+         return valueAt(slot);
+      }
+
+      final int expected = modCount;
+      final V value = mapping.apply(key);
+      if (modCount != expected) {
+         throw new ConcurrentModificationException();
+      }
+      if (value != null) {
+         insertAt(-slot - 1, key, value);
+      }
+      return value;
+   }
+
+   @Override
+   public V compute (final K key,
+         final BiFunction<? super K, ? super V, ? extends V> remapping) {
+      final int slot = slotOf(key);
+      final int expected = modCount;
+      final V value = remapping.apply(key, slot >= 0 ? valueAt(slot) : null);
+      if (modCount != expected) {
+         throw new ConcurrentModificationException();
+      }
+      return store(slot, key, value);
+   }
+
+   @Override
+   public V merge (final K key, final V value,
+         final BiFunction<? super V, ? super V, ? extends V> remapping) {
+      final int slot = slotOf(key);
+      if (slot < 0) {
+         insertAt(-slot - 1, key, value);
+         return value;
+      }
+
+      final int expected = modCount;
+      final V merged = remapping.apply(valueAt(slot), value);
+      if (modCount != expected) {
+         throw new ConcurrentModificationException();
+      }
+      return store(slot, key, merged);
+   }
+
+   /**
+    * Walks the slots once to find how far each entry sits from its home slot and how long
+    * the clusters are, without counting the size of the keys and values
+    * @return the shape of the table
+    */
+   public TableStats stats () {
+      return stats(key -> 0, value -> 0);
+   }
+
+   /**
+    * Walks the slots once to find how far each entry sits from its home slot and how long
+    * the clusters are
+    * @param keyBytes estimates the size of a key
+    * @param valueBytes estimates the size of a value
+    * @return the shape of the table
+    */
+   public TableStats stats (final ToLongFunction<? super K> keyBytes,
+         final ToLongFunction<? super V> valueBytes) {
+      final int capacity = keys.length;
+      final int mask = capacity - 1;
+      final TableStats stats = new TableStats("HashTable", capacity, size, loadFactor, false);
+      stats.table(TableStats.align(TableStats.OBJECT_HEADER + 2 * TableStats.REFERENCE
+            + 4 * Integer.BYTES) + 2 * TableStats.array(capacity, TableStats.REFERENCE));
+
+      // the load factor keeps a slot empty, starting after it no cluster wraps around the walk
+      int start = 0;
+      while (keys[start] != null) {
+         start++;
+      }
+      int run = 0;
+      for (int n = 1; n <= capacity; n++) {
+         final int i = (start + n) & mask;
+         if (keys[i] == null) {
+            if (run > 0) {
+               stats.run(run);
+               run = 0;
+            }
+            continue;
          }
+         run++;
+         final int home = hash(keys[i]) & mask;
+         stats.entry(((i - home) & mask) + 1,
+               keyBytes.applyAsLong(keyAt(i)) + valueBytes.applyAsLong(valueAt(i)));
       }
+      return stats;
+   }
+
+   /**
+    * Grows the table so the given amount of entries fit without any further resizing
+    * @param expected amount of entries expected
+    */
+   @Override
+   public void ensureCapacity (final int expected) {
+      final int capacity = capacityFor(expected, loadFactor);
+      if (capacity > keys.length) {
+         resize(capacity);
+      }
+   }
+
+   /**
+    *
+    * @return a live view of the keys
+    */
+   @Override
+   public Set<K> keySet () {
+      return new AbstractSet<K>() {
+         @Override
+         public int size () {
+            return size;
+         }
+
+         @SuppressWarnings("unchecked")
+         @Override
+         public boolean contains (final Object key) {
+            return key != null && indexOf((K) key) != -1;
+         }
+
+         @Override
+         public Iterator<K> iterator () {
+            return new Slots<K>(HashTable.this::keyAt);
+         }
+
+         @Override
+         public Spliterator<K> spliterator () {
+            return new SlotSpliterator<K>(HashTable.this::keyAt, 0, keys.length, modCount,
+                  Spliterator.DISTINCT);
+         }
+      };
+   }
 
-      return keySet;
+   /**
+    *
+    * @return a live view of the values
+    */
+   @Override
+   public Collection<V> values () {
+      return new AbstractCollection<V>() {
+         @Override
+         public int size () {
+            return size;
+         }
+
+         @Override
+         public Iterator<V> iterator () {
+            return new Slots<V>(HashTable.this::valueAt);
+         }
+
+         @Override
+         public Spliterator<V> spliterator () {
+            return new SlotSpliterator<V>(HashTable.this::valueAt, 0, keys.length, modCount, 0);
+         }
+      };
+   }
+
+   /**
+    * A live view of the entries, each one is created as it is handed out
+    * @return a live view of key-value entries
+    */
+   public Collection<Entry<K, V>> entrySet () {
+      return new AbstractCollection<Entry<K, V>>() {
+         @Override
+         public int size () {
+            return size;
+         }
+
+         @Override
+         public Iterator<Entry<K, V>> iterator () {
+            return HashTable.this.iterator();
+         }
+
+         @Override
+         public Spliterator<Entry<K, V>> spliterator () {
+            return HashTable.this.spliterator();
+         }
+      };
+   }
+
+   /**
+    * Iterates the entries, each one is created as it is handed out
+    * @return iterator over key-value entries
+    */
+   @Override
+   public Iterator<Entry<K, V>> iterator () {
+      return new Slots<Entry<K, V>>(this::entryAt);
+   }
+
+   /**
+    *
+    * @return spliterator over key-value entries splitting along slot ranges
+    */
+   @Override
+   public Spliterator<Entry<K, V>> spliterator () {
+      return new SlotSpliterator<Entry<K, V>>(this::entryAt, 0, keys.length, modCount,
+            Spliterator.DISTINCT);
    }
 
    /**
-    * 
-    * @return an iterable set of all values
+    * Visits every key and value without creating entries
+    * @param action receives each key and its value
+    * @throws ConcurrentModificationException when the action changes the table
     */
-   public ArrayList<V> values () {
-      final ArrayList<V> values = new ArrayList<V>();
-      for (final ArrayList<Entry<K, V>> i: table) {
-         for (final Entry<K, V> j: i) {
-            values.add(j.value());
+   public void forEach (final BiConsumer<? super K, ? super V> action) {
+      final int expected = modCount;
+      final Object[] k = keys;
+      for (int i = 0; i < k.length; i++) {
+         if (k[i] != null) {
+            action.accept(keyAt(i), valueAt(i));
          }
       }
-      return values;
+      if (modCount != expected) {
+         throw new ConcurrentModificationException();
+      }
    }
 
    /**
-    * 
-    * @return an iterable set of key-value entries
+    * Iterator over the used slots, handing out what the reader makes of each one
     */
-   public ArrayList<Entry<K, V>> entrySet () {
-      final ArrayList<Entry<K, V>> entrySet = new ArrayList<Entry<K, V>>();
-      for (final ArrayList<Entry<K, V>> i: table) {
-         entrySet.addAll(i);
+   private final class Slots<T> implements Iterator<T> {
+      private final IntFunction<T> reader;
+      private final Object[] slots = keys;
+      private final int expected = modCount;
+      private int next = -1;
+
+      private Slots (final IntFunction<T> reader) {
+         this.reader = reader;
+         advance();
+      }
+
+      private void advance () {
+         do {
+            next++;
+         } while (next < slots.length && slots[next] == null);
+      }
+
+      @Override
+      public boolean hasNext () {
+         return next < slots.length;
+      }
+
+      @Override
+      public T next () {
+         if (modCount != expected) {
+            throw new ConcurrentModificationException();
+         }
+         if (next >= slots.length) {
+            throw new NoSuchElementException();
+         }
+         final T element = reader.apply(next);
+         advance();
+         return element;
       }
-      return entrySet;
    }
 
    /**
-    * Binary search algorithm
-    * @param key item being search for
-    * @param bucket arrayList holding all of the entries
-    * @param low lowest index
-    * @param high highest index
-    * @return value if in the array list or null otherwise
+    * Spliterator over a range of slots, split in halves of the range
     */
-   private int binarySearch (final K key, final ArrayList<Entry<K, V>> bucket, int low,
-         int high) {
+   private final class SlotSpliterator<T> implements Spliterator<T> {
+      private final IntFunction<T> reader;
+      private final int expected;
+      private final int characteristics;
+      private final boolean whole;
+      private int from;
+      private final int to;
+
+      private SlotSpliterator (final IntFunction<T> reader, final int from, final int to,
+            final int expected, final int characteristics) {
+         this.reader = reader;
+         this.from = from;
+         this.to = to;
+         this.expected = expected;
+         this.characteristics = characteristics;
+         this.whole = from == 0 && to == keys.length;
+      }
 
-      final int mid = (high + low) / 2;
-      final Entry<K, V> entry = bucket.get(mid);
-      // null base case
-      if (high < low) {
-         return -1;
+      @Override
+      public boolean tryAdvance (final Consumer<? super T> action) {
+         final Object[] slots = keys;
+         while (from < to) {
+            final int i = from++;
+            if (slots[i] != null) {
+               action.accept(reader.apply(i));
+               check();
+               return true;
+            }
+         }
+         return false;
       }
 
-      // return base case
-      if (entry.key().compareTo(key) == 0) {
-         return mid;
+      @Override
+      public void forEachRemaining (final Consumer<? super T> action) {
+         final Object[] slots = keys;
+         for (int i = from; i < to; i++) {
+            if (slots[i] != null) {
+               action.accept(reader.apply(i));
+            }
+         }
+         from = to;
+         check();
       }
 
-      // case mid key comes before target key
-      if (entry.key().compareTo(key) > 0) {
-         return binarySearch(key, bucket, mid, high);
+      @Override
+      public Spliterator<T> trySplit () {
+         final int middle = (from + to) >>> 1;
+         if (to - from < 1024) {
+            return null;
+         }
+         final SlotSpliterator<T> prefix =
+               new SlotSpliterator<T>(reader, from, middle, expected, characteristics);
+         from = middle;
+         return prefix;
       }
 
-      // case mid key comes after target key
-      if (entry.key().compareTo(key) < 0) {
-         return binarySearch(key, bucket, low, mid);
+      @Override
+      public long estimateSize () {
+         return whole && from == 0 ? size : (long) size * (to - from) / Math.max(keys.length, 1);
+      }
+
+      @Override
+      public int characteristics () {
+         return characteristics | Spliterator.NONNULL
+               | (whole && from == 0 ? Spliterator.SIZED : 0);
+      }
+
+      private void check () {
+         if (modCount != expected) {
+            throw new ConcurrentModificationException();
+         }
+      }
+   }
+
+   /**
+    * Linear probe for the slot holding the key
+    * @param key item being searched for
+    * @return slot of the key or -1 if it is not in the table
+    */
+   private int indexOf (final K key) {
+      final int mask = keys.length - 1;
+      int i = hash(key) & mask;
+      Object current;
+      while ((current = keys[i]) != null) {
+         if (current.equals(key)) {
+            return i;
+         }
+         i = (i + 1) & mask;
       }
 
       return -1;
    }
+
+   /**
+    * Linear probe for the slot holding the key or the empty slot it would be inserted into
+    * @param key item being searched for
+    * @return slot of the key, or -(empty slot) - 1 if it is not in the table
+    */
+   private int slotOf (final K key) {
+      final int mask = keys.length - 1;
+      int i = hash(key) & mask;
+      Object current;
+      while ((current = keys[i]) != null) {
+         if (current.equals(key)) {
+            return i;
+         }
+         i = (i + 1) & mask;
+      }
+
+      return -i - 1;
+   }
+
+   /**
+    * Fills an empty slot found by slotOf, growing the table once the threshold is passed
+    * @param index empty slot
+    * @param key key of the entry
+    * @param value value of the entry
+    */
+   private void insertAt (final int index, final K key, final V value) {
+      keys[index] = key;
+      values[index] = value;
+      modCount++;
+      if (++size > threshold) {
+         resize(keys.length << 1);
+      }
+   }
+
+   /**
+    * Stores the outcome of a compute in the slot found by slotOf before it ran
+    * @param slot slot of the key or -(empty slot) - 1
+    * @param key key of the entry
+    * @param value new value, null removes the entry
+    * @return the value stored
+    */
+   private V store (final int slot, final K key, final V value) {
+      if (value == null) {
+         if (slot >= 0) {
+            deleteAt(slot);
+         }
+      } else if (slot >= 0) {
+         values[slot] = value;
+      } else {
+         insertAt(-slot - 1, key, value);
+      }
+      return value;
+   }
+
+   /**
+    * Empties a slot and shifts back any entries of the same cluster that probed past it
+    * @param index slot being emptied
+    */
+   private void deleteAt (int index) {
+      final int mask = keys.length - 1;
+      int i = index;
+      while (true) {
+         i = (i + 1) & mask;
+         if (keys[i] == null) {
+            break;
+         }
+
+         // entries whose home slot lies cyclically in (index, i] must stay where they are
+         final int home = hash(keyAt(i)) & mask;
+         if (((i - home) & mask) >= ((i - index) & mask)) {
+            keys[index] = keys[i];
+            values[index] = values[i];
+            index = i;
+         }
+      }
+
+      keys[index] = null;
+      values[index] = null;
+      size--;
+      modCount++;
+   }
+
+   /**
+    * Rehashes every entry into arrays of a new capacity
+    * @param capacity power of two amount of slots
+    */
+   private void resize (final int capacity) {
+      if (keys.length == MAXIMUM_CAPACITY) {
+         if (size == MAXIMUM_CAPACITY - 1) {
+            throw new IllegalStateException("HashTable is full");
+         }
+         threshold = MAXIMUM_CAPACITY - 1;
+         return;
+      }
+
+      final Object[] oldKeys = keys;
+      final Object[] oldValues = values;
+      allocate(capacity);
+      modCount++;
+      final int mask = capacity - 1;
+      for (int j = 0; j < oldKeys.length; j++) {
+         if (oldKeys[j] != null) {
+            @SuppressWarnings("unchecked")
+            final K key = (K) oldKeys[j];
+            int i = hash(key) & mask;
+            while (keys[i] != null) {
+               i = (i + 1) & mask;
+            }
+            keys[i] = key;
+            values[i] = oldValues[j];
+         }
+      }
+   }
+
+   /**
+    * Creates empty arrays of the given capacity
+    * @param capacity power of two amount of slots
+    */
+   private void allocate (final int capacity) {
+      keys = new Object[capacity];
+      values = new Object[capacity];
+      threshold = capacity == MAXIMUM_CAPACITY
+            ? MAXIMUM_CAPACITY - 1
+            : (int) (capacity * loadFactor);
+   }
+
+   @SuppressWarnings("unchecked")
+   private K keyAt (final int index) {
+      return (K) keys[index];
+   }
+
+   @SuppressWarnings("unchecked")
+   private V valueAt (final int index) {
+      return (V) values[index];
+   }
+
+   private Entry<K, V> entryAt (final int index) {
+      return new Entry<K, V>(keyAt(index), valueAt(index));
+   }
+
+   /**
+    * Spreads the bits of the hash code so sequential hash codes do not form long clusters
+    * @param key key being hashed
+    * @return mixed hash code
+    */
+   private static int hash (final Object key) {
+      final int h = key.hashCode() * 0x9E3779B9;
+      return h ^ (h >>> 16);
+   }
+
+   /**
+    * Smallest power of two amount of slots that holds the entries under the load factor
+    * @param expected amount of entries
+    * @param loadFactor fraction of the slots that may be used
+    * @return power of two capacity
+    */
+   private static int capacityFor (final int expected, final float loadFactor) {
+      final long needed = (long) Math.ceil(expected / (double) loadFactor) + 1;
+      if (needed >= MAXIMUM_CAPACITY) {
+         return MAXIMUM_CAPACITY;
+      }
+
+      int capacity = DEFAULT_CAPACITY;
+      while (capacity < needed) {
+         capacity <<= 1;
+      }
+      return capacity;
+   }
+
+   /**
+    * Writes the load factor followed by the size and every key-value pair, the slot layout
+    * is rebuilt when reading
+    * @param out stream being written to
+    * @throws IOException when writing fails
+    */
+   private void writeObject (final ObjectOutputStream out) throws IOException {
+      out.defaultWriteObject();
+      out.writeInt(size);
+      for (int i = 0; i < keys.length; i++) {
+         if (keys[i] != null) {
+            out.writeObject(keys[i]);
+            out.writeObject(values[i]);
+         }
+      }
+   }
+
+   /**
+    * Reads a HashTable written by writeObject, or one saved by the old layout of 17
+    * sorted ArrayList buckets
+    * @param in stream being read from
+    * @throws IOException when reading fails
+    * @throws ClassNotFoundException when a key or value class is missing
+    */
+   @SuppressWarnings("unchecked")
+   private void readObject (final ObjectInputStream in)
+         throws IOException, ClassNotFoundException {
+      final ObjectInputStream.GetField fields = in.readFields();
+      if (fields.getObjectStreamClass().getField("table") != null) {
+         final ArrayList<ArrayList<Entry<K, V>>> table =
+               (ArrayList<ArrayList<Entry<K, V>>>) fields.get("table", null);
+         loadFactor = DEFAULT_LOAD_FACTOR;
+         int count = 0;
+         for (final ArrayList<Entry<K, V>> bucket: table) {
+            count += bucket.size();
+         }
+         allocate(capacityFor(count, loadFactor));
+         for (final ArrayList<Entry<K, V>> bucket: table) {
+            for (final Entry<K, V> entry: bucket) {
+               put(entry.key(), entry.value());
+            }
+         }
+         return;
+      }
+
+      loadFactor = fields.get("loadFactor", DEFAULT_LOAD_FACTOR);
+      if (!(loadFactor > 0 && loadFactor < 1)) {
+         throw new InvalidObjectException("Illegal load factor: " + loadFactor);
+      }
+      final int count = in.readInt();
+      if (count < 0) {
+         throw new InvalidObjectException("Illegal size: " + count);
+      }
+      allocate(capacityFor(count, loadFactor));
+      for (int i = 0; i < count; i++) {
+         put((K) in.readObject(), (V) in.readObject());
+      }
+   }
 }
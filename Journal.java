@@ -0,0 +1,428 @@
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of the commands that changed the table since the last snapshot. Every
+ * record is written as its length, a CRC32 and a payload holding the sequence number, a one
+ * byte opcode for the command and its arguments as length-prefixed UTF-8. Records are forced
+ * to disk once syncEvery of them are pending and, when syncMillis is set, by a background
+ * thread at that interval so bursts of commands share one fsync. A batch of commands is
+ * written as one record so it is replayed either completely or not at all.
+ * @author Noah Rouse <my_email@noahrouse36@gmail.com>
+ */
+public final class Journal implements Closeable {
+   private static final String[] OPCODES = {null, "ADDPRODUCT", "REMOVEPRODUCT", "ADDSUPPLIER",
+         "REMOVESUPPLIER", "SETINVENTORY", "INCREASEINVENTORY", "DECREASEINVENTORY", "SETPRICE"};
+   private static final int BATCH = 0xFF;
+   private static final int MAX_RECORD = 1 << 30;
+
+   private final Path path;
+   private final int syncEvery;
+   private FileChannel channel;
+   private final ScheduledExecutorService syncer;
+   private ByteBuffer buffer = ByteBuffer.allocate(256);
+   private long sequence = 0;
+   private int pending = 0;
+
+   /**
+    * Opens or creates the journal file
+    * @param fileName file the records are appended to
+    * @param syncEvery amount of records written before forcing them to disk, 0 to leave it
+    * to the background thread
+    * @param syncMillis interval of the background thread forcing pending records, 0 for none
+    * @throws IOException when the file can not be opened
+    */
+   public Journal (final String fileName, final int syncEvery, final long syncMillis)
+         throws IOException {
+      this.path = Paths.get(fileName);
+      this.channel = open(path);
+      this.channel.position(channel.size());
+      this.syncEvery = syncEvery;
+      if (syncMillis > 0) {
+         syncer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "journal-sync");
+            thread.setDaemon(true);
+            return thread;
+         });
+         syncer.scheduleWithFixedDelay(() -> {
+            try {
+               sync();
+            } catch (final IOException e) {
+               e.printStackTrace();
+            }
+         }, syncMillis, syncMillis, TimeUnit.MILLISECONDS);
+      } else {
+         syncer = null;
+      }
+   }
+
+   /**
+    *
+    * @return sequence number of the last record written or replayed
+    */
+   public synchronized long sequence () {
+      return sequence;
+   }
+
+   /**
+    * Takes the next sequence number without writing a record, for a snapshot of changes that
+    * were not journaled so it still comes after the snapshot before it
+    * @return the sequence number taken
+    */
+   public synchronized long advance () {
+      return ++sequence;
+   }
+
+   /**
+    *
+    * @return size of the journal file in bytes
+    * @throws IOException when the size can not be read
+    */
+   public synchronized long size () throws IOException {
+      return channel.size();
+   }
+
+   /**
+    * Marks where the records written so far end. A snapshot taken under the table lock
+    * holds exactly the records before the mark, as changes are only journaled under it.
+    * @return offset in the journal file after the last record written
+    * @throws IOException when the position can not be read
+    */
+   public synchronized long position () throws IOException {
+      return channel.position();
+   }
+
+   /**
+    * Reads every intact record from the start of the file. A torn or corrupt record ends the
+    * replay and is cut off so new records follow the last good one.
+    * @param after records up to and including this sequence number are already in the
+    * snapshot and are skipped
+    * @param consumer receives the command and arguments of each record, in order
+    * @return amount of commands passed to the consumer
+    * @throws IOException when the file can not be read
+    */
+   public synchronized int replay (final long after, final Consumer<String[]> consumer)
+         throws IOException {
+      sequence = after;
+      int replayed = 0;
+      long valid = 0;
+      channel.position(0);
+      final InputStream in = Channels.newInputStream(channel);
+      final DataInputStream data = new DataInputStream(new BufferedInputStream(in));
+      final CRC32 crc = new CRC32();
+      try {
+         while (true) {
+            final int length = data.readInt();
+            final int checksum = data.readInt();
+            if (length <= 0 || length > MAX_RECORD) {
+               break;
+            }
+            final byte[] payload = new byte[length];
+            data.readFully(payload);
+            crc.reset();
+            crc.update(payload, 0, length);
+            if ((int) crc.getValue() != checksum) {
+               break;
+            }
+
+            final ByteBuffer record = ByteBuffer.wrap(payload);
+            final long seq = readVarLong(record);
+            final int count;
+            if ((record.get(record.position()) & 0xFF) == BATCH) {
+               record.get();
+               count = (int) readVarLong(record);
+            } else {
+               count = 1;
+            }
+            final String[][] commands = new String[count][];
+            for (int i = 0; i < count; i++) {
+               commands[i] = decode(record);
+            }
+            valid += 8 + length;
+            if (seq > after) {
+               for (final String[] cmds: commands) {
+                  consumer.accept(cmds);
+               }
+               replayed += count;
+            }
+            sequence = Math.max(sequence, seq);
+         }
+      } catch (final EOFException e) {
+         // end of the file or a torn record
+      }
+
+      if (valid < channel.size()) {
+         channel.truncate(valid);
+      }
+      channel.position(valid);
+      return replayed;
+   }
+
+   /**
+    * Appends the command as a new record
+    * @param cmds the command followed by its arguments
+    * @return sequence number of the record
+    * @throws IOException when writing fails
+    * @throws IllegalArgumentException when the command has more than 255 arguments
+    */
+   public synchronized long append (final String[] cmds) throws IOException {
+      checkArguments(cmds);
+      final long seq = sequence + 1;
+      buffer.clear();
+      buffer.position(8);
+      writeVarLong(seq);
+      encode(cmds);
+      return write(seq);
+   }
+
+   /**
+    * Appends all commands as a single record
+    * @param batch the commands, each followed by its arguments
+    * @return sequence number of the record, or of the last record when the batch is empty
+    * @throws IOException when writing fails
+    * @throws IllegalArgumentException when a command has more than 255 arguments
+    */
+   public synchronized long append (final List<String[]> batch) throws IOException {
+      if (batch.isEmpty()) {
+         return sequence;
+      }
+      for (final String[] cmds: batch) {
+         checkArguments(cmds);
+      }
+      final long seq = sequence + 1;
+      buffer.clear();
+      buffer.position(8);
+      writeVarLong(seq);
+      writeByte(BATCH);
+      writeVarLong(batch.size());
+      for (final String[] cmds: batch) {
+         encode(cmds);
+      }
+      if (buffer.position() - 8 > MAX_RECORD) {
+         throw new IllegalArgumentException("Batch too large");
+      }
+      return write(seq);
+   }
+
+   /**
+    * Frames the record in the buffer with its length and checksum and writes it
+    * @param seq sequence number of the record
+    * @return sequence number of the record
+    * @throws IOException when writing fails
+    */
+   private long write (final long seq) throws IOException {
+      final int length = buffer.position() - 8;
+      final CRC32 crc = new CRC32();
+      crc.update(buffer.array(), 8, length);
+      buffer.putInt(0, length);
+      buffer.putInt(4, (int) crc.getValue());
+      buffer.flip();
+      while (buffer.hasRemaining()) {
+         channel.write(buffer);
+      }
+
+      sequence = seq;
+      pending++;
+      if (syncEvery > 0 && pending >= syncEvery) {
+         sync();
+      }
+      return seq;
+   }
+
+   /**
+    * Forces any records not yet on disk
+    * @throws IOException when forcing fails
+    */
+   public synchronized void sync () throws IOException {
+      if (pending > 0) {
+         channel.force(false);
+         pending = 0;
+      }
+   }
+
+   /**
+    * Empties the journal once a snapshot holds every record, the sequence keeps counting
+    * @throws IOException when the file can not be truncated
+    */
+   public synchronized void reset () throws IOException {
+      channel.truncate(0);
+      channel.position(0);
+      channel.force(false);
+      pending = 0;
+   }
+
+   /**
+    * Drops the records before a mark once a snapshot holds them, keeping the ones appended
+    * while the snapshot was written. Those are copied to a temporary file which is forced
+    * and moved over the journal, so a crash leaves either journal and replaying it over the
+    * new snapshot skips the records it already holds.
+    * @param mark offset returned by position before the snapshot was taken
+    * @throws IOException when the file can not be rewritten
+    */
+   public synchronized void truncate (final long mark) throws IOException {
+      final long end = channel.position();
+      if (mark >= end) {
+         reset();
+         return;
+      }
+      final Path temp = Paths.get(path + ".tmp");
+      try (FileChannel copy = open(temp)) {
+         copy.truncate(0);
+         long copied = 0;
+         while (copied < end - mark) {
+            copied += channel.transferTo(mark + copied, end - mark - copied, copy);
+         }
+         copy.force(false);
+      }
+      Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+      channel.close();
+      channel = open(path);
+      channel.position(channel.size());
+      pending = 0;
+   }
+
+   /**
+    * Forces pending records and closes the file
+    * @throws IOException when forcing or closing fails
+    */
+   @Override
+   public synchronized void close () throws IOException {
+      if (syncer != null) {
+         syncer.shutdown();
+      }
+      sync();
+      channel.close();
+   }
+
+   private static FileChannel open (final Path path) throws IOException {
+      return FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+            StandardOpenOption.WRITE);
+   }
+
+   private static void checkArguments (final String[] cmds) {
+      if (cmds.length > 256) {
+         throw new IllegalArgumentException("Too many arguments");
+      }
+   }
+
+   /**
+    * Writes the opcode, name when it has none and arguments of a command
+    * @param cmds the command followed by its arguments
+    */
+   private void encode (final String[] cmds) {
+      final int opcode = opcode(cmds[0]);
+      writeByte(opcode);
+      if (opcode == 0) {
+         writeString(cmds[0]);
+      }
+      writeByte(cmds.length - 1);
+      for (int i = 1; i < cmds.length; i++) {
+         writeString(cmds[i]);
+      }
+   }
+
+   /**
+    * @param command name of command
+    * @return the one byte code of the command or 0 when its name has to be written out
+    */
+   private static int opcode (final String command) {
+      for (int i = 1; i < OPCODES.length; i++) {
+         if (OPCODES[i].equalsIgnoreCase(command)) {
+            return i;
+         }
+      }
+      return 0;
+   }
+
+   /**
+    * Reads the command and arguments of a record payload
+    * @param record payload positioned after the sequence number
+    * @return the command followed by its arguments
+    * @throws EOFException when the opcode is unknown
+    */
+   private static String[] decode (final ByteBuffer record) throws EOFException {
+      final int opcode = record.get() & 0xFF;
+      if (opcode >= OPCODES.length) {
+         throw new EOFException("Unknown opcode " + opcode);
+      }
+      final String command = opcode == 0 ? readString(record) : OPCODES[opcode];
+      final int count = record.get() & 0xFF;
+      final String[] cmds = new String[count + 1];
+      cmds[0] = command;
+      for (int i = 1; i <= count; i++) {
+         cmds[i] = readString(record);
+      }
+      return cmds;
+   }
+
+   private void ensure (final int bytes) {
+      if (buffer.remaining() < bytes) {
+         final ByteBuffer bigger = ByteBuffer.allocate(
+               Math.max(buffer.capacity() * 2, buffer.position() + bytes));
+         buffer.flip();
+         bigger.put(buffer);
+         buffer = bigger;
+      }
+   }
+
+   private void writeByte (final int value) {
+      ensure(1);
+      buffer.put((byte) value);
+   }
+
+   private void writeVarLong (long value) {
+      ensure(10);
+      while ((value & ~0x7FL) != 0) {
+         buffer.put((byte) ((value & 0x7F) | 0x80));
+         value >>>= 7;
+      }
+      buffer.put((byte) value);
+   }
+
+   private void writeString (final String value) {
+      final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+      writeVarLong(bytes.length);
+      ensure(bytes.length);
+      buffer.put(bytes);
+   }
+
+   private static long readVarLong (final ByteBuffer record) {
+      long value = 0;
+      int shift = 0;
+      byte b;
+      do {
+         b = record.get();
+         value |= (long) (b & 0x7F) << shift;
+         shift += 7;
+      } while (b < 0);
+      return value;
+   }
+
+   private static String readString (final ByteBuffer record) {
+      final int length = (int) readVarLong(record);
+      final String value = new String(record.array(), record.position(), length,
+            StandardCharsets.UTF_8);
+      record.position(record.position() + length);
+      return value;
+   }
+}
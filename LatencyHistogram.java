@@ -0,0 +1,125 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of durations in nanoseconds with buckets laid out like an HdrHistogram: every
+ * power of two range is split into 32 equal buckets, so a recorded value is known to within
+ * about 3% however large it is, and recording is an index computation and an atomic add
+ * without allocating. Values of about 36 minutes and more share the last bucket.
+ *
+ * Recording may happen from any thread, reading while values are recorded gives counts that
+ * are off by the values in flight.
+ * @author Noah Rouse <my_email@noahrouse36@gmail.com>
+ */
+public final class LatencyHistogram {
+   private static final int SUB_BITS = 5;
+   private static final int SUB_COUNT = 1 << SUB_BITS;
+   private static final int MAX_BIT = 41;
+   private static final long MAX_VALUE = (1L << MAX_BIT) - 1;
+
+   private final AtomicLongArray counts =
+         new AtomicLongArray(index(MAX_VALUE) + 1);
+   private final LongAdder count = new LongAdder();
+   private final LongAdder total = new LongAdder();
+   private final AtomicLong max = new AtomicLong();
+
+   /**
+    * Adds a duration to the histogram
+    * @param nanos the duration, negative ones count as zero
+    */
+   public void record (final long nanos) {
+      final long value = Math.max(nanos, 0);
+      counts.incrementAndGet(index(Math.min(value, MAX_VALUE)));
+      count.increment();
+      total.add(value);
+      if (value > max.get()) {
+         max.accumulateAndGet(value, Math::max);
+      }
+   }
+
+   /**
+    *
+    * @return amount of durations recorded
+    */
+   public long count () {
+      return count.sum();
+   }
+
+   /**
+    *
+    * @return sum of the durations recorded in nanoseconds
+    */
+   public long total () {
+      return total.sum();
+   }
+
+   /**
+    *
+    * @return mean duration in nanoseconds, 0 when nothing was recorded
+    */
+   public double mean () {
+      final long recorded = count.sum();
+      return recorded == 0 ? 0 : total.sum() / (double) recorded;
+   }
+
+   /**
+    *
+    * @return longest duration recorded in nanoseconds
+    */
+   public long max () {
+      return max.get();
+   }
+
+   /**
+    * Finds the duration a percentage of the recorded ones are at or below, as the highest
+    * value of the bucket it falls in
+    * @param percentile percentage between 0 and 100
+    * @return the duration in nanoseconds, 0 when nothing was recorded
+    */
+   public long percentile (final double percentile) {
+      long total = 0;
+      for (int i = 0; i < counts.length(); i++) {
+         total += counts.get(i);
+      }
+      if (total == 0) {
+         return 0;
+      }
+
+      final long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+      long seen = 0;
+      for (int i = 0; i < counts.length(); i++) {
+         seen += counts.get(i);
+         if (seen >= rank) {
+            return Math.min(highest(i), max.get());
+         }
+      }
+      return max.get();
+   }
+
+   /**
+    * Values below 64 get a bucket each, above that the top six bits of the value choose it
+    * @param value duration no larger than MAX_VALUE
+    * @return bucket of the value
+    */
+   private static int index (final long value) {
+      if (value < SUB_COUNT) {
+         return (int) value;
+      }
+      final int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+      return (shift << SUB_BITS) + (int) (value >>> shift);
+   }
+
+   /**
+    * @param index bucket
+    * @return highest value that falls into the bucket
+    */
+   private static long highest (final int index) {
+      if (index < 2 * SUB_COUNT) {
+         return index;
+      }
+      final int shift = (index >>> SUB_BITS) - 1;
+      final long sub = (index & (SUB_COUNT - 1)) + SUB_COUNT;
+      return ((sub + 1) << shift) - 1;
+   }
+}
@@ -0,0 +1,207 @@
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Drives a running Server over loopback and reports requests per second and latency
+ * percentiles. Every connection keeps a window of pipelined commands in flight, mostly
+ * DISPLAYPRODUCT with some INCREASEINVENTORY and DECREASEINVENTORY, and measures each
+ * command from the write of its window until its response has been read.
+ *
+ * Usage: java LoadGenerator [-h host] [-p port] [-c connections] [-d depth] [-s seconds]
+ * [-n products]
+ * @author Noah Rouse <my_email@noahrouse36@gmail.com>
+ */
+public final class LoadGenerator {
+   private LoadGenerator () {
+   }
+
+   /**
+    * Latencies of one connection in nanoseconds
+    */
+   private static final class Samples {
+      private long[] latencies = new long[1 << 16];
+      private int count = 0;
+
+      private void add (final long nanos) {
+         if (count == latencies.length) {
+            latencies = Arrays.copyOf(latencies, count * 2);
+         }
+         latencies[count++] = nanos;
+      }
+   }
+
+   public static void main (final String[] args) throws Exception {
+      String host = "127.0.0.1";
+      int port = 7070;
+      int connections = 16;
+      int depth = 32;
+      int seconds = 10;
+      int products = 10000;
+      for (int i = 0; i + 1 < args.length; i += 2) {
+         switch (args[i]) {
+            case "-h":
+               host = args[i + 1];
+               break;
+            case "-p":
+               port = Integer.parseInt(args[i + 1]);
+               break;
+            case "-c":
+               connections = Integer.parseInt(args[i + 1]);
+               break;
+            case "-d":
+               depth = Integer.parseInt(args[i + 1]);
+               break;
+            case "-s":
+               seconds = Integer.parseInt(args[i + 1]);
+               break;
+            case "-n":
+               products = Integer.parseInt(args[i + 1]);
+               break;
+            default:
+               System.out.printf("Unknown option %s\n", args[i]);
+               return;
+         }
+      }
+
+      final String[] names = new String[products];
+      for (int i = 0; i < products; i++) {
+         names[i] = "load" + i;
+      }
+      prepare(host, port, names);
+
+      final long deadline = System.nanoTime() + seconds * 1000000000L;
+      final Samples[] samples = new Samples[connections];
+      final Thread[] threads = new Thread[connections];
+      final String target = host;
+      final int targetPort = port;
+      final int window = depth;
+      for (int c = 0; c < connections; c++) {
+         final Samples mine = new Samples();
+         final long seed = c;
+         samples[c] = mine;
+         threads[c] = new Thread(() -> {
+            try {
+               drive(target, targetPort, names, window, deadline, new Random(seed), mine);
+            } catch (final IOException e) {
+               e.printStackTrace();
+            }
+         });
+         threads[c].start();
+      }
+      for (final Thread thread: threads) {
+         thread.join();
+      }
+
+      int total = 0;
+      for (final Samples s: samples) {
+         total += s.count;
+      }
+      final long[] all = new long[total];
+      int offset = 0;
+      for (final Samples s: samples) {
+         System.arraycopy(s.latencies, 0, all, offset, s.count);
+         offset += s.count;
+      }
+      Arrays.sort(all);
+      System.out.printf(Locale.ROOT, "connections=%d depth=%d requests=%d\n", connections,
+            depth, total);
+      System.out.printf(Locale.ROOT, "throughput: %.0f requests/s\n", total / (double) seconds);
+      System.out.printf(Locale.ROOT, "latency p50=%.1fus p99=%.1fus p99.9=%.1fus max=%.1fus\n",
+            percentile(all, 0.50), percentile(all, 0.99), percentile(all, 0.999),
+            percentile(all, 1.0));
+   }
+
+   /**
+    * Adds every product used by the load with plenty of inventory
+    */
+   private static void prepare (final String host, final int port, final String[] names)
+         throws IOException {
+      try (Socket socket = new Socket(host, port)) {
+         final OutputStream out = new BufferedOutputStream(socket.getOutputStream(), 1 << 16);
+         final BufferedReader in = new BufferedReader(new InputStreamReader(
+               socket.getInputStream(), StandardCharsets.UTF_8));
+         for (final String name: names) {
+            out.write(("ADDPRODUCT " + name + "\nSETINVENTORY " + name + " 1000000\n")
+                  .getBytes(StandardCharsets.UTF_8));
+         }
+         out.flush();
+         for (int i = 0; i < names.length * 2; i++) {
+            skipResponse(in);
+         }
+      }
+   }
+
+   /**
+    * Sends windows of pipelined commands on one connection until the deadline
+    */
+   private static void drive (final String host, final int port, final String[] names,
+         final int depth, final long deadline, final Random random, final Samples samples)
+         throws IOException {
+      try (Socket socket = new Socket(host, port)) {
+         socket.setTcpNoDelay(true);
+         final OutputStream out = new BufferedOutputStream(socket.getOutputStream(), 1 << 16);
+         final BufferedReader in = new BufferedReader(new InputStreamReader(
+               socket.getInputStream(), StandardCharsets.UTF_8), 1 << 16);
+         final StringBuilder batch = new StringBuilder();
+         while (System.nanoTime() < deadline) {
+            batch.setLength(0);
+            for (int i = 0; i < depth; i++) {
+               final String name = names[random.nextInt(names.length)];
+               final int kind = random.nextInt(10);
+               if (kind == 0) {
+                  batch.append("INCREASEINVENTORY ").append(name).append(" 1\n");
+               } else if (kind == 1) {
+                  batch.append("DECREASEINVENTORY ").append(name).append(" 1\n");
+               } else {
+                  batch.append("DISPLAYPRODUCT ").append(name).append('\n');
+               }
+            }
+
+            final long sent = System.nanoTime();
+            out.write(batch.toString().getBytes(StandardCharsets.UTF_8));
+            out.flush();
+            for (int i = 0; i < depth; i++) {
+               skipResponse(in);
+               samples.add(System.nanoTime() - sent);
+            }
+         }
+         out.write("EXIT\n".getBytes(StandardCharsets.UTF_8));
+         out.flush();
+      }
+   }
+
+   /**
+    * Reads the lines of one response up to the empty line ending it
+    */
+   private static void skipResponse (final BufferedReader in) throws IOException {
+      String line;
+      while ((line = in.readLine()) != null && !line.isEmpty()) {
+         // response body
+      }
+      if (line == null) {
+         throw new IOException("Server closed the connection");
+      }
+   }
+
+   /**
+    * @param sorted latencies in nanoseconds sorted ascending
+    * @param fraction percentile between 0 and 1
+    * @return the latency at the percentile in microseconds
+    */
+   private static double percentile (final long[] sorted, final double fraction) {
+      if (sorted.length == 0) {
+         return 0;
+      }
+      final int index = (int) Math.min(sorted.length - 1,
+            Math.ceil(fraction * sorted.length) - 1);
+      return sorted[Math.max(index, 0)] / 1000.0;
+   }
+}
@@ -1,83 +1,157 @@
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
 import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Scanner;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 /**
  * Main function for product, pulls data from sql and saves all in a hash set and returns it
  * @author Noah Rouse <email@noahrouse36@gmail.com>
  */
 public final class Main {
    private static final String SERIALIZED_FILE = "data.sav";
+   private static final String LEGACY_FILE = "data.sav.legacy";
+   private static final String JOURNAL_FILE = "data.log";
+   private static final int JOURNAL_SYNC_EVERY = Integer.getInteger("journal.syncEvery", 1);
+   private static final long JOURNAL_SYNC_MILLIS = Long.getLong("journal.syncMillis", 0);
+   private static final long SNAPSHOT_SECONDS = Long.getLong("snapshot.seconds", 60);
+   private static final int SNAPSHOT_DIRTY = Integer.getInteger("snapshot.dirty", 10000);
+   private static final int SNAPSHOT_MERGE = Integer.getInteger("snapshot.merge", 8);
+   private static final boolean LAZY_LOAD =
+         Boolean.parseBoolean(System.getProperty("snapshot.lazy", "true"));
+   private static final int CACHE_SIZE = Integer.getInteger("cache.size", 100000);
+   private static final String STATS_FILE = System.getProperty("stats.file", "stats.txt");
+   private static final long STATS_SECONDS = Long.getLong("stats.seconds", 60);
+   private static final int PAGE_SIZE = 20;
+   private static final PrintStream NULL_OUT = new PrintStream(OutputStream.nullOutputStream());
 
    /**
-    * loads the hash table from the serialized file
-    * @return the HashTable read from the file
+    * Outcome of running a single command
     */
-   private static HashTable<String, Product> loadHashTable () {
-      HashTable<String, Product> table = null;
+   public enum Status {
+      /** the table was only read */
+      READ,
+      /** the table may have changed and the command should be journaled */
+      CHANGED,
+      /** the command was rejected and the table was left unchanged */
+      FAILED,
+      /** the table should be saved as a snapshot now, as after a bulk change that is not
+       * journaled */
+      SAVE,
+      /** the command loop should stop */
+      EXIT
+   }
+
+   /**
+    * loads a hash table and the journal sequence it was saved at
+    * @param fileName file the table was saved to
+    * @return the snapshot read from the file or null if it could not be read
+    */
+   static SnapshotCodec.Snapshot loadSnapshot (final String fileName) {
       try {
-         final FileInputStream fileIn = new FileInputStream(SERIALIZED_FILE);
-         final ObjectInputStream objIn = new ObjectInputStream(fileIn);
-         @SuppressWarnings("unchecked")
-         final HashTable<String, Product> obj = (HashTable<String, Product>) objIn.readObject();
-         table = obj;
-         objIn.close();
-         fileIn.close();
-      } catch (IOException | ClassNotFoundException e) {
+         return SnapshotCodec.read(Paths.get(fileName));
+      } catch (final IOException e) {
          e.printStackTrace();
+         return null;
       }
+   }
 
-      return table;
+   /**
+    * Saves a hash table into the given file
+    * @param table the HashTable being saved
+    * @param fileName file being written
+    * @return true if the table was saved
+    */
+   static boolean saveHashTable (final Table<String, Product> table, final String fileName) {
+      return saveHashTable(table, fileName, 0);
    }
 
    /**
-    * Saves the hash table into a file
+    * Saves a hash table and the last journal sequence it holds, recording how long it took
+    * and how large the file is in Stats
     * @param table the HashTable being saved
-    * @throws FileNotFoundException
+    * @param fileName file being written
+    * @param sequence last journal record contained in the table
+    * @return true if the table was saved
     */
-   private static void saveHashTable(final HashTable<String, Product> table) {
+   static boolean saveHashTable (final Table<String, Product> table, final String fileName,
+         final long sequence) {
+      final Stats.SaveEvent event = Stats.beginSave();
+      final long start = System.nanoTime();
+      return writeSnapshot(SnapshotCodec.encode(table, sequence), fileName, event, start);
+   }
+
+   /**
+    * Writes an encoded table, recording in Stats how long it took since the table started
+    * being encoded and how large the file is
+    * @param image table returned by SnapshotCodec.encode
+    * @param fileName file being written
+    * @param event event returned by Stats.beginSave before encoding
+    * @param start System.nanoTime before encoding
+    * @return true if the table was saved
+    */
+   static boolean writeSnapshot (final SnapshotCodec.Image image, final String fileName,
+         final Stats.SaveEvent event, final long start) {
       try {
-         final FileOutputStream fileOut = new FileOutputStream(SERIALIZED_FILE);
-         final ObjectOutputStream objOut = new ObjectOutputStream(fileOut);
-         objOut.writeObject(table);
-         objOut.close();
-         fileOut.close();
-      } catch (IOException e) {
+         SnapshotCodec.persist(image, Paths.get(fileName));
+         Stats.endSave(event, fileName, image.size(), System.nanoTime() - start);
+         return true;
+      } catch (final IOException e) {
          e.printStackTrace();
+         return false;
+      }
+   }
+
+   /**
+    * Copies a table into one that can be shared between threads
+    * @param table products read from disk
+    * @return a ConcurrentHashTable holding the same products
+    */
+   private static Table<String, Product> concurrentCopy (final HashTable<String, Product> table) {
+      final ConcurrentHashTable<String, Product> copy =
+            new ConcurrentHashTable<String, Product>(table.size());
+      for (final Product product: table.values()) {
+         copy.put(product.name(), product);
       }
+      return copy;
    }
 
    /**
     * Retrieves a product from the hash table
     * @param name of product to be found
     * @param table HashTable containing all of the products
+    * @param out stream the result is printed to
     * @return null if not found, the product if found
     */
    public static Product displayProduct (final String name,
-         final HashTable<String, Product> table) {
-      final Product product;
-      try {
-         product = table.get(name);
-      } catch (final NoSuchElementException e) {
-         System.out.printf("Product %s does not exist\n", name);
+         final Table<String, Product> table, final PrintStream out) {
+      final Product product = table.getOrNull(name);
+      if (product == null) {
+         out.printf("Product %s does not exist\n", name);
          return null;
       }
 
-      System.out.printf("name: %s\namount: %s\n", product.name(), product.amount());
-      if (!product.suppliers().isEmpty()) {
-         System.out.println("Suppliers:");
-         for (final String i: product.suppliers()) {
-            System.out.printf("   %s\n", i);
+      out.printf("name: %s\namount: %s\n", product.name(), product.amount());
+      final List<String> suppliers = product.suppliers();
+      if (!suppliers.isEmpty()) {
+         out.println("Suppliers:");
+         for (final String i: suppliers) {
+            out.printf("   %s\n", i);
          }
       }
       if (product.price() != null) {
-         System.out.printf("Price: $%s\n", product.price().toString());
+         out.printf("Price: $%s\n", product.price().toString());
       }
 
       return product;
@@ -86,10 +160,12 @@ public final class Main {
    /**
     * displays all products in the table
     * @param table contains all product
+    * @param out stream the result is printed to
     */
-   public static void displayAllProducts (final HashTable<String, Product> table) {
-      for (final Product i: table.values()) {
-         System.out.println(i.name());
+   public static void displayAllProducts (final Table<String, Product> table,
+         final PrintStream out) {
+      for (final String name: table.keySet()) {
+         out.println(name);
       }
    }
 
@@ -97,38 +173,36 @@ public final class Main {
     * Adds a product to the table if there is no new product.
     * @param name of Product
     * @param table containing the list of products
+    * @param out stream the result is printed to
     * @return
     */
    public static Product addProduct (final String name,
-         final HashTable<String, Product> table) {
-      try {
-         table.get(name);
-         System.out.printf("Product %s already exists\n", name);
+         final Table<String, Product> table, final PrintStream out) {
+      final Product product = new Product(name);
+      if (table.putIfAbsent(name, product) != null) {
+         out.printf("Product %s already exists\n", name);
          return null;
-      } catch (final NoSuchElementException e) {
-         final Product product = new Product(name);
-         table.put(name, product);
-         System.out.printf("Added product \"%s\"\n", name);
-         return product;
-      } 
+      }
+      out.printf("Added product \"%s\"\n", name);
+      return product;
    }
 
    /**
     * Removes the product from the hash table
     * @param name of product
     * @param table containing products
+    * @param out stream the result is printed to
     * @return the product removed or null if no such product exists
     */
    public static Product removeProduct (final String name,
-         final HashTable<String, Product> table) {
-      try {
-         final Product product = table.remove(name);
-         System.out.printf("Removed product \"%s\"\n", name);
-         return product;
-      } catch (final NoSuchElementException e) {
-         System.out.printf("Product %s not exist\n", name);
+         final Table<String, Product> table, final PrintStream out) {
+      final Product product = table.removeOrNull(name);
+      if (product == null) {
+         out.printf("Product %s not exist\n", name);
          return null;
       }
+      out.printf("Removed product \"%s\"\n", name);
+      return product;
    }
 
    /**
@@ -136,28 +210,24 @@ public final class Main {
     * @param productName
     * @param supplier name of supplier
     * @param table contains list of all products
+    * @param out stream the result is printed to
     * @return changed product or null if nothing was changed
     */
    public static Product addSupplier (final String productName, final String supplier,
-         final HashTable<String, Product> table) {
-      final Product product;
-      try {
-         product = table.get(productName);
-      } catch (final NoSuchElementException e) {
-         System.out.printf("Product \"%s\" does not exist\n", productName);
+         final Table<String, Product> table, final PrintStream out) {
+      final Product product = table.getOrNull(productName);
+      if (product == null) {
+         out.printf("Product \"%s\" does not exist\n", productName);
          return null;
       }
 
-      try {
-         product.getSupplier(supplier);
-         System.out.printf("Supplier \"%s\" already exists\n", supplier);
+      if (product.addSupplier(supplier) == null) {
+         out.printf("Supplier \"%s\" already exists\n", supplier);
          return null;
-      } catch (final NoSuchElementException e) {
-         product.addSupplier(supplier);
-         System.out.printf("Added supplier \"%s\" to Product \"%s\"\n", supplier,
-               productName);
-         return product;
       }
+      out.printf("Added supplier \"%s\" to Product \"%s\"\n", supplier,
+            productName);
+      return product;
    }
 
    /**
@@ -165,28 +235,26 @@ public final class Main {
     * @param productName
     * @param supplier name of supplier
     * @param table contains all products
+    * @param out stream the result is printed to
     * @return name of supplier removed or null if no change
     */
    public static String removeSupplier (final String productName, final String supplier,
-         final HashTable<String, Product> table) {
-      final Product product;
-      try {
-         product = table.get(productName);
-      } catch (final NoSuchElementException e) {
-         System.out.printf("Product \"%s\" does not exist\n", productName);
+         final Table<String, Product> table, final PrintStream out) {
+      final Product product = table.getOrNull(productName);
+      if (product == null) {
+         out.printf("Product \"%s\" does not exist\n", productName);
          return null;
       }
 
-      try {
-         final String removed = product.removeSupplier(supplier);
-         System.out.printf("Removed supplier \"%s\" from product \"%s\"\n", supplier,
-               productName);
-         return removed;
-      } catch (final NoSuchElementException e) {
-         System.out.printf("Supplier %s does not exist for product %s\n", supplier,
+      final String removed = product.removeSupplierOrNull(supplier);
+      if (removed == null) {
+         out.printf("Supplier %s does not exist for product %s\n", supplier,
                productName);
          return null;
       }
+      out.printf("Removed supplier \"%s\" from product \"%s\"\n", supplier,
+            productName);
+      return removed;
    }
 
    /**
@@ -194,15 +262,14 @@ public final class Main {
     * @param name of product
     * @param amount of product
     * @param table contains all products
+    * @param out stream the result is printed to
     * @return -1 if product not found or new amount of product
     */
    public static int setInventory (final String name, final int amount,
-         final HashTable<String, Product> table) {
-      final Product product;
-      try {
-         product = table.get(name);
-      } catch (final NoSuchElementException e) {
-         System.out.printf("Product \"%s\" does not exist\n", name);
+         final Table<String, Product> table, final PrintStream out) {
+      final Product product = table.getOrNull(name);
+      if (product == null) {
+         out.printf("Product \"%s\" does not exist\n", name);
          return -1;
       }
 
@@ -214,15 +281,14 @@ public final class Main {
     * @param name of product
     * @param amount of product
     * @param table contains all products
+    * @param out stream the result is printed to
     * @return changed inventory of product or -1 if product does not exist
     */
    public static int increaseInventory (final String name, final int amount,
-         final HashTable<String, Product> table) {
-      final Product product;
-      try {
-         product = table.get(name);
-      } catch (final NoSuchElementException e) {
-         System.out.printf("Product \"%s\" does not exist\n", name);
+         final Table<String, Product> table, final PrintStream out) {
+      final Product product = table.getOrNull(name);
+      if (product == null) {
+         out.printf("Product \"%s\" does not exist\n", name);
          return -1;
       }
 
@@ -234,22 +300,21 @@ public final class Main {
     * @param name of product
     * @param amount of product
     * @param table contains all product
+    * @param out stream the result is printed to
     * @return changed inventory or -1 if product not found or not enough inventory
     */
    public static int decreaseInventory (final String name, final int amount,
-      final HashTable<String, Product> table) {
-   final Product product;
-      try {
-         product = table.get(name);
-      } catch (final NoSuchElementException e) {
-      System.out.printf("Product \"%s\" does not exist\n", name);
-      return -1;
+         final Table<String, Product> table, final PrintStream out) {
+      final Product product = table.getOrNull(name);
+      if (product == null) {
+         out.printf("Product \"%s\" does not exist\n", name);
+         return -1;
       }
-      
+
       try {
          return product.decreaseInventory(amount);
       } catch (final Exception e) {
-         System.out.printf("Product \"%s\" does not have enough inventory\n", name);
+         out.printf("Product \"%s\" does not have enough inventory\n", name);
          return -1;
       }
    }
@@ -259,164 +324,469 @@ public final class Main {
     * @param name of product
     * @param price of product
     * @param table contains all products
+    * @param out stream the result is printed to
     * @return null if product does not exist, or price product has been set to
     */
    public static BigDecimal setPrice (final String name, final BigDecimal price,
-         final HashTable<String, Product> table) {
-      final Product product;
+         final Table<String, Product> table, final PrintStream out) {
+      final Product product = table.getOrNull(name);
+      if (product == null) {
+         out.printf("Product \"%s\" does not exist\n", name);
+         return null;
+      }
+
+      return product.setPrice(price);
+   }
+
+   /**
+    * Prints the names of the products a supplier supplies
+    * @param supplier name of supplier
+    * @param table contains all products
+    * @param out stream the result is printed to
+    * @return names of the products
+    */
+   public static List<String> productsBySupplier (final String supplier,
+         final Table<String, Product> table, final PrintStream out) {
+      final List<String> names = Catalog.suppliersOf(table).products(supplier);
+      if (names.isEmpty()) {
+         out.printf("Supplier \"%s\" does not supply any product\n", supplier);
+      }
+      for (final String name: names) {
+         out.println(name);
+      }
+      return names;
+   }
+
+   /**
+    * Removes a supplier from every product it supplies
+    * @param supplier name of supplier
+    * @param table contains all products
+    * @param out stream the result is printed to
+    * @return amount of products changed
+    */
+   public static int removeSupplierEverywhere (final String supplier,
+         final Table<String, Product> table, final PrintStream out) {
+      int count = 0;
+      for (final String name: Catalog.suppliersOf(table).products(supplier)) {
+         final Product product = table.getOrNull(name);
+         // null when removed while we were going through the list
+         if (product != null && product.removeSupplierOrNull(supplier) != null) {
+            count++;
+         }
+      }
+      if (count == 0) {
+         out.printf("Supplier \"%s\" does not supply any product\n", supplier);
+      } else {
+         out.printf("Removed supplier \"%s\" from %d products\n", supplier, count);
+      }
+      return count;
+   }
+
+   /**
+    * Renames a supplier on every product at once. Only suppliers of products in the table
+    * count as existing, so the outcome is the same before and after a restart.
+    * @param from current name of the supplier, ignoring case
+    * @param to new name of the supplier
+    * @param table contains all products
+    * @param out stream the result is printed to
+    * @return the new name or null if the supplier could not be renamed
+    */
+   public static String renameSupplier (final String from, final String to,
+         final Table<String, Product> table, final PrintStream out) {
+      final SupplierIndex suppliers = Catalog.suppliersOf(table);
+      if (!suppliers.supplies(from)) {
+         out.printf("Supplier \"%s\" does not exist\n", from);
+         return null;
+      }
       try {
-         product = table.get(name);
+         SupplierRegistry.rename(from, to, !suppliers.supplies(to));
       } catch (final NoSuchElementException e) {
-         System.out.printf("Product \"%s\" does not have enough inventory\n", name);
+         out.printf("Supplier \"%s\" does not exist\n", from);
+         return null;
+      } catch (final IllegalArgumentException e) {
+         out.printf("Supplier \"%s\" already exists\n", to);
          return null;
       }
+      out.printf("Renamed supplier \"%s\" to \"%s\"\n", from, to);
+      return to;
+   }
 
-      return product.setPrice(price);
+   /**
+    * Displays every product whose name matches ignoring case
+    * @param name name of product in any case
+    * @param table contains all products
+    * @param out stream the result is printed to
+    * @return names of the products found
+    */
+   public static List<String> findProduct (final String name, final Table<String, Product> table,
+         final PrintStream out) {
+      final List<String> names = Catalog.namesOf(table).find(name);
+      if (names.isEmpty()) {
+         out.printf("Product %s does not exist\n", name);
+      }
+      for (final String i: names) {
+         displayProduct(i, table, out);
+      }
+      return names;
+   }
+
+   /**
+    * Prints one page of the names starting with a prefix, ignoring case
+    * @param prefix start of the names
+    * @param page page to print counting from 1
+    * @param table contains all products
+    * @param out stream the result is printed to
+    * @return names on the page
+    */
+   public static List<String> searchPrefix (final String prefix, final int page,
+         final Table<String, Product> table, final PrintStream out) {
+      final NameIndex index = Catalog.namesOf(table);
+      final int count = index.count(prefix);
+      if (count == 0) {
+         out.printf("No products starting with \"%s\"\n", prefix);
+         return new ArrayList<String>();
+      }
+
+      final int pages = (count + PAGE_SIZE - 1) / PAGE_SIZE;
+      if (page < 1 || page > pages) {
+         out.printf("No page %d, there are %d pages\n", page, pages);
+         return new ArrayList<String>();
+      }
+      final List<String> names = index.search(prefix, (page - 1) * PAGE_SIZE, PAGE_SIZE);
+      for (final String name: names) {
+         out.println(name);
+      }
+      out.printf("Page %d of %d, %d products\n", page, pages, count);
+      return names;
+   }
+
+   /**
+    * Prints the products priced within a range, cheapest first
+    * @param minimum lowest price
+    * @param maximum highest price
+    * @param table contains all products
+    * @param out stream the result is printed to
+    * @return names of the products
+    */
+   public static List<String> priceRange (final BigDecimal minimum, final BigDecimal maximum,
+         final Table<String, Product> table, final PrintStream out) {
+      final List<String> names = Catalog.pricesOf(table).between(minimum, maximum);
+      if (names.isEmpty()) {
+         out.printf("No products priced from $%s to $%s\n", minimum, maximum);
+      }
+      for (final String name: names) {
+         final Product product = table.getOrNull(name);
+         // null when removed while we were going through the list
+         if (product != null) {
+            out.printf("%s $%s\n", name, product.price());
+         }
+      }
+      return names;
+   }
+
+   /**
+    * Prints the products with less inventory than a threshold, lowest first
+    * @param threshold inventory every product printed is below
+    * @param table contains all products
+    * @param out stream the result is printed to
+    * @return names of the products
+    */
+   public static List<String> lowStock (final int threshold, final Table<String, Product> table,
+         final PrintStream out) {
+      final List<String> names = Catalog.inventoryOf(table).below(threshold);
+      if (names.isEmpty()) {
+         out.printf("No products with less than %d in inventory\n", threshold);
+      }
+      for (final String name: names) {
+         final Product product = table.getOrNull(name);
+         // null when removed while we were going through the list
+         if (product != null) {
+            out.printf("%s %d\n", name, product.amount());
+         }
+      }
+      return names;
+   }
+
+   /**
+    * Reads products from a CSV file into the table, replacing products with the same name
+    * @param fileName CSV file
+    * @param table contains all products
+    * @param out stream the result is printed to
+    * @return amount of products imported or -1 if the file could not be read
+    */
+   public static int importProducts (final String fileName, final Table<String, Product> table,
+         final PrintStream out) {
+      final long start = System.nanoTime();
+      final CsvCodec.Summary summary;
+      try {
+         summary = CsvCodec.read(Paths.get(fileName), table,
+               Runtime.getRuntime().availableProcessors());
+      } catch (final IOException e) {
+         out.printf("Could not import %s: %s\n", fileName,
+               e instanceof NoSuchFileException ? "file not found" : e.getMessage());
+         return -1;
+      }
+
+      out.printf("Imported %d products in %.3f s\n", summary.imported,
+            (System.nanoTime() - start) / 1e9);
+      if (summary.skipped > 0) {
+         out.printf("Skipped %d malformed rows, the first on line %d\n", summary.skipped,
+               summary.firstSkippedLine);
+      }
+      return summary.imported;
+   }
+
+   /**
+    * Writes every product of the table to a CSV file
+    * @param fileName CSV file
+    * @param table contains all products
+    * @param out stream the result is printed to
+    * @return amount of products exported or -1 if the file could not be written
+    */
+   public static int exportProducts (final String fileName, final Table<String, Product> table,
+         final PrintStream out) {
+      try {
+         final int count = CsvCodec.write(table, Paths.get(fileName));
+         out.printf("Exported %d products to %s\n", count, fileName);
+         return count;
+      } catch (final IOException e) {
+         out.printf("Could not export %s: %s\n", fileName, e.getMessage());
+         return -1;
+      }
+   }
+
+   /**
+    * Prints the inventory value, products per supplier and products out of stock
+    * @param table contains all products
+    * @param out stream the result is printed to
+    * @return the report
+    */
+   public static Report report (final Table<String, Product> table, final PrintStream out) {
+      final long start = System.nanoTime();
+      final Report report = Report.of(table);
+      final double seconds = (System.nanoTime() - start) / 1e9;
+      out.printf("Products: %d\n", report.products());
+      out.printf("Units in stock: %d\n", report.units());
+      out.printf("Inventory value: $%s\n", report.value().toPlainString());
+      if (report.unpriced() > 0) {
+         out.printf("Products without a price: %d\n", report.unpriced());
+      }
+      final Map<String, Long> suppliers = report.suppliers();
+      out.printf("Suppliers: %d\n", suppliers.size());
+      for (final Map.Entry<String, Long> supplier: suppliers.entrySet()) {
+         out.printf("   %s %d\n", supplier.getKey(), supplier.getValue());
+      }
+      out.printf("Out of stock: %d\n", report.outOfStock().size());
+      for (final String name: report.outOfStock()) {
+         out.printf("   %s\n", name);
+      }
+      out.printf("Reported in %.3f s\n", seconds);
+      return report;
+   }
+
+   /**
+    * Prints the shape of the hash table the products are stored in, looking through the
+    * catalog and its cache
+    * @param table contains all products
+    * @param out stream the result is printed to
+    * @return the shape of the table or null if it is not a hash table
+    */
+   public static TableStats tableStats (final Table<String, Product> table,
+         final PrintStream out) {
+      Table<String, Product> storage = table;
+      if (storage instanceof Catalog) {
+         storage = ((Catalog) storage).table();
+      }
+      if (storage instanceof CachedTable) {
+         storage = ((CachedTable) storage).table();
+      }
+
+      final long start = System.nanoTime();
+      final TableStats stats;
+      if (storage instanceof HashTable) {
+         stats = ((HashTable<String, Product>) storage).stats(TableStats::stringBytes,
+               TableStats::productBytes);
+      } else if (storage instanceof ConcurrentHashTable) {
+         stats = ((ConcurrentHashTable<String, Product>) storage).stats(
+               TableStats::stringBytes, TableStats::productBytes);
+      } else {
+         out.printf("%s: %d products, not a hash table\n", storage.getClass().getSimpleName(),
+               storage.size());
+         return null;
+      }
+      stats.print(out);
+      out.printf("Walked in %.3f s\n", (System.nanoTime() - start) / 1e9);
+      return stats;
+   }
+
+   /**
+    * Runs a single command line against the table
+    * @param line command and its arguments separated by whitespace
+    * @param hash contains all products
+    * @param out stream the result is printed to
+    * @return whether the table may have changed or the loop should stop
+    */
+   public static Status execute (final String line, final Table<String, Product> hash,
+         final PrintStream out) {
+      return execute(Commands.tokenize(line), hash, out);
+   }
+
+   /**
+    * Runs a single command against the table
+    * @param cmds the command followed by its arguments
+    * @param hash contains all products
+    * @param out stream the result is printed to
+    * @return whether the table may have changed or the loop should stop
+    */
+   public static Status execute (final String[] cmds, final Table<String, Product> hash,
+         final PrintStream out) {
+      return Commands.execute(cmds, hash, out);
    }
 
    public static void main (final String[] args) throws Exception {
+      int port = -1;
+      String script = null;
+      boolean columnar = false;
+      long offHeap = -1;
+      int cache = -1;
+      for (int i = 0; i < args.length; i++) {
+         if (args[i].equals("--server") && i + 1 < args.length) {
+            port = Integer.parseInt(args[++i]);
+         } else if (args[i].equals("--script") && i + 1 < args.length) {
+            script = args[++i];
+         } else if (args[i].equals("--columnar")) {
+            columnar = true;
+         } else if (args[i].equals("--offheap") && i + 1 < args.length) {
+            offHeap = Long.parseLong(args[++i]) << 20;
+         } else if (args[i].equals("--cache") && i + 1 < args.length) {
+            cache = Integer.parseInt(args[++i]);
+         } else {
+            System.out.printf("Unknown option %s\n", args[i]);
+            return;
+         }
+      }
+      final boolean shared = port >= 0;
+
       final File file = new File(SERIALIZED_FILE);
-      final HashTable<String, Product> hash;
-      if (file.exists()) {
-         hash = loadHashTable();
+      Table<String, Product> storage;
+      final long sequence;
+      final MappedProductStore store = file.exists() && LAZY_LOAD && !shared && !columnar
+            && offHeap < 0
+            ? MappedProductStore.open(file.toPath())
+            : null;
+      if (store != null) {
+         storage = new MappedTable(store);
+         sequence = store.sequence();
+         // the mapped table decodes every lookup, so hot products are always cached
+         cache = cache > 0 ? cache : CACHE_SIZE;
+      } else if (file.exists()) {
+         final SnapshotCodec.Snapshot snapshot = loadSnapshot(SERIALIZED_FILE);
+         if (snapshot == null) {
+            // starting empty would save over the products the file still holds
+            System.out.printf("Could not read %s, move it away to start with an empty catalog\n",
+                  SERIALIZED_FILE);
+            return;
+         }
+         if (offHeap >= 0) {
+            storage = OffHeapTable.copyOf(snapshot.table, offHeap);
+         } else if (columnar) {
+            storage = ColumnarTable.copyOf(snapshot.table);
+         } else {
+            storage = shared ? concurrentCopy(snapshot.table) : snapshot.table;
+         }
+         sequence = snapshot.sequence;
+         if (snapshot.legacy) {
+            // one time migration, the old file is kept next to the new one
+            Files.copy(file.toPath(), Paths.get(LEGACY_FILE),
+                  StandardCopyOption.REPLACE_EXISTING);
+            saveHashTable(storage, SERIALIZED_FILE, sequence);
+         }
       } else {
-         hash = new HashTable<String, Product>();
-         saveHashTable(hash);
-      }
-
-      final Scanner inStream = new Scanner(System.in);
-      while (true) {
-         final String[] cmds = inStream.nextLine().split("\\s+");
-         if (cmds.length == 0) {
-         } else if (cmds[0].toUpperCase().equals("HELP")) {
-         } else if (cmds[0].toUpperCase().equals("EXIT")) {
-            break;
-         } else if (cmds[0].toUpperCase().equals("DISPLAYPRODUCT")) {
-            if (cmds.length >= 2) {
-               displayProduct(cmds[1], hash);
-            } else {
-               System.out.println("Missing product name");
-            }
-         } else if (cmds[0].toUpperCase().equals("DISPLAYALLPRODUCTS")) {
-            displayAllProducts(hash);
-         } else if (cmds[0].toUpperCase().equals("ADDPRODUCT")) {
-            if (cmds.length >= 2) {
-               addProduct(cmds[1], hash);
-               saveHashTable(hash);
-            } else {
-               System.out.println("Missing product name");
-            }
-         } else if (cmds[0].toUpperCase().equals("REMOVEPRODUCT")) {
-            if (cmds.length >= 2) {
-               removeProduct(cmds[1], hash);
-               saveHashTable(hash);
-            } else {
-               System.out.println("Missing product name");
-            }
-         } else if (cmds[0].toUpperCase().equals("ADDSUPPLIER")) {
-            if (cmds.length >= 3) {
-               addSupplier(cmds[1], cmds[2], hash);
-               saveHashTable(hash);
-            } else {
-               if (cmds.length < 2) {
-                  System.out.println("Missing product name");
-               }
-
-               if (cmds.length < 3) {
-                  System.out.println("Missing supplier name");
-               }
-            }
-         } else if (cmds[0].toUpperCase().equals("REMOVESUPPLIER")) {
-            if (cmds.length >= 3) {
-               removeSupplier(cmds[1], cmds[2], hash);
-               saveHashTable(hash);
-            } else {
-               if (cmds.length < 2) {
-                  System.out.println("Missing product name");
-               }
-
-               if (cmds.length < 3) {
-                  System.out.println("Missing supplier name");
-               }
-            }
-         } else if (cmds[0].toUpperCase().equals("SETINVENTORY")) {
-            if (cmds.length >= 3) {
-               final int amount;
-               try {
-                  amount = Integer.parseInt(cmds[2]);
-                  setInventory(cmds[1], amount, hash);
-                  saveHashTable(hash);
-               } catch (final NumberFormatException e) {
-                  System.out.println("Invalid amount");
-               }
-            } else {
-               if (cmds.length < 2) {
-                  System.out.println("Missing product name");
-               }
-
-               if (cmds.length < 3) {
-                  System.out.println("Missing inventory amount");
-               }
-            }
-         } else if (cmds[0].toUpperCase().equals("INCREASEINVENTORY")) {
-            if (cmds.length >= 3) {
-               final int amount;
-               try {
-                  amount = Integer.parseInt(cmds[2]);
-                  setInventory(cmds[1], amount, hash);
-                  saveHashTable(hash);
-               } catch (final NumberFormatException e) {
-                  System.out.println("Invalid amount");
-               }
-            } else {
-               if (cmds.length < 2) {
-                  System.out.println("Missing product name");
-               }
-
-               if (cmds.length < 3) {
-                  System.out.println("Missing increase amount");
-               }
-            }
-         } else if (cmds[0].toUpperCase().equals("DECREASEINVENTORY")) {
-            if (cmds.length >= 3) {
-               final int amount;
-               try {
-                  amount = Integer.parseInt(cmds[2]);
-                  decreaseInventory(cmds[1], amount, hash);
-                  saveHashTable(hash);
-               } catch (final NumberFormatException e) {
-                  System.out.println("Invalid amount");
-               }
-            } else {
-               if (cmds.length < 2) {
-                  System.out.println("Missing product name");
-               }
-
-               if (cmds.length < 3) {
-                  System.out.println("Missing decrease amount");
-               }
-            }
-         } else if (cmds[0].toUpperCase().equals("SETPRICE")) {
-            if (cmds.length >= 3) {
-               final BigDecimal price;
-               try {
-                  price = new BigDecimal(cmds[2]);
-                  setPrice(cmds[1], price, hash);
-                  saveHashTable(hash);
-               } catch (final NumberFormatException e) {
-                  System.out.println("Invalid price");
-               }
-            } else {
-               if (cmds.length < 2) {
-                  System.out.println("Missing product name");
-               }
-
-               if (cmds.length < 3) {
-                  System.out.println("Missing price");
-               }
+         if (offHeap >= 0) {
+            storage = new OffHeapTable(offHeap);
+         } else if (columnar) {
+            storage = new ColumnarTable();
+         } else {
+            storage = shared
+                  ? new ConcurrentHashTable<String, Product>()
+                  : new HashTable<String, Product>();
+         }
+         sequence = 0;
+         // deltas of a data.sav that is gone would be layered over the new one
+         SnapshotStore.deleteDeltas(SERIALIZED_FILE, -1);
+         saveHashTable(storage, SERIALIZED_FILE, sequence);
+      }
+      final SnapshotStore snapshots =
+            new SnapshotStore(SERIALIZED_FILE, sequence, SNAPSHOT_MERGE);
+      // the deltas saved after data.sav, the journal is replayed after the last one
+      final long saved = snapshots.layer(storage);
+
+      if (cache > 0) {
+         storage = new CachedTable(storage, cache);
+      }
+      final Catalog hash = new Catalog(storage);
+      hash.trackChanges();
+      final Journal journal = new Journal(JOURNAL_FILE, JOURNAL_SYNC_EVERY, JOURNAL_SYNC_MILLIS);
+      journal.replay(saved, cmds -> execute(cmds, hash, NULL_OUT));
+
+      final Persister persister = new Persister(hash, journal, snapshots,
+            TimeUnit.SECONDS.toMillis(SNAPSHOT_SECONDS), SNAPSHOT_DIRTY);
+      // also saves when the process is stopped with Ctrl-C or SIGTERM
+      final Thread shutdown = new Thread(() -> {
+         persister.close();
+         snapshots.close();
+         try {
+            journal.close();
+         } catch (final IOException e) {
+            e.printStackTrace();
+         }
+         Stats.dump(hash, STATS_FILE);
+      }, "shutdown");
+      Runtime.getRuntime().addShutdownHook(shutdown);
+
+      final ScheduledExecutorService stats = Executors.newSingleThreadScheduledExecutor(
+            runnable -> {
+               final Thread thread = new Thread(runnable, "stats");
+               thread.setDaemon(true);
+               return thread;
+            });
+      Stats.sample();
+      stats.scheduleAtFixedRate(Stats::sample, 1, 1, TimeUnit.SECONDS);
+      stats.scheduleWithFixedDelay(() -> Stats.dump(hash, STATS_FILE), STATS_SECONDS,
+            STATS_SECONDS, TimeUnit.SECONDS);
+
+      final Server server = shared ? new Server(port, hash, journal, persister) : null;
+      if (server != null) {
+         server.start();
+         System.out.printf("Listening on port %d\n", server.port());
+      }
+
+      final Session console = new Session(hash, journal, persister, !shared);
+      boolean exited = false;
+      if (script != null) {
+         // the script is one batch, afterwards only a server keeps running
+         console.script(Paths.get(script), System.out);
+      } else {
+         final Scanner inStream = new Scanner(System.in);
+         while (inStream.hasNextLine()) {
+            if (console.execute(Commands.tokenize(inStream.nextLine()), System.out)
+                  == Status.EXIT) {
+               exited = true;
+               break;
             }
          }
+         inStream.close();
+      }
+      if (server != null) {
+         if (!exited) {
+            // no console attached, serve until the process is stopped
+            server.join();
+         }
+         server.close();
       }
-      inStream.close();
+      stats.shutdown();
+      // the hook saves, closes and dumps the stats once, rather than again on exit
+      Runtime.getRuntime().removeShutdownHook(shutdown);
+      shutdown.run();
    }
 }
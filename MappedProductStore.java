@@ -0,0 +1,178 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Consumer;
+
+/**
+ * Read-only view of a snapshot file mapped into memory. Only the header and the supplier
+ * dictionary are read when the file is opened, products are decoded from the mapping when
+ * they are looked up through the hash index stored at the end of the file.
+ * @author Noah Rouse <my_email@noahrouse36@gmail.com>
+ */
+public final class MappedProductStore implements Closeable {
+   private final FileChannel channel;
+   private final MappedByteBuffer map;
+   private final long sequence;
+   private final int[] supplierIds;
+   private final int count;
+   private final int firstProduct;
+   private final int indexOffset;
+   private final int indexMask;
+
+   private MappedProductStore (final FileChannel channel, final MappedByteBuffer map,
+         final int indexOffset, final int indexCapacity) {
+      this.channel = channel;
+      this.map = map;
+      this.indexOffset = indexOffset;
+      this.indexMask = indexCapacity - 1;
+
+      final ByteBuffer in = map.duplicate();
+      in.position(4);
+      SnapshotCodec.readVarLong(in);
+      this.sequence = SnapshotCodec.readVarLong(in);
+      // registered now, so suppliers renamed later are renamed in products read later too
+      this.supplierIds = new int[(int) SnapshotCodec.readVarLong(in)];
+      for (int i = 0; i < supplierIds.length; i++) {
+         supplierIds[i] = SupplierRegistry.id(SnapshotCodec.readString(in));
+      }
+      this.count = (int) SnapshotCodec.readVarLong(in);
+      this.firstProduct = in.position();
+   }
+
+   /**
+    * Maps a snapshot file that has a name index
+    * @param path snapshot file
+    * @return the store or null when the file has no index or is too large to map at once
+    * @throws IOException when the file can not be opened
+    */
+   public static MappedProductStore open (final Path path) throws IOException {
+      final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+      final long size = channel.size();
+      if (size < 4 + SnapshotCodec.FOOTER_SIZE || size > Integer.MAX_VALUE) {
+         channel.close();
+         return null;
+      }
+
+      final MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+      final int footer = (int) size - SnapshotCodec.FOOTER_SIZE;
+      if (map.getInt(0) != SnapshotCodec.MAGIC || map.getInt(footer + 12) != SnapshotCodec.MAGIC
+            || map.get(4) < 2) {
+         channel.close();
+         return null;
+      }
+
+      return new MappedProductStore(channel, map, (int) map.getLong(footer),
+            map.getInt(footer + 8));
+   }
+
+   /**
+    *
+    * @return sequence number of the last journal record contained in the file
+    */
+   public long sequence () {
+      return sequence;
+   }
+
+   /**
+    *
+    * @return amount of products in the file
+    */
+   public int size () {
+      return count;
+   }
+
+   /**
+    * Decodes the product with the given name
+    * @param name name of the product
+    * @return a new Product or null when the file does not contain it
+    */
+   public Product read (final String name) {
+      final int offset = find(name);
+      if (offset == -1) {
+         return null;
+      }
+      final ByteBuffer in = map.duplicate();
+      in.position(offset);
+      return SnapshotCodec.readProduct(in, supplierIds);
+   }
+
+   /**
+    *
+    * @param name name of the product
+    * @return true if the file contains the product
+    */
+   public boolean contains (final String name) {
+      return find(name) != -1;
+   }
+
+   /**
+    * Decodes every product in the order they were written
+    * @param consumer receives each product
+    */
+   public void forEach (final Consumer<Product> consumer) {
+      final ByteBuffer in = map.duplicate();
+      in.position(firstProduct);
+      for (int i = 0; i < count; i++) {
+         consumer.accept(SnapshotCodec.readProduct(in, supplierIds));
+      }
+   }
+
+   /**
+    * Probes the index, comparing names as UTF-8 bytes in place
+    * @param name name of the product
+    * @return offset of the product record or -1
+    */
+   private int find (final String name) {
+      final int hash = SnapshotCodec.hash(name);
+      final long tag = hash >>> 8;
+      final byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+      int i = hash & indexMask;
+      while (true) {
+         final long slot = map.getLong(indexOffset + i * 8);
+         if (slot == 0) {
+            return -1;
+         }
+         final int offset = (int) (slot & 0xFFFFFFFFFFL);
+         if ((slot >>> 40) == tag && nameEquals(offset, bytes)) {
+            return offset;
+         }
+         i = (i + 1) & indexMask;
+      }
+   }
+
+   private boolean nameEquals (final int offset, final byte[] bytes) {
+      int position = offset;
+      long length = 0;
+      int shift = 0;
+      byte b;
+      do {
+         b = map.get(position++);
+         length |= (long) (b & 0x7F) << shift;
+         shift += 7;
+      } while (b < 0);
+
+      if (length != bytes.length) {
+         return false;
+      }
+      for (int j = 0; j < bytes.length; j++) {
+         if (map.get(position + j) != bytes[j]) {
+            return false;
+         }
+      }
+      return true;
+   }
+
+   /**
+    * Closes the file, the mapping stays valid until it is garbage collected
+    * @throws IOException when closing fails
+    */
+   @Override
+   public void close () throws IOException {
+      channel.close();
+   }
+}
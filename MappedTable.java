@@ -0,0 +1,172 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.NoSuchElementException;
+
+/**
+ * Product table backed by a MappedProductStore. Products are decoded from the mapped file every
+ * time they are looked up and only kept in memory once they change, next to any products added
+ * since, so the table holds no more than what changed since the snapshot. The table listens to
+ * the products it decodes to find out when they change, a CachedTable in front of it keeps the
+ * products that are looked up often. Removed products are remembered so the file is not
+ * consulted for them again.
+ * @author Noah Rouse <my_email@noahrouse36@gmail.com>
+ */
+public final class MappedTable implements Table<String, Product>, Product.Listener {
+   private final MappedProductStore store;
+   private final HashMap<String, Product> loaded = new HashMap<String, Product>();
+   private final HashSet<String> removed = new HashSet<String>();
+   private int size;
+
+   /**
+    *
+    * @param store mapped snapshot holding the products
+    */
+   public MappedTable (final MappedProductStore store) {
+      this.store = store;
+      this.size = store.size();
+   }
+
+   @Override
+   public int size () {
+      return size;
+   }
+
+   @Override
+   public boolean isEmpty () {
+      return size == 0;
+   }
+
+   /**
+    *
+    * @return amount of products held in memory, the ones added or changed since the snapshot
+    */
+   public int loaded () {
+      return loaded.size();
+   }
+
+   @Override
+   public Product get (final String key) throws NoSuchElementException {
+      final Product product = getOrNull(key);
+      if (product == null) {
+         throw new NoSuchElementException("Key not added");
+      }
+      return product;
+   }
+
+   @Override
+   public Product getOrNull (final String key) {
+      final Product current = loaded.get(key);
+      if (current != null) {
+         return current;
+      }
+
+      final Product product = removed.contains(key) ? null : store.read(key);
+      if (product != null) {
+         product.setListener(this);
+      }
+      return product;
+   }
+
+   /**
+    * Answered from the index of the file without decoding the product
+    */
+   @Override
+   public boolean containsKey (final String key) {
+      return contains(key);
+   }
+
+   @Override
+   public void put (final String key, final Product value) {
+      if (!contains(key)) {
+         size++;
+      }
+      loaded.put(key, value);
+      removed.remove(key);
+   }
+
+   @Override
+   public Product remove (final String key) throws NoSuchElementException {
+      final Product product = get(key);
+      loaded.remove(key);
+      if (store.contains(key)) {
+         removed.add(key);
+      }
+      size--;
+      return product;
+   }
+
+   @Override
+   public ArrayList<String> keySet () {
+      final ArrayList<String> keySet = new ArrayList<String>(size);
+      keySet.addAll(loaded.keySet());
+      store.forEach(product -> {
+         if (isStored(product.name())) {
+            keySet.add(product.name());
+         }
+      });
+      return keySet;
+   }
+
+   /**
+    * Products that did not change are decoded for the list but not kept in memory
+    */
+   @Override
+   public ArrayList<Product> values () {
+      final ArrayList<Product> values = new ArrayList<Product>(size);
+      values.addAll(loaded.values());
+      store.forEach(product -> {
+         if (isStored(product.name())) {
+            product.setListener(this);
+            values.add(product);
+         }
+      });
+      return values;
+   }
+
+   @Override
+   public void supplierAdded (final Product product, final String supplier) {
+      changed(product);
+   }
+
+   @Override
+   public void supplierRemoved (final Product product, final String supplier) {
+      changed(product);
+   }
+
+   @Override
+   public void inventoryChanged (final Product product) {
+      changed(product);
+   }
+
+   @Override
+   public void priceChanged (final Product product) {
+      changed(product);
+   }
+
+   /**
+    * Keeps a product decoded from the file once it has changed. Changes to a copy that was
+    * replaced or removed since it was decoded are ignored.
+    */
+   private void changed (final Product product) {
+      if (isStored(product.name()) && store.contains(product.name())) {
+         loaded.put(product.name(), product);
+      }
+   }
+
+   /**
+    * @param key name of product
+    * @return true if the product exists in memory or in the file
+    */
+   private boolean contains (final String key) {
+      return loaded.containsKey(key) || (!removed.contains(key) && store.contains(key));
+   }
+
+   /**
+    * @param key name of a product in the file
+    * @return true if the copy in the file is the current one
+    */
+   private boolean isStored (final String key) {
+      return !removed.contains(key) && !loaded.containsKey(key);
+   }
+}
@@ -0,0 +1,297 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Index of the product names for prefix searches and lookups that ignore case. Names are
+ * kept in a compressed trie over their lower case form: every edge holds a run of characters
+ * and every node the names ending there, so names only differing in case share a node. Each
+ * node also counts the names below it, which lets a page of results be found without
+ * walking the names before it.
+ * @author Noah Rouse <my_email@noahrouse36@gmail.com>
+ */
+public final class NameIndex {
+   private static final Node[] NO_CHILDREN = new Node[0];
+   private static final String[] NO_NAMES = new String[0];
+
+   /**
+    * A node of the trie, children are sorted by the first character of their label
+    */
+   private static final class Node {
+      private String label;
+      private Node[] children = NO_CHILDREN;
+      private String[] names = NO_NAMES;
+      private int count = 0;
+
+      private Node (final String label) {
+         this.label = label;
+      }
+
+      /**
+       * @return index of the child whose label starts with c, or -(insertion point) - 1
+       */
+      private int child (final char c) {
+         int low = 0;
+         int high = children.length - 1;
+         while (low <= high) {
+            final int mid = (low + high) >>> 1;
+            final char first = children[mid].label.charAt(0);
+            if (first < c) {
+               low = mid + 1;
+            } else if (first > c) {
+               high = mid - 1;
+            } else {
+               return mid;
+            }
+         }
+         return -(low + 1);
+      }
+   }
+
+   private final Node root = new Node("");
+
+   /**
+    * Adds a name, nothing happens when it is already indexed
+    * @param name the name
+    */
+   public synchronized void add (final String name) {
+      add(root, key(name), 0, name);
+   }
+
+   /**
+    * Removes a name, nothing happens when it is not indexed
+    * @param name the name
+    */
+   public synchronized void remove (final String name) {
+      remove(root, key(name), 0, name);
+   }
+
+   /**
+    *
+    * @return amount of names indexed
+    */
+   public synchronized int size () {
+      return root.count;
+   }
+
+   /**
+    * @param name name ignoring case
+    * @return every indexed name equal to it ignoring case, sorted
+    */
+   public synchronized List<String> find (final String name) {
+      final String key = key(name);
+      Node node = root;
+      int i = 0;
+      while (i < key.length()) {
+         final int c = node.child(key.charAt(i));
+         if (c < 0) {
+            return new ArrayList<String>();
+         }
+         node = node.children[c];
+         if (!key.startsWith(node.label, i)) {
+            return new ArrayList<String>();
+         }
+         i += node.label.length();
+      }
+      return new ArrayList<String>(Arrays.asList(node.names));
+   }
+
+   /**
+    * @param prefix start of the names ignoring case
+    * @return amount of names starting with the prefix
+    */
+   public synchronized int count (final String prefix) {
+      final Node node = subtree(key(prefix));
+      return node == null ? 0 : node.count;
+   }
+
+   /**
+    * @param prefix start of the names ignoring case
+    * @param offset amount of matching names to skip
+    * @param limit most names returned
+    * @return names starting with the prefix in order ignoring case
+    */
+   public synchronized List<String> search (final String prefix, final int offset,
+         final int limit) {
+      final ArrayList<String> names = new ArrayList<String>(Math.max(0, Math.min(limit, 1024)));
+      final Node node = subtree(key(prefix));
+      if (node != null && limit > 0) {
+         collect(node, Math.max(offset, 0), limit, names);
+      }
+      return names;
+   }
+
+   /**
+    * @return the topmost node whose names all start with the key, or null if none does
+    */
+   private Node subtree (final String key) {
+      Node node = root;
+      int i = 0;
+      while (i < key.length()) {
+         final int c = node.child(key.charAt(i));
+         if (c < 0) {
+            return null;
+         }
+         node = node.children[c];
+         final int remaining = key.length() - i;
+         if (remaining <= node.label.length()) {
+            return node.label.startsWith(key.substring(i)) ? node : null;
+         }
+         if (!key.startsWith(node.label, i)) {
+            return null;
+         }
+         i += node.label.length();
+      }
+      return node;
+   }
+
+   /**
+    * Adds the names of a subtree in order, skipping whole subtrees before the offset
+    * @return how much of the offset is left to skip
+    */
+   private static int collect (final Node node, int skip, final int limit,
+         final List<String> names) {
+      for (final String name: node.names) {
+         if (names.size() == limit) {
+            return skip;
+         }
+         if (skip > 0) {
+            skip--;
+         } else {
+            names.add(name);
+         }
+      }
+      for (final Node child: node.children) {
+         if (names.size() == limit) {
+            break;
+         }
+         if (skip >= child.count) {
+            skip -= child.count;
+         } else {
+            skip = collect(child, skip, limit, names);
+         }
+      }
+      return skip;
+   }
+
+   /**
+    * @return true if the name was added to the node or below it
+    */
+   private static boolean add (final Node node, final String key, final int i,
+         final String name) {
+      final boolean added;
+      if (i == key.length()) {
+         final int at = Arrays.binarySearch(node.names, name);
+         if (at >= 0) {
+            return false;
+         }
+         final int insert = -at - 1;
+         final String[] names = new String[node.names.length + 1];
+         System.arraycopy(node.names, 0, names, 0, insert);
+         names[insert] = name;
+         System.arraycopy(node.names, insert, names, insert + 1, node.names.length - insert);
+         node.names = names;
+         added = true;
+      } else {
+         final int c = node.child(key.charAt(i));
+         if (c < 0) {
+            final Node leaf = new Node(key.substring(i));
+            leaf.names = new String[] {name};
+            leaf.count = 1;
+            insertChild(node, -c - 1, leaf);
+            added = true;
+         } else {
+            Node child = node.children[c];
+            final int common = commonPrefix(child.label, key, i);
+            if (common < child.label.length()) {
+               // split the edge where the key leaves it
+               final Node middle = new Node(child.label.substring(0, common));
+               child.label = child.label.substring(common);
+               middle.children = new Node[] {child};
+               middle.count = child.count;
+               node.children[c] = middle;
+               child = middle;
+            }
+            added = add(child, key, i + common, name);
+         }
+      }
+      if (added) {
+         node.count++;
+      }
+      return added;
+   }
+
+   /**
+    * @return true if the name was removed from the node or below it
+    */
+   private static boolean remove (final Node node, final String key, final int i,
+         final String name) {
+      final boolean removed;
+      if (i == key.length()) {
+         final int at = Arrays.binarySearch(node.names, name);
+         if (at < 0) {
+            return false;
+         }
+         final String[] names = new String[node.names.length - 1];
+         System.arraycopy(node.names, 0, names, 0, at);
+         System.arraycopy(node.names, at + 1, names, at, names.length - at);
+         node.names = names;
+         removed = true;
+      } else {
+         final int c = node.child(key.charAt(i));
+         if (c < 0) {
+            return false;
+         }
+         final Node child = node.children[c];
+         if (!key.startsWith(child.label, i)) {
+            return false;
+         }
+         removed = remove(child, key, i + child.label.length(), name);
+         if (removed && child.names.length == 0) {
+            if (child.children.length == 0) {
+               removeChild(node, c);
+            } else if (child.children.length == 1) {
+               // merge the edge with its only child
+               final Node only = child.children[0];
+               only.label = child.label + only.label;
+               node.children[c] = only;
+            }
+         }
+      }
+      if (removed) {
+         node.count--;
+      }
+      return removed;
+   }
+
+   private static void insertChild (final Node node, final int at, final Node child) {
+      final Node[] children = new Node[node.children.length + 1];
+      System.arraycopy(node.children, 0, children, 0, at);
+      children[at] = child;
+      System.arraycopy(node.children, at, children, at + 1, node.children.length - at);
+      node.children = children;
+   }
+
+   private static void removeChild (final Node node, final int at) {
+      final Node[] children = node.children.length == 1
+            ? NO_CHILDREN
+            : new Node[node.children.length - 1];
+      System.arraycopy(node.children, 0, children, 0, at);
+      System.arraycopy(node.children, at + 1, children, at, children.length - at);
+      node.children = children;
+   }
+
+   private static int commonPrefix (final String label, final String key, final int i) {
+      final int max = Math.min(label.length(), key.length() - i);
+      int common = 0;
+      while (common < max && label.charAt(common) == key.charAt(i + common)) {
+         common++;
+      }
+      return common;
+   }
+
+   private static String key (final String name) {
+      return name.toLowerCase(Locale.ROOT);
+   }
+}
@@ -0,0 +1,600 @@
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Spliterator;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.LongFunction;
+import java.util.stream.IntStream;
+
+/**
+ * Product table kept outside of the Java heap, so a large catalog adds nothing for the
+ * garbage collector to trace. Products are records in direct ByteBuffer slabs and are found
+ * through an open addressing index that is a direct buffer as well.
+ *
+ * A record holds the inventory, the price encoded as in ColumnarTable, the UTF-8 name and
+ * the SupplierRegistry ids of the suppliers. Records are carved from the slabs in
+ * power of two size classes and a freed record goes onto the free list of its class, linked
+ * through the record itself. Every index slot holds the address of a record and 16 bits of
+ * the hash of its name, so most slots probed past are told apart without reading the record.
+ *
+ * Slabs and the index are only allocated up to the budget given when the table is created,
+ * going over it fails the change with an IllegalStateException and leaves the table as it
+ * was. Like ColumnarTable, products are rebuilt from their record when they are handed out
+ * and the table listens to them, inventory and price changes are written into the record in
+ * place and supplier changes move it to a larger size class when it outgrows its own.
+ * @author Noah Rouse <my_email@noahrouse36@gmail.com>
+ */
+public final class OffHeapTable implements Table<String, Product>, Product.Listener {
+   static final int SLAB_SIZE = 1 << 22;
+   private static final int MIN_RECORD = 32;
+   private static final int CLASSES = Integer.numberOfTrailingZeros(SLAB_SIZE / MIN_RECORD) + 1;
+   private static final int MIN_INDEX = 1024;
+   private static final float LOAD_FACTOR = 0.75f;
+   private static final long NONE = -1;
+   private static final int MAX_SLABS = 0xFFFF;
+
+   // record layout, the first 8 bytes link the record into a free list once it is freed
+   private static final int INVENTORY = 0;
+   private static final int NAME_LENGTH = 4;
+   private static final int CENTS = 8;
+   private static final int SUPPLIER_COUNT = 16;
+   private static final int SIZE_CLASS = 20;
+   private static final int NAME = 24;
+
+   private final long budget;
+   private final ArrayList<ByteBuffer> slabs = new ArrayList<ByteBuffer>();
+   private final long[] free = new long[CLASSES];
+   private int top = SLAB_SIZE;
+   private ByteBuffer index;
+   private int capacity;
+   private int size = 0;
+   private final HashMap<String, BigDecimal> exactPrices = new HashMap<String, BigDecimal>();
+
+   /**
+    *
+    * @param budget most bytes of direct memory used for slabs and the index
+    * @throws IllegalStateException when the budget does not hold the first index and slab
+    */
+   public OffHeapTable (final long budget) {
+      this.budget = budget;
+      Arrays.fill(free, NONE);
+      if ((long) MIN_INDEX * Long.BYTES + SLAB_SIZE > budget) {
+         throw new IllegalStateException("Off-heap budget of " + budget + " bytes is too small");
+      }
+      index = allocateIndex(MIN_INDEX);
+   }
+
+   /**
+    * Copies every product of another table into a new off-heap table
+    * @param table the products
+    * @param budget most bytes of direct memory used
+    * @return the new table
+    * @throws IllegalStateException when the products do not fit into the budget
+    */
+   public static OffHeapTable copyOf (final Table<String, Product> table, final long budget) {
+      final OffHeapTable copy = new OffHeapTable(budget);
+      for (final Product product: table.values()) {
+         copy.put(product.name(), product);
+      }
+      return copy;
+   }
+
+   @Override
+   public synchronized int size () {
+      return size;
+   }
+
+   @Override
+   public synchronized boolean isEmpty () {
+      return size == 0;
+   }
+
+   /**
+    *
+    * @return bytes of direct memory allocated for slabs and the index
+    */
+   public synchronized long reserved () {
+      return (long) slabs.size() * SLAB_SIZE + (long) capacity * Long.BYTES;
+   }
+
+   /**
+    *
+    * @return most bytes of direct memory the table may allocate
+    */
+   public long budget () {
+      return budget;
+   }
+
+   @Override
+   public synchronized Product get (final String key) throws NoSuchElementException {
+      final int slot = slotOf(key.getBytes(StandardCharsets.UTF_8));
+      if (slot == -1) {
+         throw new NoSuchElementException("Key not added");
+      }
+      return product(address(index.getLong(slot * Long.BYTES)));
+   }
+
+   @Override
+   public synchronized Product getOrNull (final String key) {
+      final int slot = slotOf(key.getBytes(StandardCharsets.UTF_8));
+      return slot == -1 ? null : product(address(index.getLong(slot * Long.BYTES)));
+   }
+
+   /**
+    * Answered from the index without decoding the record
+    */
+   @Override
+   public synchronized boolean containsKey (final String key) {
+      return slotOf(key.getBytes(StandardCharsets.UTF_8)) != -1;
+   }
+
+   /**
+    * The defaults of Table run under the table lock, so nothing changes the key in between
+    */
+   @Override
+   public synchronized Product putIfAbsent (final String key, final Product value) {
+      return Table.super.putIfAbsent(key, value);
+   }
+
+   @Override
+   public synchronized Product removeOrNull (final String key) {
+      return Table.super.removeOrNull(key);
+   }
+
+   @Override
+   public synchronized Product computeIfAbsent (final String key,
+         final Function<? super String, ? extends Product> mapping) {
+      return Table.super.computeIfAbsent(key, mapping);
+   }
+
+   @Override
+   public synchronized Product compute (final String key,
+         final BiFunction<? super String, ? super Product, ? extends Product> remapping) {
+      return Table.super.compute(key, remapping);
+   }
+
+   @Override
+   public synchronized Product merge (final String key, final Product value,
+         final BiFunction<? super Product, ? super Product, ? extends Product> remapping) {
+      return Table.super.merge(key, value, remapping);
+   }
+
+   /**
+    * Writes the product into the record of the key, moving the record when it does not fit.
+    * The product is listened to if nothing else does, so later changes to it are stored too.
+    * @throws IllegalStateException when the budget is used up
+    */
+   @Override
+   public synchronized void put (final String key, final Product value) {
+      final byte[] name = key.getBytes(StandardCharsets.UTF_8);
+      final int[] supplierIds = value.supplierIds();
+      final int slot = slotOf(name);
+      if (slot == -1 && size + 1 > capacity * LOAD_FACTOR) {
+         resize(capacity * 2);
+      }
+      final long old = slot == -1 ? NONE : address(index.getLong(slot * Long.BYTES));
+      final long address = old != NONE && fits(old, name.length, supplierIds.length)
+            ? old
+            : allocate(NAME + name.length + supplierIds.length * Integer.BYTES);
+
+      final ByteBuffer slab = slab(address);
+      final int at = offset(address);
+      slab.putInt(at + INVENTORY, value.amount());
+      slab.putInt(at + NAME_LENGTH, name.length);
+      slab.put(at + NAME, name);
+      writeSuppliers(slab, at, name.length, supplierIds);
+      storePrice(key, slab, at, value.price());
+
+      final long hash = hash(name);
+      if (slot == -1) {
+         link(hash, address);
+         size++;
+      } else if (address != old) {
+         index.putLong(slot * Long.BYTES, entry(hash, address));
+         release(old);
+      }
+      if (value.listener() == null) {
+         value.setListener(this);
+      }
+   }
+
+   @Override
+   public synchronized Product remove (final String key) throws NoSuchElementException {
+      final int slot = slotOf(key.getBytes(StandardCharsets.UTF_8));
+      if (slot == -1) {
+         throw new NoSuchElementException("Key not added");
+      }
+      final long address = address(index.getLong(slot * Long.BYTES));
+      final Product product = product(address);
+      unlink(slot);
+      release(address);
+      exactPrices.remove(key);
+      size--;
+      return product;
+   }
+
+   /**
+    *
+    * @return a view of the names, read from the records as they are handed out
+    */
+   @Override
+   public Collection<String> keySet () {
+      return new Records<String>(this::name);
+   }
+
+   /**
+    *
+    * @return a view of the products, each one rebuilt from its record as it is handed out
+    */
+   @Override
+   public Collection<Product> values () {
+      return new Records<Product>(this::product);
+   }
+
+   @Override
+   public synchronized void supplierAdded (final Product product, final String supplier) {
+      suppliersChanged(product);
+   }
+
+   @Override
+   public synchronized void supplierRemoved (final Product product, final String supplier) {
+      suppliersChanged(product);
+   }
+
+   @Override
+   public synchronized void inventoryChanged (final Product product) {
+      final int slot = slotOf(product.name().getBytes(StandardCharsets.UTF_8));
+      if (slot != -1) {
+         final long address = address(index.getLong(slot * Long.BYTES));
+         slab(address).putInt(offset(address) + INVENTORY, product.amount());
+      }
+   }
+
+   @Override
+   public synchronized void priceChanged (final Product product) {
+      final int slot = slotOf(product.name().getBytes(StandardCharsets.UTF_8));
+      if (slot != -1) {
+         final long address = address(index.getLong(slot * Long.BYTES));
+         storePrice(product.name(), slab(address), offset(address), product.price());
+      }
+   }
+
+   /**
+    * View over the records handing out what the reader makes of each one
+    */
+   private final class Records<T> extends AbstractCollection<T> {
+      private final LongFunction<T> reader;
+
+      private Records (final LongFunction<T> reader) {
+         this.reader = reader;
+      }
+
+      @Override
+      public int size () {
+         return OffHeapTable.this.size();
+      }
+
+      @Override
+      public Iterator<T> iterator () {
+         return stream().iterator();
+      }
+
+      /**
+       * Splits along ranges of index slots so reports can read the table in parallel
+       */
+      @Override
+      public Spliterator<T> spliterator () {
+         final int slots;
+         synchronized (OffHeapTable.this) {
+            slots = capacity;
+         }
+         return IntStream.range(0, slots).mapToObj(slot -> read(slot, reader))
+               .filter(Objects::nonNull).spliterator();
+      }
+   }
+
+   /**
+    * @return what the reader makes of the record in a slot, or null if the slot is empty
+    */
+   private synchronized <T> T read (final int slot, final LongFunction<T> reader) {
+      if (slot >= capacity) {
+         return null;
+      }
+      final long entry = index.getLong(slot * Long.BYTES);
+      return entry == 0 ? null : reader.apply(address(entry));
+   }
+
+   /**
+    * Rebuilds the product stored in a record and listens to it
+    */
+   private Product product (final long address) {
+      final ByteBuffer slab = slab(address);
+      final int at = offset(address);
+      final int nameLength = slab.getInt(at + NAME_LENGTH);
+      final String name = name(address);
+      final int count = slab.getInt(at + SUPPLIER_COUNT);
+      final int ids = suppliersAt(at, nameLength);
+      final int[] suppliers = new int[count];
+      for (int i = 0; i < count; i++) {
+         suppliers[i] = slab.getInt(ids + i * Integer.BYTES);
+      }
+      final long price = slab.getLong(at + CENTS);
+      final Product product = new Product(name, suppliers, slab.getInt(at + INVENTORY),
+            price == ColumnarTable.NO_PRICE
+                  ? exactPrices.get(name) : ColumnarTable.decodePrice(price));
+      product.setListener(this);
+      return product;
+   }
+
+   private String name (final long address) {
+      final ByteBuffer slab = slab(address);
+      final int at = offset(address);
+      final byte[] name = new byte[slab.getInt(at + NAME_LENGTH)];
+      slab.get(at + NAME, name);
+      return new String(name, StandardCharsets.UTF_8);
+   }
+
+   /**
+    * Rewrites the supplier ids of a product, moving its record if they no longer fit
+    */
+   private void suppliersChanged (final Product product) {
+      final byte[] name = product.name().getBytes(StandardCharsets.UTF_8);
+      final int slot = slotOf(name);
+      if (slot == -1) {
+         return;
+      }
+      final int[] supplierIds = product.supplierIds();
+      final long address = address(index.getLong(slot * Long.BYTES));
+      if (fits(address, name.length, supplierIds.length)) {
+         writeSuppliers(slab(address), offset(address), name.length, supplierIds);
+         return;
+      }
+
+      final long moved = allocate(NAME + name.length + supplierIds.length * Integer.BYTES);
+      final ByteBuffer to = slab(moved);
+      final int at = offset(moved);
+      final int sizeClass = to.getInt(at + SIZE_CLASS);
+      to.put(at, slab(address), offset(address), NAME + name.length);
+      to.putInt(at + SIZE_CLASS, sizeClass);
+      writeSuppliers(to, at, name.length, supplierIds);
+      index.putLong(slot * Long.BYTES, entry(hash(name), moved));
+      release(address);
+   }
+
+   private static void writeSuppliers (final ByteBuffer slab, final int at, final int nameLength,
+         final int[] supplierIds) {
+      slab.putInt(at + SUPPLIER_COUNT, supplierIds.length);
+      final int ids = suppliersAt(at, nameLength);
+      for (int i = 0; i < supplierIds.length; i++) {
+         slab.putInt(ids + i * Integer.BYTES, supplierIds[i]);
+      }
+   }
+
+   /**
+    * Stores a price as cents when it has at most two decimals and on the heap otherwise
+    */
+   private void storePrice (final String name, final ByteBuffer slab, final int at,
+         final BigDecimal price) {
+      final long encoded = ColumnarTable.encodePrice(price);
+      slab.putLong(at + CENTS, encoded);
+      if (encoded == ColumnarTable.NO_PRICE && price != null) {
+         exactPrices.put(name, price);
+      } else {
+         exactPrices.remove(name);
+      }
+   }
+
+   /**
+    * @return true if a record with this name and amount of suppliers fits the given record
+    */
+   private boolean fits (final long address, final int nameLength, final int suppliers) {
+      final int size = MIN_RECORD << slab(address).getInt(offset(address) + SIZE_CLASS);
+      return NAME + nameLength + suppliers * Integer.BYTES <= size;
+   }
+
+   /**
+    * Takes a record of at least the given size from the free list of its class, or from the
+    * end of the last slab
+    * @return address of the record
+    * @throws IllegalStateException when a new slab would go over the budget
+    */
+   private long allocate (final int bytes) {
+      final int sizeClass = sizeClass(bytes);
+      final long head = free[sizeClass];
+      final long address;
+      if (head != NONE) {
+         free[sizeClass] = slab(head).getLong(offset(head));
+         address = head;
+      } else {
+         final int size = MIN_RECORD << sizeClass;
+         if (top + size > SLAB_SIZE) {
+            if (reserved() + SLAB_SIZE > budget || slabs.size() == MAX_SLABS) {
+               throw new IllegalStateException("Off-heap budget of " + budget
+                     + " bytes is used up");
+            }
+            slabs.add(ByteBuffer.allocateDirect(SLAB_SIZE).order(ByteOrder.nativeOrder()));
+            top = 0;
+         }
+         address = ((long) (slabs.size() - 1) << 32) | top;
+         top += size;
+      }
+      slab(address).putInt(offset(address) + SIZE_CLASS, sizeClass);
+      return address;
+   }
+
+   /**
+    * Puts a record onto the free list of its class
+    */
+   private void release (final long address) {
+      final ByteBuffer slab = slab(address);
+      final int at = offset(address);
+      final int sizeClass = slab.getInt(at + SIZE_CLASS);
+      slab.putLong(at, free[sizeClass]);
+      free[sizeClass] = address;
+   }
+
+   /**
+    * @return the smallest size class holding the given amount of bytes
+    * @throws IllegalStateException when the record is larger than a slab
+    */
+   private static int sizeClass (final int bytes) {
+      if (bytes > SLAB_SIZE) {
+         throw new IllegalStateException("Product of " + bytes + " bytes does not fit a slab");
+      }
+      final int units = (bytes + MIN_RECORD - 1) / MIN_RECORD;
+      return 32 - Integer.numberOfLeadingZeros(units - 1);
+   }
+
+   /**
+    * Linear probe for the slot pointing at the record of the name
+    * @return the slot or -1 if the name is not stored
+    */
+   private int slotOf (final byte[] name) {
+      final long hash = hash(name);
+      final int tag = tag(hash);
+      final int mask = capacity - 1;
+      int i = (int) hash & mask;
+      long entry;
+      while ((entry = index.getLong(i * Long.BYTES)) != 0) {
+         if ((int) (entry >>> 48) == tag && nameEquals(address(entry), name)) {
+            return i;
+         }
+         i = (i + 1) & mask;
+      }
+      return -1;
+   }
+
+   private boolean nameEquals (final long address, final byte[] name) {
+      final ByteBuffer slab = slab(address);
+      final int at = offset(address);
+      if (slab.getInt(at + NAME_LENGTH) != name.length) {
+         return false;
+      }
+      for (int i = 0; i < name.length; i++) {
+         if (slab.get(at + NAME + i) != name[i]) {
+            return false;
+         }
+      }
+      return true;
+   }
+
+   /**
+    * Points the first empty slot of the hash's probe sequence at the record
+    */
+   private void link (final long hash, final long address) {
+      final int mask = capacity - 1;
+      int i = (int) hash & mask;
+      while (index.getLong(i * Long.BYTES) != 0) {
+         i = (i + 1) & mask;
+      }
+      index.putLong(i * Long.BYTES, entry(hash, address));
+   }
+
+   /**
+    * Empties a slot and shifts back any slots of the same cluster that probed past it, like
+    * HashTable does
+    */
+   private void unlink (int slot) {
+      final int mask = capacity - 1;
+      int i = slot;
+      while (true) {
+         i = (i + 1) & mask;
+         final long entry = index.getLong(i * Long.BYTES);
+         if (entry == 0) {
+            break;
+         }
+         final int home = (int) recordHash(address(entry)) & mask;
+         if (((i - home) & mask) >= ((i - slot) & mask)) {
+            index.putLong(slot * Long.BYTES, entry);
+            slot = i;
+         }
+      }
+      index.putLong(slot * Long.BYTES, 0);
+   }
+
+   /**
+    * Moves every entry into a new index of the given amount of slots
+    * @throws IllegalStateException when both indexes together would go over the budget
+    */
+   private void resize (final int slots) {
+      if (reserved() + (long) slots * Long.BYTES > budget) {
+         throw new IllegalStateException("Off-heap budget of " + budget + " bytes is used up");
+      }
+      final ByteBuffer old = index;
+      final int oldCapacity = capacity;
+      index = allocateIndex(slots);
+      for (int i = 0; i < oldCapacity; i++) {
+         final long entry = old.getLong(i * Long.BYTES);
+         if (entry != 0) {
+            link(recordHash(address(entry)), address(entry));
+         }
+      }
+   }
+
+   private ByteBuffer allocateIndex (final int slots) {
+      capacity = slots;
+      return ByteBuffer.allocateDirect(slots * Long.BYTES).order(ByteOrder.nativeOrder());
+   }
+
+   private ByteBuffer slab (final long address) {
+      return slabs.get((int) (address >>> 32));
+   }
+
+   private static int offset (final long address) {
+      return (int) address;
+   }
+
+   private static int suppliersAt (final int at, final int nameLength) {
+      return at + ((NAME + nameLength + Integer.BYTES - 1) & -Integer.BYTES);
+   }
+
+   /**
+    * @return index slot value holding the hash tag and the address, slab numbers are stored
+    * one higher so no entry is 0
+    */
+   private static long entry (final long hash, final long address) {
+      return ((long) tag(hash) << 48) | (address + (1L << 32));
+   }
+
+   private static long address (final long entry) {
+      return (entry & 0xFFFFFFFFFFFFL) - (1L << 32);
+   }
+
+   private static int tag (final long hash) {
+      return (int) (hash >>> 48);
+   }
+
+   private long recordHash (final long address) {
+      final ByteBuffer slab = slab(address);
+      final int at = offset(address);
+      final int length = slab.getInt(at + NAME_LENGTH);
+      long h = 0;
+      for (int i = 0; i < length; i++) {
+         h = 31 * h + slab.get(at + NAME + i);
+      }
+      return mix(h);
+   }
+
+   private static long hash (final byte[] name) {
+      long h = 0;
+      for (final byte b: name) {
+         h = 31 * h + b;
+      }
+      return mix(h);
+   }
+
+   private static long mix (long h) {
+      h *= 0x9E3779B97F4A7C15L;
+      return h ^ (h >>> 29);
+   }
+}
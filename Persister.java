@@ -0,0 +1,143 @@
+import java.io.Closeable;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Saves the catalog from a background thread so commands never wait for data.sav to be
+ * written. Sessions mark the catalog dirty after journaling a change, and the writer folds
+ * every change made since its last save into the next one: it saves once the interval has
+ * passed with changes pending, as soon as the amount of changes reaches the threshold, or
+ * when a save is requested. A save encodes what changed under the table lock and writes it
+ * to a temporary file that is moved into place, see SnapshotStore.
+ *
+ * FLUSH and IMPORT wait for a save with flush, close makes a last save and stops the thread.
+ * @author Noah Rouse <my_email@noahrouse36@gmail.com>
+ */
+public final class Persister implements Closeable {
+   private final Table<String, Product> table;
+   private final Journal journal;
+   private final SnapshotStore store;
+   private final long intervalNanos;
+   private final int threshold;
+   private final Thread writer;
+   private int dirty = 0;
+   private long requested = 0;
+   private long completed = 0;
+   private boolean saved = true;
+   private boolean closed = false;
+
+   /**
+    * Starts the writer thread
+    * @param table contains all products
+    * @param journal journal the changes are appended to, emptied after each save
+    * @param store snapshots the changes are saved to
+    * @param intervalMillis longest time a change waits to be saved
+    * @param threshold amount of changes that are saved right away, 0 to only save on the
+    * interval
+    */
+   public Persister (final Table<String, Product> table, final Journal journal,
+         final SnapshotStore store, final long intervalMillis, final int threshold) {
+      this.table = table;
+      this.journal = journal;
+      this.store = store;
+      this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(intervalMillis);
+      this.threshold = threshold;
+      this.writer = new Thread(this::run, "snapshot");
+      this.writer.setDaemon(true);
+      this.writer.start();
+   }
+
+   /**
+    * Marks the catalog dirty, called once the changes are in the journal
+    * @param changes amount of commands that changed the catalog
+    */
+   public synchronized void changed (final int changes) {
+      dirty += changes;
+      if (threshold > 0 && dirty >= threshold) {
+         notifyAll();
+      }
+   }
+
+   /**
+    * Saves the catalog now, even when nothing changed, and waits for it. Changes made while
+    * a save is running are only saved by the next one, so the wait may span two saves.
+    * @return true if the catalog was saved
+    * @throws InterruptedException when interrupted while waiting
+    */
+   public synchronized boolean flush () throws InterruptedException {
+      // once closed the last save is already coming
+      final long ticket = closed ? requested : ++requested;
+      notifyAll();
+      while (completed < ticket) {
+         wait();
+      }
+      return saved;
+   }
+
+   /**
+    * Makes a last save of any changes and stops the writer, later calls do nothing
+    */
+   @Override
+   public void close () {
+      synchronized (this) {
+         closed = true;
+         notifyAll();
+      }
+      boolean interrupted = false;
+      while (writer.isAlive()) {
+         try {
+            writer.join();
+         } catch (final InterruptedException e) {
+            interrupted = true;
+         }
+      }
+      if (interrupted) {
+         Thread.currentThread().interrupt();
+      }
+   }
+
+   /**
+    * Waits for a reason to save, saves and repeats until closed
+    */
+   private void run () {
+      while (true) {
+         final long ticket;
+         final boolean force;
+         final boolean closing;
+         synchronized (this) {
+            long remaining = intervalNanos;
+            final long deadline = System.nanoTime() + remaining;
+            while (!closed && requested == completed
+                  && (threshold <= 0 || dirty < threshold) && remaining > 0) {
+               try {
+                  TimeUnit.NANOSECONDS.timedWait(this, remaining);
+               } catch (final InterruptedException e) {
+                  // only close stops the writer
+               }
+               remaining = deadline - System.nanoTime();
+            }
+            ticket = requested;
+            force = requested != completed;
+            closing = closed;
+            // changes from here on are counted towards the next save
+            dirty = 0;
+         }
+
+         boolean ok = false;
+         try {
+            // without changes the journal is empty and nothing is written
+            ok = store.save(table, journal, force);
+         } catch (final RuntimeException e) {
+            // the journal still holds the changes, the next save tries again
+            e.printStackTrace();
+         }
+         synchronized (this) {
+            saved = ok;
+            completed = ticket;
+            notifyAll();
+         }
+         if (closing) {
+            return;
+         }
+      }
+   }
+}
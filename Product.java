@@ -1,25 +1,80 @@
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
 import java.math.BigDecimal;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 /**
- * Made to store and handle name of product, supplier, and amount available
+ * Made to store and handle name of product, supplier, and amount available.
+ * A product may be shared between threads: inventory changes are atomic and the supplier
+ * set is replaced by a new copy on every change, so a set returned by supplierIds() never
+ * changes while it is being read. Suppliers are kept as a sorted array of SupplierRegistry
+ * ids, so every supplier name is stored once however many products it supplies. A Listener
+ * may be attached to be told about changes, which is how indexes over the catalog are kept
+ * up to date.
  * @author Noah Rouse <myEmail@noahrouse36@gmail.com>
  */
 public final class Product implements Serializable, Comparable<Product> {
-   private final String name;
-   private final ArrayList<String> suppliers;
-   private int inventory;
-   private BigDecimal price;
+   private static final long serialVersionUID = 3048102183124726763L;
+   private static final AtomicIntegerFieldUpdater<Product> INVENTORY =
+         AtomicIntegerFieldUpdater.newUpdater(Product.class, "inventory");
+   private static final int[] NO_SUPPLIERS = new int[0];
+   // serialized as before the registry, with the supplier names in a list
+   private static final ObjectStreamField[] serialPersistentFields = {
+      new ObjectStreamField("name", String.class),
+      new ObjectStreamField("suppliers", ArrayList.class),
+      new ObjectStreamField("inventory", int.class),
+      new ObjectStreamField("price", BigDecimal.class),
+   };
+   // not final so readObject can restore it
+   private String name;
+   private transient volatile int[] supplierIds;
+   private volatile int inventory;
+   private volatile BigDecimal price;
+   private transient volatile Listener listener;
 
    /**
-    * sets name of product, initializes an empty suppliers list and sets inventory to zero
+    * Told about changes of a product, supplier changes are reported while the product is
+    * locked
+    */
+   public interface Listener {
+      /**
+       * @param product the changed product
+       * @param supplier name of the supplier that was added
+       */
+      void supplierAdded (Product product, String supplier);
+
+      /**
+       * @param product the changed product
+       * @param supplier name of the supplier that was removed
+       */
+      void supplierRemoved (Product product, String supplier);
+
+      /**
+       * Inventory changes may be reported out of order, read amount() for the current value
+       * @param product the changed product
+       */
+      void inventoryChanged (Product product);
+
+      /**
+       * Price changes may be reported out of order, read price() for the current value
+       * @param product the changed product
+       */
+      void priceChanged (Product product);
+   }
+
+   /**
+    * sets name of product, initializes an empty supplier set and sets inventory to zero
     * @param name the Name of the product
     */
    public Product (final String name) {
       this.name = name;
-      this.suppliers = new ArrayList<String>();
+      this.supplierIds = NO_SUPPLIERS;
       this.inventory = 0;
    }
 
@@ -78,6 +133,32 @@ public final class Product implements Serializable, Comparable<Product> {
       this.price = new BigDecimal(price.toString());
    }
 
+   /**
+    * Copies name, inventory, price and suppliers of another product
+    * @param product the product being copied
+    */
+   public Product (final Product product) {
+      this.name = product.name;
+      this.supplierIds = product.supplierIds;
+      this.inventory = product.inventory;
+      this.price = product.price;
+   }
+
+   /**
+    * Rebuilds a product from stored fields
+    * @param name the name of the product
+    * @param supplierIds sorted distinct supplier ids, taken over without copying
+    * @param inventory the inventory
+    * @param price the price or null
+    */
+   Product (final String name, final int[] supplierIds, final int inventory,
+         final BigDecimal price) {
+      this.name = name;
+      this.supplierIds = supplierIds;
+      this.inventory = inventory;
+      this.price = price;
+   }
+
    /**
     * Sets product to be compared by name
     */
@@ -96,10 +177,34 @@ public final class Product implements Serializable, Comparable<Product> {
 
    /**
     * 
-    * @return an ArrayList containing all suppliers
+    * @return a new ArrayList of the supplier names in alphabetical order ignoring case
     */
    public ArrayList<String> suppliers () {
-      return suppliers;
+      final int[] ids = supplierIds;
+      final ArrayList<String> names = new ArrayList<String>(ids.length);
+      for (final int id: ids) {
+         names.add(SupplierRegistry.name(id));
+      }
+      names.sort(String.CASE_INSENSITIVE_ORDER);
+      return names;
+   }
+
+   /**
+    *
+    * @return sorted SupplierRegistry ids of the suppliers, the array must not be changed
+    */
+   public int[] supplierIds () {
+      return supplierIds;
+   }
+
+   /**
+    * @param name name of a supplier ignoring case
+    * @return true if the supplier supplies this product
+    */
+   public boolean hasSupplier (final String name) {
+      final int id = SupplierRegistry.find(name);
+      final int[] ids = supplierIds;
+      return id != -1 && binarySearch(ids, id) >= 0;
    }
 
    /**
@@ -118,14 +223,31 @@ public final class Product implements Serializable, Comparable<Product> {
       return price;
    }
 
+   /**
+    *
+    * @return the listener told about changes or null
+    */
+   public Listener listener () {
+      return listener;
+   }
+
+   /**
+    * Replaces the listener told about changes
+    * @param listener the new listener or null for none
+    */
+   public void setListener (final Listener listener) {
+      this.listener = listener;
+   }
+
    /**
     * increases inventory of the product by a specified amount
     * @param amount The amount being added
     * @return Returns the new inventory
     */
    public int increaseInventory (final int amount) {
-      this.inventory += amount;
-      return this.inventory;
+      final int inventory = INVENTORY.addAndGet(this, amount);
+      inventoryChanged();
+      return inventory;
    }
 
    /**
@@ -135,12 +257,16 @@ public final class Product implements Serializable, Comparable<Product> {
     * @throws Exception When the amount is greater than the inventory
     */
    public int decreaseInventory (final int amount) throws Exception {
-      if (amount > inventory) {
-         throw new Exception("Error: not enough inventory");
-      }
+      int current;
+      do {
+         current = inventory;
+         if (amount > current) {
+            throw new Exception("Error: not enough inventory");
+         }
+      } while (!INVENTORY.compareAndSet(this, current, current - amount));
 
-      inventory -= amount;
-      return inventory;
+      inventoryChanged();
+      return current - amount;
    }
 
    /**
@@ -150,17 +276,20 @@ public final class Product implements Serializable, Comparable<Product> {
     */
    public int setInventory (final int amount) {
       inventory = amount;
-      return inventory;
+      inventoryChanged();
+      return amount;
    }
 
    /**
-    * Sets price
+    * Sets price, holding the product lock like increasePrice and decreasePrice so their
+    * read-modify-write never loses it and listeners see the prices in order
     * @param price new price of product
     * @return new price of product
     */
-   public BigDecimal setPrice (final BigDecimal price) {
+   public synchronized BigDecimal setPrice (final BigDecimal price) {
       this.price = price;
-      return this.price;
+      priceChanged();
+      return price;
    }
 
    /**
@@ -169,8 +298,7 @@ public final class Product implements Serializable, Comparable<Product> {
     * @return new price of product
     */
    public BigDecimal setPrice (final Number price) {
-      this.price = new BigDecimal(price.toString());
-      return this.price;
+      return setPrice(new BigDecimal(price.toString()));
    }
 
    /**
@@ -178,9 +306,8 @@ public final class Product implements Serializable, Comparable<Product> {
     * @param amount to increase
     * @return new price after increase
     */
-   public BigDecimal increasePrice (final Number amount) {
-      price.add(new BigDecimal(amount.toString()));
-      return price;
+   public synchronized BigDecimal increasePrice (final Number amount) {
+      return setPrice(price.add(new BigDecimal(amount.toString())));
    }
 
    /**
@@ -188,49 +315,93 @@ public final class Product implements Serializable, Comparable<Product> {
     * @param amount to decrease
     * @return new price after decrease
     */
-   public BigDecimal decreasePrice (final Number amount) {
-      price.subtract(new BigDecimal(amount.toString()));
-      return price; 
+   public synchronized BigDecimal decreasePrice (final Number amount) {
+      return setPrice(price.subtract(new BigDecimal(amount.toString())));
+   }
+
+   private void inventoryChanged () {
+      final Listener current = listener;
+      if (current != null) {
+         current.inventoryChanged(this);
+      }
+   }
+
+   private void priceChanged () {
+      final Listener current = listener;
+      if (current != null) {
+         current.priceChanged(this);
+      }
    }
 
    /**
-    * Adds a name to the supplier list in sorted order
+    * Adds a supplier to the supplier set
     * @param name Name of supplier
-    * @return returns the add supplier name or null
+    * @return returns the add supplier name or null if the product already has it, found
+    * with the same search that finds where it goes
     */
-   public String addSupplier (final String name) {
-      for (int i = 0; i < suppliers.size(); i++) {
-         final String current = suppliers.get(i);
-         if (name.equalsIgnoreCase(current))
-            return null;
-         if (name.compareToIgnoreCase(current) < 0) {
-            suppliers.add(i, name);
-            return name;
-         }
+   public synchronized String addSupplier (final String name) {
+      final int id = SupplierRegistry.id(name);
+      final int[] ids = supplierIds;
+      final int index = binarySearch(ids, id);
+      if (index >= 0) {
+         return null;
       }
 
-      suppliers.add(name);
+      final int insert = -index - 1;
+      final int[] copy = new int[ids.length + 1];
+      System.arraycopy(ids, 0, copy, 0, insert);
+      copy[insert] = id;
+      System.arraycopy(ids, insert, copy, insert + 1, ids.length - insert);
+      supplierIds = copy;
+      final Listener current = listener;
+      if (current != null) {
+         current.supplierAdded(this, name);
+      }
       return name;
    }
 
    /**
-    * Adds all names in sorted order to the supplier list
+    * Adds all names to the supplier set
     * @param names a list of names of all of the suppliers being added
     */
-   public void addSuppliers (final List<String> names) {
-      for (final String i: names) {
-         addSupplier(i);
+   public synchronized void addSuppliers (final List<String> names) {
+      final int[] ids = supplierIds;
+      final int[] added = SupplierRegistry.ids(names);
+      final int[] merged = new int[ids.length + added.length];
+      int i = 0;
+      int j = 0;
+      int count = 0;
+      int fresh = 0;
+      while (i < ids.length || j < added.length) {
+         if (j == added.length || (i < ids.length && ids[i] < added[j])) {
+            merged[count++] = ids[i++];
+         } else if (i == ids.length || added[j] < ids[i]) {
+            // keep the new ids at the front of added to report them afterwards
+            added[fresh++] = added[j];
+            merged[count++] = added[j++];
+         } else {
+            merged[count++] = ids[i++];
+            j++;
+         }
+      }
+      if (fresh == 0) {
+         return;
+      }
+      supplierIds = count == merged.length ? merged : Arrays.copyOf(merged, count);
+      final Listener current = listener;
+      if (current != null) {
+         for (int k = 0; k < fresh; k++) {
+            current.supplierAdded(this, SupplierRegistry.name(added[k]));
+         }
       }
    }
 
    /**
-    * Adds all names in sorted order to the supplier list
+    * Adds all names to the supplier set
     * @param names an array of names of all of the suppliers being added
     */
    public void addSuppliers (final String[] names) {
-      for (String i: names) {
-         addSupplier(i);
-      }
+      addSuppliers(Arrays.asList(names));
    }
 
    /**
@@ -239,12 +410,37 @@ public final class Product implements Serializable, Comparable<Product> {
     * @throws NoSuchElementException When there is no supplier by that name
     */
    public String removeSupplier (final String name) throws NoSuchElementException {
-      final int index = binarySearch(name, 0, suppliers.size() - 1);
-      if (index == -1) {
+      final String removed = removeSupplierOrNull(name);
+      if (removed == null) {
          throw new NoSuchElementException("No supplier by that name");
       }
+      return removed;
+   }
 
-      return suppliers.remove(index);
+   /**
+    * Uses a binary search to look for and remove a supplier without throwing when it is
+    * missing
+    * @param name Supplier to be removed
+    * @return name of the supplier removed or null if there is no supplier by that name
+    */
+   public synchronized String removeSupplierOrNull (final String name) {
+      final int id = SupplierRegistry.find(name);
+      final int[] ids = supplierIds;
+      final int index = id == -1 ? -1 : binarySearch(ids, id);
+      if (index < 0) {
+         return null;
+      }
+
+      final int[] copy = new int[ids.length - 1];
+      System.arraycopy(ids, 0, copy, 0, index);
+      System.arraycopy(ids, index + 1, copy, index, copy.length - index);
+      supplierIds = copy;
+      final String removed = SupplierRegistry.name(id);
+      final Listener current = listener;
+      if (current != null) {
+         current.supplierRemoved(this, removed);
+      }
+      return removed;
    }
    
    /**
@@ -254,44 +450,73 @@ public final class Product implements Serializable, Comparable<Product> {
     * @throws NoSuchElementException when supplier does not exist
     */
    public String getSupplier(final String name) throws NoSuchElementException {
-      final int index = binarySearch(name, 0, suppliers().size() - 1);
-      if (index == -1) {
+      final String supplier = getSupplierOrNull(name);
+      if (supplier == null) {
          throw new NoSuchElementException("No supplier by that name");
       }
 
-      return suppliers.get(index);
+      return supplier;
    }
 
    /**
-    * fast search function
-    * @param target
-    * @param low
-    * @param high
-    * @return
+    * Uses a binary search to find a supplier without throwing when it is missing
+    * @param name Supplier to be found, ignoring case
+    * @return name of the supplier or null if there is no supplier by that name
     */
-   private int binarySearch (final String target, final int low, final int high) {
-      // base case element does not exist
-      if (low > high) {
-         return -1;
-      }
-
-      final int mid = (high + low) / 2;
+   public String getSupplierOrNull (final String name) {
+      final int id = SupplierRegistry.find(name);
+      return id != -1 && binarySearch(supplierIds, id) >= 0 ? SupplierRegistry.name(id) : null;
+   }
 
-      // base case target found
-      if (suppliers.get(mid).equalsIgnoreCase(target)) {
-         return mid;
+   /**
+    * fast search function, one comparison per step and a single equality check at the end
+    * @param ids sorted supplier ids
+    * @param target id being looked for
+    * @return index of the target, or -(insertion point) - 1 if it is not there
+    */
+   static int binarySearch (final int[] ids, final int target) {
+      int low = 0;
+      int high = ids.length;
+      // ids before low are smaller than the target, ids from high on are not
+      while (low < high) {
+         final int mid = (low + high) >>> 1;
+         if (ids[mid] < target) {
+            low = mid + 1;
+         } else {
+            high = mid;
+         }
       }
+      return low < ids.length && ids[low] == target ? low : -(low + 1);
+   }
 
-      // case target comes after mid value in alphabetic order
-      if (suppliers.get(mid).compareToIgnoreCase(target) > 0) {
-         return binarySearch(target, mid, high);
-      }
+   /**
+    * Writes the fields the way they were serialized before suppliers had ids
+    */
+   private void writeObject (final ObjectOutputStream out) throws IOException {
+      final ObjectOutputStream.PutField fields = out.putFields();
+      fields.put("name", name);
+      fields.put("suppliers", suppliers());
+      fields.put("inventory", inventory);
+      fields.put("price", price);
+      out.writeFields();
+   }
 
-      // case target comes before mid value in alphabetic order
-      if (suppliers.get(mid).compareToIgnoreCase(target) < 0) {
-         return binarySearch(target, low, mid);
+   /**
+    * Reads a product serialized with its supplier names, registering the names
+    */
+   private void readObject (final ObjectInputStream in)
+         throws IOException, ClassNotFoundException {
+      final ObjectInputStream.GetField fields = in.readFields();
+      name = (String) fields.get("name", null);
+      inventory = fields.get("inventory", 0);
+      price = (BigDecimal) fields.get("price", null);
+      final ArrayList<String> names = new ArrayList<String>();
+      final Object suppliers = fields.get("suppliers", null);
+      if (suppliers != null) {
+         for (final Object supplier: (List<?>) suppliers) {
+            names.add((String) supplier);
+         }
       }
-
-      return -1;
+      supplierIds = SupplierRegistry.ids(names);
    }
 }
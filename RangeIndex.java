@@ -0,0 +1,122 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.function.Function;
+
+/**
+ * Ordered index over one value of the products, such as price or inventory, answering range
+ * queries in time proportional to the products found. Entries are kept in a skip list sorted
+ * by value and then name, so queries run without locking while products are re-indexed. A
+ * change re-reads the value from the product instead of trusting the order changes are
+ * reported in, so concurrent changes of one product still leave its latest value indexed.
+ * Products whose value is null are left out.
+ * @author Noah Rouse <my_email@noahrouse36@gmail.com>
+ */
+public final class RangeIndex<K extends Comparable<K>> {
+   /**
+    * A product name and its indexed value, or a bound sorting before or after every name
+    * with the same value
+    */
+   private static final class Entry<K extends Comparable<K>> implements Comparable<Entry<K>> {
+      private final K key;
+      private final String name;
+      private final int bound;
+
+      private Entry (final K key, final String name, final int bound) {
+         this.key = key;
+         this.name = name;
+         this.bound = bound;
+      }
+
+      @Override
+      public int compareTo (final Entry<K> other) {
+         final int order = key.compareTo(other.key);
+         if (order != 0) {
+            return order;
+         }
+         if (bound != 0 || other.bound != 0) {
+            return Integer.compare(bound, other.bound);
+         }
+         return name.compareTo(other.name);
+      }
+   }
+
+   private final Function<Product, K> value;
+   private final ConcurrentSkipListSet<Entry<K>> entries = new ConcurrentSkipListSet<Entry<K>>();
+   private final HashMap<String, Entry<K>> current = new HashMap<String, Entry<K>>();
+
+   /**
+    *
+    * @param value reads the indexed value of a product
+    */
+   public RangeIndex (final Function<Product, K> value) {
+      this.value = value;
+   }
+
+   /**
+    * Indexes a product under its current value, replacing any entry it already has
+    * @param product the product
+    */
+   public synchronized void update (final Product product) {
+      final Entry<K> old = current.remove(product.name());
+      if (old != null) {
+         entries.remove(old);
+      }
+      final K key = value.apply(product);
+      if (key != null) {
+         final Entry<K> entry = new Entry<K>(key, product.name(), 0);
+         entries.add(entry);
+         current.put(product.name(), entry);
+      }
+   }
+
+   /**
+    * Removes the entry of a product
+    * @param product the product
+    */
+   public synchronized void remove (final Product product) {
+      final Entry<K> old = current.remove(product.name());
+      if (old != null) {
+         entries.remove(old);
+      }
+   }
+
+   /**
+    * @param from lowest value
+    * @param to highest value
+    * @return names of the products valued from from up to and including to, in order of value
+    */
+   public List<String> between (final K from, final K to) {
+      if (from.compareTo(to) > 0) {
+         return new ArrayList<String>();
+      }
+      return names(entries.subSet(new Entry<K>(from, null, -1), true,
+            new Entry<K>(to, null, 1), true));
+   }
+
+   /**
+    * @param to value every result is below
+    * @return names of the products valued below to, in order of value
+    */
+   public List<String> below (final K to) {
+      return names(entries.headSet(new Entry<K>(to, null, -1), false));
+   }
+
+   /**
+    *
+    * @return amount of products indexed
+    */
+   public synchronized int size () {
+      return current.size();
+   }
+
+   private static <K extends Comparable<K>> List<String> names (final NavigableSet<Entry<K>> set) {
+      final ArrayList<String> names = new ArrayList<String>();
+      for (final Entry<K> entry: set) {
+         names.add(entry.name);
+      }
+      return names;
+   }
+}
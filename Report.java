@@ -0,0 +1,184 @@
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Aggregates over the whole catalog: total inventory value, products per supplier and the
+ * products out of stock. The products are split along the spliterator of the table and the
+ * parts are added up on a fork/join pool, each part keeping its own totals which are merged
+ * as the tasks are joined. Sums are exact BigDecimals and lists are sorted, so the result
+ * does not depend on how the table was split or which thread finished first.
+ *
+ * Suppliers are counted by their SupplierRegistry id and shown under their current name.
+ * @author Noah Rouse <my_email@noahrouse36@gmail.com>
+ */
+public final class Report {
+   private static final int LEAF_SIZE = 8192;
+
+   /**
+    * The amount of products a supplier supplies
+    */
+   private static final class Supplier {
+      private long products;
+   }
+
+   private long products = 0;
+   private long units = 0;
+   private long unpriced = 0;
+   private BigDecimal value = BigDecimal.ZERO;
+   private final HashMap<Integer, Supplier> suppliers = new HashMap<Integer, Supplier>();
+   private final ArrayList<String> outOfStock = new ArrayList<String>();
+
+   private Report () {
+   }
+
+   /**
+    * Reports on a table using the common fork/join pool
+    * @param table contains all products
+    * @return the report
+    */
+   public static Report of (final Table<String, Product> table) {
+      return of(table, ForkJoinPool.commonPool());
+   }
+
+   /**
+    * @param table contains all products
+    * @param pool runs the parts of the report
+    * @return the report
+    */
+   public static Report of (final Table<String, Product> table, final ForkJoinPool pool) {
+      final Report report = pool.invoke(new Part(table.values().spliterator()));
+      Collections.sort(report.outOfStock);
+      return report;
+   }
+
+   /**
+    *
+    * @return amount of products
+    */
+   public long products () {
+      return products;
+   }
+
+   /**
+    *
+    * @return inventory of all products added up
+    */
+   public long units () {
+      return units;
+   }
+
+   /**
+    *
+    * @return amount of products without a price, which are left out of the value
+    */
+   public long unpriced () {
+      return unpriced;
+   }
+
+   /**
+    *
+    * @return sum of price times inventory over all priced products
+    */
+   public BigDecimal value () {
+      return value;
+   }
+
+   /**
+    *
+    * @return amount of products of each supplier, sorted by supplier name
+    */
+   public Map<String, Long> suppliers () {
+      final TreeMap<String, Long> counts = new TreeMap<String, Long>();
+      for (final Map.Entry<Integer, Supplier> supplier: suppliers.entrySet()) {
+         counts.put(SupplierRegistry.name(supplier.getKey()), supplier.getValue().products);
+      }
+      return counts;
+   }
+
+   /**
+    *
+    * @return sorted names of the products without inventory
+    */
+   public List<String> outOfStock () {
+      return Collections.unmodifiableList(outOfStock);
+   }
+
+   /**
+    * Adds a product to the totals
+    */
+   private void add (final Product product) {
+      final int amount = product.amount();
+      final BigDecimal price = product.price();
+      products++;
+      units += amount;
+      if (price == null) {
+         unpriced++;
+      } else {
+         value = value.add(price.multiply(BigDecimal.valueOf(amount)));
+      }
+      if (amount <= 0) {
+         outOfStock.add(product.name());
+      }
+      for (final int id: product.supplierIds()) {
+         supplier(id).products++;
+      }
+   }
+
+   /**
+    * Adds the totals of another part of the table
+    */
+   private void merge (final Report other) {
+      products += other.products;
+      units += other.units;
+      unpriced += other.unpriced;
+      value = value.add(other.value);
+      outOfStock.addAll(other.outOfStock);
+      for (final Map.Entry<Integer, Supplier> supplier: other.suppliers.entrySet()) {
+         supplier(supplier.getKey()).products += supplier.getValue().products;
+      }
+   }
+
+   /**
+    * @return the counter of a supplier
+    */
+   private Supplier supplier (final int id) {
+      return suppliers.computeIfAbsent(id, key -> new Supplier());
+   }
+
+   /**
+    * Reports on a part of the table, forking off halves while the part is large
+    */
+   private static final class Part extends RecursiveTask<Report> {
+      private static final long serialVersionUID = 1L;
+      private final transient Spliterator<Product> products;
+
+      private Part (final Spliterator<Product> products) {
+         this.products = products;
+      }
+
+      @Override
+      protected Report compute () {
+         final ArrayList<Part> forked = new ArrayList<Part>();
+         Spliterator<Product> prefix;
+         while (products.estimateSize() > LEAF_SIZE && (prefix = products.trySplit()) != null) {
+            final Part part = new Part(prefix);
+            part.fork();
+            forked.add(part);
+         }
+         final Report report = new Report();
+         products.forEachRemaining(report::add);
+         for (final Part part: forked) {
+            report.merge(part.join());
+         }
+         return report;
+      }
+   }
+}
@@ -0,0 +1,149 @@
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Serves the commands of Main over TCP, one command per line. The output of every command is
+ * followed by an empty line so clients know where each response ends. Clients may send many
+ * commands without waiting, responses are only flushed once no more input is buffered so a
+ * pipelined batch is answered with a single write.
+ *
+ * Each connection runs on its own virtual thread when the JVM has them and on a pooled
+ * platform thread otherwise. Reading commands run concurrently against the shared table,
+ * commands that change it take the table lock so they reach the journal in the order they
+ * were applied. Each connection has its own Session, so a batch started on one connection
+ * is only seen by the others once it is committed.
+ * @author Noah Rouse <my_email@noahrouse36@gmail.com>
+ */
+public final class Server implements Closeable {
+   private final ServerSocket socket;
+   private final Table<String, Product> table;
+   private final Journal journal;
+   private final Persister persister;
+   private final ExecutorService connections;
+   private final Thread acceptor;
+
+   /**
+    * Binds the server socket, connections are accepted once start is called
+    * @param port port to listen on, 0 for any free port
+    * @param table shared product table, it must be safe to read from several threads
+    * @param journal journal that changing commands are appended to
+    * @param persister writer saving the table in the background
+    * @throws IOException when the port can not be bound
+    */
+   public Server (final int port, final Table<String, Product> table, final Journal journal,
+         final Persister persister) throws IOException {
+      this.socket = new ServerSocket();
+      this.socket.setReuseAddress(true);
+      this.socket.bind(new InetSocketAddress(port), 1024);
+      this.table = table;
+      this.journal = journal;
+      this.persister = persister;
+      this.connections = newConnectionExecutor();
+      this.acceptor = new Thread(this::accept, "server-accept");
+      this.acceptor.setDaemon(true);
+   }
+
+   /**
+    * Starts accepting connections in the background
+    */
+   public void start () {
+      acceptor.start();
+   }
+
+   /**
+    *
+    * @return the port the server listens on
+    */
+   public int port () {
+      return socket.getLocalPort();
+   }
+
+   /**
+    * Waits until the server socket is closed
+    * @throws InterruptedException when interrupted while waiting
+    */
+   public void join () throws InterruptedException {
+      acceptor.join();
+   }
+
+   /**
+    * Stops accepting connections, connections already open are left to finish
+    * @throws IOException when the socket can not be closed
+    */
+   @Override
+   public void close () throws IOException {
+      socket.close();
+      connections.shutdown();
+   }
+
+   private void accept () {
+      while (!socket.isClosed()) {
+         try {
+            final Socket client = socket.accept();
+            client.setTcpNoDelay(true);
+            connections.execute(() -> serve(client));
+         } catch (final SocketException e) {
+            // closed
+         } catch (final IOException e) {
+            e.printStackTrace();
+         }
+      }
+   }
+
+   /**
+    * Runs the commands of one connection until it sends EXIT or disconnects
+    * @param client connected socket
+    */
+   private void serve (final Socket client) {
+      try (Socket connection = client;
+            BufferedReader in = new BufferedReader(new InputStreamReader(
+                  connection.getInputStream(), StandardCharsets.UTF_8), 1 << 16);
+            PrintStream out = new PrintStream(new BufferedOutputStream(
+                  connection.getOutputStream(), 1 << 16), false, "UTF-8")) {
+         final Session session = new Session(table, journal, persister, false);
+         String line;
+         while ((line = in.readLine()) != null) {
+            if (session.execute(Commands.tokenize(line), out) == Main.Status.EXIT) {
+               break;
+            }
+            out.println();
+            if (!in.ready()) {
+               out.flush();
+            }
+         }
+         out.flush();
+      } catch (final IOException e) {
+         // client went away
+      } catch (final RuntimeException e) {
+         e.printStackTrace();
+      }
+   }
+
+   /**
+    * Uses a virtual thread per task executor when the JVM provides one
+    * @return executor running each connection on its own thread
+    */
+   private static ExecutorService newConnectionExecutor () {
+      try {
+         return (ExecutorService) Executors.class
+               .getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+      } catch (final ReflectiveOperationException e) {
+         return Executors.newCachedThreadPool(runnable -> {
+            final Thread thread = new Thread(runnable, "server-connection");
+            thread.setDaemon(true);
+            return thread;
+         });
+      }
+   }
+}
@@ -0,0 +1,256 @@
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * Runs the commands of one client, the console or a server connection. Commands sent between
+ * BATCH and COMMIT are queued and applied together on COMMIT: they run under the table lock
+ * and are written to the journal as a single record. When one of them fails every product
+ * they touched is restored and nothing is written. ROLLBACK discards the queued commands.
+ * Journaled changes are reported to the Persister, which saves them in the background, and
+ * FLUSH and IMPORT wait for it to save once the table lock is released.
+ * @author Noah Rouse <my_email@noahrouse36@gmail.com>
+ */
+public final class Session {
+   private final Table<String, Product> table;
+   private final Journal journal;
+   private final Persister persister;
+   private final boolean lockReads;
+   private ArrayList<String[]> batch = null;
+
+   /**
+    * @param table products the commands run against
+    * @param journal journal that changing commands are appended to
+    * @param persister writer saving the table in the background
+    * @param lockReads true if commands that only read must also take the table lock, as
+    * tables that are not safe to share need
+    */
+   public Session (final Table<String, Product> table, final Journal journal,
+         final Persister persister, final boolean lockReads) {
+      this.table = table;
+      this.journal = journal;
+      this.persister = persister;
+      this.lockReads = lockReads;
+   }
+
+   /**
+    *
+    * @return true if a batch has been started and not yet committed or rolled back
+    */
+   public boolean batching () {
+      return batch != null;
+   }
+
+   /**
+    * Runs a command, queues it while a batch is open or handles BATCH, COMMIT and ROLLBACK
+    * @param cmds the command followed by its arguments
+    * @param out stream the result is printed to
+    * @return status of the command
+    * @throws IOException when the journal can not be written
+    */
+   public Main.Status execute (final String[] cmds, final PrintStream out) throws IOException {
+      final String command = cmds.length == 0 ? "" : cmds[0];
+      if (command.equalsIgnoreCase("BATCH")) {
+         if (batch != null) {
+            out.println("Batch already started");
+            return Main.Status.FAILED;
+         }
+         batch = new ArrayList<String[]>();
+         out.println("Batch started");
+         return Main.Status.READ;
+      } else if (command.equalsIgnoreCase("COMMIT")) {
+         if (batch == null) {
+            out.println("No batch started");
+            return Main.Status.FAILED;
+         }
+         final ArrayList<String[]> commands = batch;
+         batch = null;
+         return commit(commands.iterator(), out) ? Main.Status.CHANGED : Main.Status.FAILED;
+      } else if (command.equalsIgnoreCase("ROLLBACK")) {
+         if (batch == null) {
+            out.println("No batch started");
+            return Main.Status.FAILED;
+         }
+         out.printf("Discarded %d commands\n", batch.size());
+         batch = null;
+         return Main.Status.READ;
+      } else if (batch != null) {
+         if (command.equalsIgnoreCase("EXIT")) {
+            out.printf("Discarded %d commands\n", batch.size());
+            batch = null;
+            return Main.Status.EXIT;
+         }
+         batch.add(cmds);
+         return Main.Status.READ;
+      }
+
+      final Main.Status status;
+      if (!lockReads && !Commands.mutates(command)) {
+         status = Main.execute(cmds, table, out);
+      } else {
+         synchronized (table) {
+            status = Main.execute(cmds, table, out);
+            if (status == Main.Status.CHANGED) {
+               journal.append(cmds);
+            }
+         }
+      }
+      if (status == Main.Status.CHANGED) {
+         changed(1);
+      } else if (status == Main.Status.SAVE) {
+         save(out);
+      }
+      return status;
+   }
+
+   /**
+    * Runs every line of a file as one batch, the file is read while it is applied
+    * @param path file holding one command per line
+    * @param out stream the results are printed to
+    * @return true if the batch was committed, false if it was rolled back
+    * @throws IOException when the file can not be read or the journal can not be written
+    */
+   public boolean script (final Path path, final PrintStream out) throws IOException {
+      try (Stream<String> lines = Files.lines(path, StandardCharsets.UTF_8)) {
+         return commit(lines.map(Commands::tokenize).iterator(), out);
+      }
+   }
+
+   /**
+    * Applies commands in memory and journals the ones that changed the table as one record,
+    * restoring the table if a command fails or the journal can not be written
+    * @param commands the commands, each followed by its arguments
+    * @param out stream the results are printed to
+    * @return true if the batch was committed, false if it was rolled back
+    * @throws IOException when the journal can not be written
+    */
+   public boolean commit (final Iterator<String[]> commands, final PrintStream out)
+         throws IOException {
+      final long start = System.nanoTime();
+      final ArrayList<String[]> changed = new ArrayList<String[]>();
+      final HashMap<String, Product> undo = new HashMap<String, Product>();
+      int count = 0;
+      boolean save = false;
+      synchronized (table) {
+         try {
+            while (commands.hasNext()) {
+               final String[] cmds = commands.next();
+               count++;
+               // neither can be undone product by product
+               if (cmds.length > 0 && (cmds[0].equalsIgnoreCase("IMPORT")
+                     || cmds[0].equalsIgnoreCase("RENAMESUPPLIER"))) {
+                  restore(undo);
+                  out.printf("Batch rolled back, command %d can not be part of a batch: %s\n",
+                        count, String.join(" ", cmds));
+                  return false;
+               }
+               if (cmds.length >= 2 && cmds[0].equalsIgnoreCase("REMOVESUPPLIEREVERYWHERE")) {
+                  // the argument is a supplier, the products it is removed from are touched
+                  for (final String name: Catalog.suppliersOf(table).products(cmds[1])) {
+                     remember(undo, name);
+                  }
+               } else if (cmds.length >= 2 && Commands.mutates(cmds[0])) {
+                  remember(undo, cmds[1]);
+               }
+
+               final Main.Status status = Main.execute(cmds, table, out);
+               if (status == Main.Status.FAILED) {
+                  restore(undo);
+                  out.printf("Batch rolled back, command %d failed: %s\n", count,
+                        String.join(" ", cmds));
+                  return false;
+               } else if (status == Main.Status.EXIT) {
+                  break;
+               } else if (status == Main.Status.CHANGED) {
+                  changed.add(cmds);
+               } else if (status == Main.Status.SAVE) {
+                  save = true;
+               }
+            }
+            journal.append(changed);
+         } catch (final IOException | RuntimeException e) {
+            restore(undo);
+            throw e;
+         }
+      }
+
+      final double seconds = (System.nanoTime() - start) / 1e9;
+      out.printf("Committed %d commands in %.3f s (%.0f commands/s)\n", count, seconds,
+            count / Math.max(seconds, 1e-9));
+      changed(changed.size());
+      if (save) {
+         save(out);
+      }
+      return true;
+   }
+
+   /**
+    * Marks the table dirty once changes are in the journal
+    * @param changes amount of commands journaled
+    */
+   private void changed (final int changes) {
+      if (changes > 0) {
+         persister.changed(changes);
+      }
+   }
+
+   /**
+    * Saves the table and waits for it, called without holding the table lock as the save
+    * takes it to encode the table
+    * @param out stream the outcome is printed to
+    * @throws IOException when interrupted while waiting
+    */
+   private void save (final PrintStream out) throws IOException {
+      final boolean saved;
+      try {
+         saved = persister.flush();
+      } catch (final InterruptedException e) {
+         Thread.currentThread().interrupt();
+         throw new InterruptedIOException("Interrupted while saving");
+      }
+      out.println(saved ? "Catalog saved" : "Could not save the catalog");
+   }
+
+   /**
+    * Copies a product the batch is about to touch, unless an earlier command already did
+    * @param undo copies of the products touched by the batch
+    * @param name name of a product
+    */
+   private void remember (final Map<String, Product> undo, final String name) {
+      if (!undo.containsKey(name)) {
+         undo.put(name, copy(name));
+      }
+   }
+
+   /**
+    * @param name name of a product
+    * @return a copy of the product or null if the table does not have it
+    */
+   private Product copy (final String name) {
+      final Product product = table.getOrNull(name);
+      return product == null ? null : new Product(product);
+   }
+
+   /**
+    * Puts back the products as they were before the batch
+    * @param undo copies of the products touched by the batch, null for ones that were absent
+    */
+   private void restore (final Map<String, Product> undo) {
+      for (final Map.Entry<String, Product> entry: undo.entrySet()) {
+         if (entry.getValue() != null) {
+            table.put(entry.getKey(), entry.getValue());
+            continue;
+         }
+         // nothing is removed for a product that was never added
+         table.removeOrNull(entry.getKey());
+      }
+   }
+}
@@ -0,0 +1,732 @@
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.StreamCorruptedException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+
+/**
+ * Reads and writes the product table in a compact versioned binary format.
+ *
+ * Layout: magic, version, journal sequence, the supplier dictionary and then every product
+ * as its name, inventory, price and the dictionary ids of its suppliers. Strings are written
+ * as a varint byte length followed by UTF-8, inventory as a zigzag varint and prices as their
+ * scale and unscaled value, using a varint long when the unscaled value fits.
+ *
+ * Since version 2 the products are followed by an open addressing hash index over the names
+ * and a fixed size footer pointing at it, so MappedProductStore can find a single product
+ * without reading the rest. Each index slot is a long holding the top 24 bits of the name
+ * hash and the 40 bit file offset of the product, 0 marks an empty slot.
+ *
+ * A delta snapshot holds only the products changed or removed since an earlier snapshot, see
+ * SnapshotStore. Its layout is its own magic, version, the sequence of the snapshot it follows
+ * and its own sequence, a supplier dictionary, the changed products written as above, the
+ * names of the removed products and the magic again.
+ *
+ * Files written by the old Java serialization format are still read so they can be migrated.
+ * @author Noah Rouse <my_email@noahrouse36@gmail.com>
+ */
+public final class SnapshotCodec {
+   static final int MAGIC = 0x504D5343;
+   static final int VERSION = 2;
+   static final int FOOTER_SIZE = 16;
+   static final int DELTA_MAGIC = 0x504D5344;
+   static final int DELTA_VERSION = 1;
+   private static final int BUFFER_SIZE = 1 << 20;
+   private static final short SERIALIZATION_MAGIC = (short) 0xACED;
+
+   private static final int PRICE_NONE = 0;
+   private static final int PRICE_LONG = 1;
+   private static final int PRICE_BIG = 2;
+
+   /**
+    * A table read from disk and the sequence number of the last journal record it holds
+    */
+   static final class Snapshot {
+      final HashTable<String, Product> table;
+      final long sequence;
+      final boolean legacy;
+
+      /**
+       *
+       * @param table the table that was read
+       * @param sequence last journal record contained in the table
+       * @param legacy true if the file used the old Java serialization format
+       */
+      Snapshot (final HashTable<String, Product> table, final long sequence,
+            final boolean legacy) {
+         this.table = table;
+         this.sequence = sequence;
+         this.legacy = legacy;
+      }
+   }
+
+   /**
+    * The products changed and removed between two snapshots
+    */
+   static final class Delta {
+      final long after;
+      final long sequence;
+      final ArrayList<Product> products;
+      final ArrayList<String> removed;
+
+      /**
+       *
+       * @param after sequence of the snapshot the delta follows
+       * @param sequence last journal record contained in the delta
+       * @param products products added or changed, null when only the header was read
+       * @param removed names of the products removed, null when only the header was read
+       */
+      Delta (final long after, final long sequence, final ArrayList<Product> products,
+            final ArrayList<String> removed) {
+         this.after = after;
+         this.sequence = sequence;
+         this.products = products;
+         this.removed = removed;
+      }
+   }
+
+   /**
+    * A snapshot encoded in memory, held in chunks of BUFFER_SIZE bytes so it never has to be
+    * copied into one array. It takes about as much heap as the file it becomes and is bounded
+    * by the 40 bit offsets of the index rather than by the largest array.
+    */
+   static final class Image implements WritableByteChannel {
+      private final ArrayList<byte[]> chunks = new ArrayList<byte[]>();
+      private long size = 0;
+
+      /**
+       *
+       * @return amount of bytes encoded
+       */
+      long size () {
+         return size;
+      }
+
+      @Override
+      public int write (final ByteBuffer src) {
+         final int length = src.remaining();
+         while (src.hasRemaining()) {
+            final int used = (int) (size % BUFFER_SIZE);
+            if (used == 0) {
+               chunks.add(new byte[BUFFER_SIZE]);
+            }
+            final int count = Math.min(src.remaining(), BUFFER_SIZE - used);
+            src.get(chunks.get(chunks.size() - 1), used, count);
+            size += count;
+         }
+         return length;
+      }
+
+      /**
+       * Writes every chunk to the channel
+       * @param channel channel being written
+       * @throws IOException when writing fails
+       */
+      void writeTo (final WritableByteChannel channel) throws IOException {
+         long left = size;
+         for (final byte[] chunk: chunks) {
+            final ByteBuffer slice = ByteBuffer.wrap(chunk, 0, (int) Math.min(left, BUFFER_SIZE));
+            left -= slice.remaining();
+            while (slice.hasRemaining()) {
+               channel.write(slice);
+            }
+         }
+      }
+
+      @Override
+      public boolean isOpen () {
+         return true;
+      }
+
+      @Override
+      public void close () {
+      }
+   }
+
+   private SnapshotCodec () {
+   }
+
+   /**
+    * Writes the table to a temporary file which is forced to disk and then moved over the
+    * given file, so a crash leaves either the old or the new snapshot
+    * @param table products being saved
+    * @param sequence last journal record contained in the table
+    * @param path file being written
+    * @throws IOException when writing fails
+    */
+   public static void write (final Table<String, Product> table, final long sequence,
+         final Path path) throws IOException {
+      persist(encode(table, sequence), path);
+   }
+
+   /**
+    * Encodes the table in memory, so the table only has to stay unchanged while it is read
+    * and not while the file is written and forced to disk
+    * @param table products being saved
+    * @param sequence last journal record contained in the table
+    * @return the snapshot file as it will be written
+    */
+   public static Image encode (final Table<String, Product> table, final long sequence) {
+      final Collection<Product> products = table.values();
+      // dictionary ids of the file by SupplierRegistry id
+      final HashTable<Integer, Integer> ids = new HashTable<Integer, Integer>();
+      final ArrayList<String> dictionary = dictionary(products, ids);
+
+      final Image image = new Image();
+      try (Writer out = new Writer(image)) {
+         out.int32(MAGIC);
+         out.varint(VERSION);
+         out.varlong(sequence);
+         out.varint(dictionary.size());
+         for (final String supplier: dictionary) {
+            out.string(supplier);
+         }
+
+         final int count = products.size();
+         final int capacity = indexCapacity(count);
+         final long[] index = new long[capacity];
+         out.varint(count);
+         for (final Product product: products) {
+            insert(index, hash(product.name()), out.position());
+            writeProduct(out, product, ids);
+         }
+
+         final long indexOffset = out.position();
+         for (final long slot: index) {
+            out.int64(slot);
+         }
+         out.int64(indexOffset);
+         out.int32(capacity);
+         out.int32(MAGIC);
+         out.flush();
+      } catch (final IOException e) {
+         // the image is in memory and never fails
+         throw new UncheckedIOException(e);
+      }
+      return image;
+   }
+
+   /**
+    * Encodes a delta snapshot in memory
+    * @param products products added or changed since the snapshot the delta follows
+    * @param removed names of the products removed since then
+    * @param after sequence of the snapshot the delta follows
+    * @param sequence last journal record contained in the delta
+    * @return the delta file as it will be written
+    */
+   public static Image encodeDelta (final Collection<Product> products,
+         final Collection<String> removed, final long after, final long sequence) {
+      final HashTable<Integer, Integer> ids = new HashTable<Integer, Integer>();
+      final ArrayList<String> dictionary = dictionary(products, ids);
+
+      final Image image = new Image();
+      try (Writer out = new Writer(image)) {
+         out.int32(DELTA_MAGIC);
+         out.varint(DELTA_VERSION);
+         out.varlong(after);
+         out.varlong(sequence);
+         out.varint(dictionary.size());
+         for (final String supplier: dictionary) {
+            out.string(supplier);
+         }
+         out.varint(products.size());
+         for (final Product product: products) {
+            writeProduct(out, product, ids);
+         }
+         out.varint(removed.size());
+         for (final String name: removed) {
+            out.string(name);
+         }
+         out.int32(DELTA_MAGIC);
+         out.flush();
+      } catch (final IOException e) {
+         throw new UncheckedIOException(e);
+      }
+      return image;
+   }
+
+   /**
+    * Writes an encoded snapshot to a temporary file which is forced to disk and then moved
+    * over the given file, so a crash leaves either the old or the new snapshot
+    * @param image snapshot returned by encode
+    * @param path file being written
+    * @throws IOException when writing fails
+    */
+   public static void persist (final Image image, final Path path) throws IOException {
+      final Path temp = Paths.get(path + ".tmp");
+      try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+         // chunk by chunk, a single write would copy all of it into a direct buffer
+         image.writeTo(channel);
+         channel.force(true);
+      }
+      Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+   }
+
+   /**
+    * Reads a snapshot in either the binary format or the old Java serialization format
+    * @param path file being read
+    * @return the snapshot read
+    * @throws IOException when the file can not be read or is not a snapshot
+    */
+   public static Snapshot read (final Path path) throws IOException {
+      try (Reader in = new Reader(FileChannel.open(path, StandardOpenOption.READ))) {
+         if (in.peekShort() == SERIALIZATION_MAGIC) {
+            return readLegacy(path);
+         }
+         if (in.int32() != MAGIC) {
+            throw new StreamCorruptedException("Not a snapshot: " + path);
+         }
+         final int version = in.varint();
+         if (version < 1 || version > VERSION) {
+            throw new StreamCorruptedException("Unsupported snapshot version " + version);
+         }
+
+         final long sequence = in.varlong();
+         final int[] supplierIds = new int[in.varint()];
+         for (int i = 0; i < supplierIds.length; i++) {
+            supplierIds[i] = SupplierRegistry.id(in.string());
+         }
+
+         // the index after the products is only used by MappedProductStore
+         final int count = in.varint();
+         final HashTable<String, Product> table = new HashTable<String, Product>(count);
+         for (int i = 0; i < count; i++) {
+            final Product product = readProduct(in, supplierIds);
+            table.put(product.name(), product);
+         }
+         return new Snapshot(table, sequence, false);
+      }
+   }
+
+   /**
+    * Reads a delta snapshot
+    * @param path file being read
+    * @param headerOnly true to only read which snapshots the delta lies between
+    * @return the delta read
+    * @throws IOException when the file can not be read or is not a delta snapshot
+    */
+   public static Delta readDelta (final Path path, final boolean headerOnly) throws IOException {
+      try (Reader in = new Reader(FileChannel.open(path, StandardOpenOption.READ))) {
+         if (in.int32() != DELTA_MAGIC) {
+            throw new StreamCorruptedException("Not a delta snapshot: " + path);
+         }
+         final int version = in.varint();
+         if (version != DELTA_VERSION) {
+            throw new StreamCorruptedException("Unsupported delta version " + version);
+         }
+         final long after = in.varlong();
+         final long sequence = in.varlong();
+         if (headerOnly) {
+            return new Delta(after, sequence, null, null);
+         }
+
+         final int[] supplierIds = new int[in.varint()];
+         for (int i = 0; i < supplierIds.length; i++) {
+            supplierIds[i] = SupplierRegistry.id(in.string());
+         }
+         final int count = in.varint();
+         final ArrayList<Product> products = new ArrayList<Product>(count);
+         for (int i = 0; i < count; i++) {
+            products.add(readProduct(in, supplierIds));
+         }
+         final int removedCount = in.varint();
+         final ArrayList<String> removed = new ArrayList<String>(removedCount);
+         for (int i = 0; i < removedCount; i++) {
+            removed.add(in.string());
+         }
+         if (in.int32() != DELTA_MAGIC) {
+            throw new StreamCorruptedException("Truncated delta snapshot: " + path);
+         }
+         return new Delta(after, sequence, products, removed);
+      }
+   }
+
+   /**
+    * Numbers the suppliers of the products in the order they are first seen
+    * @param products products being saved
+    * @param ids receives the dictionary id of each SupplierRegistry id
+    * @return the supplier names by dictionary id
+    */
+   private static ArrayList<String> dictionary (final Collection<Product> products,
+         final HashTable<Integer, Integer> ids) {
+      final ArrayList<String> dictionary = new ArrayList<String>();
+      for (final Product product: products) {
+         for (final int supplier: product.supplierIds()) {
+            if (ids.putIfAbsent(supplier, dictionary.size()) == null) {
+               dictionary.add(SupplierRegistry.name(supplier));
+            }
+         }
+      }
+      return dictionary;
+   }
+
+   private static void writeProduct (final Writer out, final Product product,
+         final HashTable<Integer, Integer> ids) throws IOException {
+      out.string(product.name());
+      out.varlong(zigzag(product.amount()));
+      writePrice(out, product.price());
+      final int[] suppliers = product.supplierIds();
+      out.varint(suppliers.length);
+      for (final int supplier: suppliers) {
+         out.varint(ids.get(supplier));
+      }
+   }
+
+   private static Product readProduct (final Reader in, final int[] supplierIds)
+         throws IOException {
+      final String name = in.string();
+      final int inventory = (int) unzigzag(in.varlong());
+      final BigDecimal price = readPrice(in);
+      final int[] ids = new int[in.varint()];
+      for (int j = 0; j < ids.length; j++) {
+         ids[j] = supplierIds[in.varint()];
+      }
+      return new Product(name, SupplierRegistry.sortedSet(ids), inventory, price);
+   }
+
+   /**
+    * Reads a table saved through ObjectOutputStream, optionally followed by the sequence
+    * @param path file being read
+    * @return the snapshot read
+    * @throws IOException when the file can not be read
+    */
+   private static Snapshot readLegacy (final Path path) throws IOException {
+      try (InputStream fileIn = Files.newInputStream(path);
+            ObjectInputStream objIn = new ObjectInputStream(new BufferedInputStream(fileIn))) {
+         @SuppressWarnings("unchecked")
+         final HashTable<String, Product> table = (HashTable<String, Product>) objIn.readObject();
+         long sequence = 0;
+         try {
+            sequence = objIn.readLong();
+         } catch (final EOFException e) {
+            // saved before the journal existed
+         }
+         return new Snapshot(table, sequence, true);
+      } catch (final ClassNotFoundException e) {
+         throw new StreamCorruptedException(e.toString());
+      }
+   }
+
+   private static void writePrice (final Writer out, final BigDecimal price)
+         throws IOException {
+      if (price == null) {
+         out.varint(PRICE_NONE);
+         return;
+      }
+
+      final BigInteger unscaled = price.unscaledValue();
+      if (unscaled.bitLength() < 64) {
+         out.varint(PRICE_LONG);
+         out.varlong(zigzag(price.scale()));
+         out.varlong(zigzag(unscaled.longValue()));
+      } else {
+         final byte[] bytes = unscaled.toByteArray();
+         out.varint(PRICE_BIG);
+         out.varlong(zigzag(price.scale()));
+         out.varint(bytes.length);
+         out.bytes(bytes, 0, bytes.length);
+      }
+   }
+
+   private static BigDecimal readPrice (final Reader in) throws IOException {
+      final int kind = in.varint();
+      if (kind == PRICE_NONE) {
+         return null;
+      }
+
+      final int scale = (int) unzigzag(in.varlong());
+      if (kind == PRICE_LONG) {
+         return BigDecimal.valueOf(unzigzag(in.varlong()), scale);
+      }
+      if (kind == PRICE_BIG) {
+         return new BigDecimal(new BigInteger(in.bytes(in.varint())), scale);
+      }
+      throw new StreamCorruptedException("Unknown price encoding " + kind);
+   }
+
+   /**
+    * Decodes the product record at the position of the buffer
+    * @param buffer buffer positioned at the start of a record
+    * @param supplierIds SupplierRegistry ids of the dictionary of the file
+    * @return the decoded product
+    */
+   static Product readProduct (final ByteBuffer buffer, final int[] supplierIds) {
+      final String name = readString(buffer);
+      final int inventory = (int) unzigzag(readVarLong(buffer));
+      final int kind = (int) readVarLong(buffer);
+      BigDecimal price = null;
+      if (kind != PRICE_NONE) {
+         final int scale = (int) unzigzag(readVarLong(buffer));
+         if (kind == PRICE_LONG) {
+            price = BigDecimal.valueOf(unzigzag(readVarLong(buffer)), scale);
+         } else {
+            final byte[] bytes = new byte[(int) readVarLong(buffer)];
+            buffer.get(bytes);
+            price = new BigDecimal(new BigInteger(bytes), scale);
+         }
+      }
+      final int[] ids = new int[(int) readVarLong(buffer)];
+      for (int j = 0; j < ids.length; j++) {
+         ids[j] = supplierIds[(int) readVarLong(buffer)];
+      }
+      return new Product(name, SupplierRegistry.sortedSet(ids), inventory, price);
+   }
+
+   /**
+    * Reads a varint at the position of the buffer
+    * @param buffer buffer being read
+    * @return the value read
+    */
+   static long readVarLong (final ByteBuffer buffer) {
+      long value = 0;
+      int shift = 0;
+      byte b;
+      do {
+         b = buffer.get();
+         value |= (long) (b & 0x7F) << shift;
+         shift += 7;
+      } while (b < 0);
+      return value;
+   }
+
+   /**
+    * Reads a length-prefixed UTF-8 string at the position of the buffer
+    * @param buffer buffer being read
+    * @return the string read
+    */
+   static String readString (final ByteBuffer buffer) {
+      final byte[] bytes = new byte[(int) readVarLong(buffer)];
+      buffer.get(bytes);
+      return new String(bytes, StandardCharsets.UTF_8);
+   }
+
+   /**
+    * Spreads the bits of the name hash the same way on every run
+    * @param name product name
+    * @return mixed hash of the name
+    */
+   static int hash (final String name) {
+      final int h = name.hashCode() * 0x9E3779B9;
+      return h ^ (h >>> 16);
+   }
+
+   /**
+    * Power of two amount of index slots that keeps the index at most half full
+    * @param count amount of products
+    * @return amount of slots
+    */
+   private static int indexCapacity (final int count) {
+      int capacity = 2;
+      while (capacity < count * 2L) {
+         capacity <<= 1;
+      }
+      return capacity;
+   }
+
+   /**
+    * Adds a product offset to the index under the hash of its name
+    */
+   private static void insert (final long[] index, final int hash, final long offset) {
+      final int mask = index.length - 1;
+      int i = hash & mask;
+      while (index[i] != 0) {
+         i = (i + 1) & mask;
+      }
+      index[i] = ((long) (hash >>> 8) << 40) | offset;
+   }
+
+   private static long zigzag (final long value) {
+      return (value << 1) ^ (value >> 63);
+   }
+
+   static long unzigzag (final long value) {
+      return (value >>> 1) ^ -(value & 1);
+   }
+
+   /**
+    * Buffers writes to a channel in a large direct buffer
+    */
+   private static final class Writer implements Closeable {
+      private final WritableByteChannel channel;
+      private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+      private long flushed = 0;
+
+      private Writer (final WritableByteChannel channel) {
+         this.channel = channel;
+      }
+
+      private long position () {
+         return flushed + buffer.position();
+      }
+
+      private void ensure (final int bytes) throws IOException {
+         if (buffer.remaining() < bytes) {
+            flush();
+         }
+      }
+
+      private void flush () throws IOException {
+         buffer.flip();
+         flushed += buffer.remaining();
+         while (buffer.hasRemaining()) {
+            channel.write(buffer);
+         }
+         buffer.clear();
+      }
+
+      private void int32 (final int value) throws IOException {
+         ensure(4);
+         buffer.putInt(value);
+      }
+
+      private void int64 (final long value) throws IOException {
+         ensure(8);
+         buffer.putLong(value);
+      }
+
+      private void varint (final int value) throws IOException {
+         varlong(value & 0xFFFFFFFFL);
+      }
+
+      private void varlong (long value) throws IOException {
+         ensure(10);
+         while ((value & ~0x7FL) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+         }
+         buffer.put((byte) value);
+      }
+
+      private void bytes (final byte[] bytes, final int offset, final int length)
+            throws IOException {
+         if (length > buffer.capacity()) {
+            flush();
+            final ByteBuffer wrapped = ByteBuffer.wrap(bytes, offset, length);
+            flushed += length;
+            while (wrapped.hasRemaining()) {
+               channel.write(wrapped);
+            }
+            return;
+         }
+         ensure(length);
+         buffer.put(bytes, offset, length);
+      }
+
+      private void string (final String value) throws IOException {
+         final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+         varint(bytes.length);
+         bytes(bytes, 0, bytes.length);
+      }
+
+      @Override
+      public void close () throws IOException {
+         channel.close();
+      }
+   }
+
+   /**
+    * Reads from a channel through a large direct buffer
+    */
+   private static final class Reader implements Closeable {
+      private final FileChannel channel;
+      private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+      private byte[] scratch = new byte[256];
+
+      private Reader (final FileChannel channel) {
+         this.channel = channel;
+         buffer.limit(0);
+      }
+
+      private void ensure (final int bytes) throws IOException {
+         if (buffer.remaining() >= bytes) {
+            return;
+         }
+         buffer.compact();
+         while (buffer.position() < bytes) {
+            if (channel.read(buffer) < 0) {
+               throw new EOFException("Snapshot is truncated");
+            }
+         }
+         buffer.flip();
+      }
+
+      private short peekShort () throws IOException {
+         ensure(2);
+         return buffer.getShort(buffer.position());
+      }
+
+      private int int32 () throws IOException {
+         ensure(4);
+         return buffer.getInt();
+      }
+
+      private int varint () throws IOException {
+         final long value = varlong();
+         if (value < 0 || value > Integer.MAX_VALUE) {
+            throw new StreamCorruptedException("Length out of range: " + value);
+         }
+         return (int) value;
+      }
+
+      private long varlong () throws IOException {
+         long value = 0;
+         for (int shift = 0; shift < 64; shift += 7) {
+            ensure(1);
+            final byte b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+               return value;
+            }
+         }
+         throw new StreamCorruptedException("Malformed varint");
+      }
+
+      private byte[] bytes (final int length) throws IOException {
+         final byte[] bytes = new byte[length];
+         read(bytes, length);
+         return bytes;
+      }
+
+      private void read (final byte[] bytes, final int length) throws IOException {
+         int read = 0;
+         while (read < length) {
+            ensure(1);
+            final int chunk = Math.min(buffer.remaining(), length - read);
+            buffer.get(bytes, read, chunk);
+            read += chunk;
+         }
+      }
+
+      private String string () throws IOException {
+         final int length = varint();
+         if (length > scratch.length) {
+            scratch = new byte[Math.max(length, scratch.length * 2)];
+         }
+         read(scratch, length);
+         return new String(scratch, 0, length, StandardCharsets.UTF_8);
+      }
+
+      @Override
+      public void close () throws IOException {
+         channel.close();
+      }
+   }
+}
@@ -0,0 +1,378 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The snapshots of the catalog on disk: a full snapshot, data.sav, followed by delta
+ * snapshots data.sav.delta.N that each hold only the products changed or removed since the
+ * file before them, up to journal record N. Every delta names the sequence of the file it
+ * follows, so loading starts at data.sav and layers the deltas that chain on from it. A
+ * catalog of millions of products of which a few thousand change between saves is saved by
+ * writing those few thousand, which the Catalog remembers once trackChanges is called.
+ *
+ * A save writes the full table instead when a quarter of the products changed, when the
+ * deltas have grown to half the size of data.sav, after a supplier was renamed, which
+ * changes products without telling them, or after a save failed. A full save removes the
+ * deltas it replaces. Once mergeAt deltas exist a background merger folds them into one that
+ * keeps the last version of each product, so loading reads every product once.
+ *
+ * Every file is written to a temporary file that is forced and moved into place, a crash
+ * leaves the files before or after the save and the journal still holds what they lack.
+ * @author Noah Rouse <my_email@noahrouse36@gmail.com>
+ */
+public final class SnapshotStore implements Closeable {
+   private static final String DELTA = ".delta.";
+   private static final int FULL_FRACTION = 4;
+   private static final int DELTA_FRACTION = 2;
+
+   private final Path path;
+   private final int mergeAt;
+   private final ArrayList<Path> chain;
+   private ExecutorService merger = null;
+   private long fullSequence;
+   private long sequence;
+   private long fullBytes;
+   private long deltaBytes = 0;
+   private int renames = SupplierRegistry.renames();
+   private boolean fullNeeded = false;
+   private boolean merging = false;
+
+   /**
+    * Finds the deltas that follow the full snapshot
+    * @param fileName file of the full snapshot
+    * @param sequence sequence the full snapshot was saved at
+    * @param mergeAt amount of deltas that are merged into one, 0 or 1 to never merge
+    * @throws IOException when the directory or a delta can not be read
+    */
+   public SnapshotStore (final String fileName, final long sequence, final int mergeAt)
+         throws IOException {
+      this.path = Paths.get(fileName);
+      this.mergeAt = mergeAt;
+      this.fullSequence = sequence;
+      this.fullBytes = Files.exists(path) ? Files.size(path) : 0;
+      this.chain = chain(path, sequence);
+      this.sequence = chain.isEmpty() ? sequence : sequenceOf(chain.get(chain.size() - 1));
+      for (final Path delta: chain) {
+         deltaBytes += Files.size(delta);
+      }
+   }
+
+   /**
+    *
+    * @return sequence of the last snapshot, full or delta
+    */
+   public synchronized long sequence () {
+      return sequence;
+   }
+
+   /**
+    * Applies the deltas to the products read from the full snapshot
+    * @param table products of the full snapshot
+    * @return sequence of the last delta applied, the journal is replayed after it
+    * @throws IOException when a delta can not be read
+    */
+   public synchronized long layer (final Table<String, Product> table) throws IOException {
+      for (final Path delta: chain) {
+         final SnapshotCodec.Delta changes = SnapshotCodec.readDelta(delta, false);
+         for (final Product product: changes.products) {
+            table.put(product.name(), product);
+         }
+         for (final String name: changes.removed) {
+            table.removeOrNull(name);
+         }
+      }
+      return sequence;
+   }
+
+   /**
+    * Saves the changes since the last save and drops the journal records they hold, as a
+    * delta when the table is a Catalog tracking its changes and in full otherwise. The table
+    * lock is only held while the changes are encoded in memory.
+    * @param table contains all products
+    * @param journal journal of the commands since the last save
+    * @param force true to save even when nothing changed, a Catalog that tracks its changes
+    * knows nothing needs saving
+    * @return true if the changes were saved or there was nothing to save
+    */
+   public synchronized boolean save (final Table<String, Product> table, final Journal journal,
+         final boolean force) {
+      final Catalog catalog = table instanceof Catalog && ((Catalog) table).tracksChanges()
+            ? (Catalog) table
+            : null;
+      boolean taken = false;
+      boolean saved = false;
+      try {
+         final Stats.SaveEvent event = Stats.beginSave();
+         final long start = System.nanoTime();
+         final SnapshotCodec.Image image;
+         final boolean full;
+         final long mark;
+         final long saving;
+         synchronized (table) {
+            final int changes = catalog == null ? 0 : catalog.changes();
+            if ((!force || catalog != null) && journal.size() == 0 && changes == 0) {
+               return true;
+            }
+            mark = journal.position();
+            // changes that were not journaled still need a sequence of their own
+            saving = journal.sequence() > sequence ? journal.sequence() : journal.advance();
+            full = catalog == null || fullNeeded || renames != SupplierRegistry.renames()
+                  || changes > table.size() / FULL_FRACTION
+                  || deltaBytes > fullBytes / DELTA_FRACTION;
+            renames = SupplierRegistry.renames();
+            final Set<String> names = catalog == null ? null : catalog.takeChanges();
+            taken = true;
+            image = full
+                  ? SnapshotCodec.encode(table, saving)
+                  : encodeChanges(catalog, names, sequence, saving);
+         }
+
+         final Path file = full ? path : delta(saving);
+         if (!Main.writeSnapshot(image, file.toString(), event, start)) {
+            return false;
+         }
+         if (full) {
+            fullNeeded = false;
+            fullSequence = saving;
+            fullBytes = image.size();
+            deltaBytes = 0;
+            chain.clear();
+            deleteDeltas(path, saving);
+         } else {
+            chain.add(file);
+            deltaBytes += image.size();
+            if (mergeAt > 1 && chain.size() >= mergeAt && !merging) {
+               merging = true;
+               merger().execute(this::merge);
+            }
+         }
+         sequence = saving;
+         saved = true;
+         journal.truncate(mark);
+         return true;
+      } catch (final IOException e) {
+         e.printStackTrace();
+         return false;
+      } finally {
+         if (taken && !saved) {
+            // the changes handed over are lost, only a full save is sure to hold them
+            fullNeeded = true;
+         }
+      }
+   }
+
+   /**
+    * Waits for a merge that is running and stops the merger
+    */
+   @Override
+   public void close () {
+      final ExecutorService running;
+      synchronized (this) {
+         running = merger;
+         merger = null;
+      }
+      if (running == null) {
+         return;
+      }
+      running.shutdown();
+      try {
+         running.awaitTermination(1, TimeUnit.MINUTES);
+      } catch (final InterruptedException e) {
+         Thread.currentThread().interrupt();
+      }
+   }
+
+   /**
+    * Removes the deltas a full snapshot replaces, including ones left behind by a crash
+    * @param fileName file of the full snapshot
+    * @param sequence sequence the full snapshot was saved at, -1 to remove every delta
+    * @throws IOException when the directory can not be read or a delta can not be removed
+    */
+   public static void deleteDeltas (final String fileName, final long sequence)
+         throws IOException {
+      deleteDeltas(Paths.get(fileName), sequence);
+   }
+
+   /**
+    * Encodes the products that changed as they are now, names the table lacks were removed
+    */
+   private static SnapshotCodec.Image encodeChanges (final Catalog catalog, final Set<String> names,
+         final long after, final long sequence) {
+      final ArrayList<Product> products = new ArrayList<Product>(names.size());
+      final ArrayList<String> removed = new ArrayList<String>();
+      for (final String name: names) {
+         // read from the storage so the lookups do not count as the catalog's
+         final Product product = catalog.table().getOrNull(name);
+         if (product != null) {
+            products.add(product);
+         } else {
+            removed.add(name);
+         }
+      }
+      return SnapshotCodec.encodeDelta(products, removed, after, sequence);
+   }
+
+   /**
+    * Folds the deltas there are now into one, replacing the last of them. Saves go on while
+    * the deltas are read and encoded, a full save made meanwhile makes the merge pointless.
+    */
+   private void merge () {
+      final List<Path> merged;
+      final long base;
+      synchronized (this) {
+         merged = new ArrayList<Path>(chain);
+         base = fullSequence;
+      }
+      try {
+         final LinkedHashMap<String, Product> products = new LinkedHashMap<String, Product>();
+         final HashSet<String> removed = new HashSet<String>();
+         for (final Path delta: merged) {
+            final SnapshotCodec.Delta changes = SnapshotCodec.readDelta(delta, false);
+            for (final Product product: changes.products) {
+               removed.remove(product.name());
+               products.put(product.name(), product);
+            }
+            for (final String name: changes.removed) {
+               products.remove(name);
+               removed.add(name);
+            }
+         }
+         final Path last = merged.get(merged.size() - 1);
+         final SnapshotCodec.Image image = SnapshotCodec.encodeDelta(products.values(), removed,
+               afterOf(merged.get(0)), sequenceOf(last));
+
+         synchronized (this) {
+            if (fullSequence != base) {
+               return;
+            }
+            // the merged delta takes the place of the last one, a crash before the others
+            // are gone leaves a chain that skips them
+            SnapshotCodec.persist(image, last);
+            for (final Path delta: merged.subList(0, merged.size() - 1)) {
+               Files.deleteIfExists(delta);
+            }
+            chain.removeAll(merged.subList(0, merged.size() - 1));
+            deltaBytes = 0;
+            for (final Path delta: chain) {
+               deltaBytes += Files.size(delta);
+            }
+         }
+      } catch (final IOException | RuntimeException e) {
+         e.printStackTrace();
+      } finally {
+         synchronized (this) {
+            merging = false;
+         }
+      }
+   }
+
+   private synchronized ExecutorService merger () {
+      if (merger == null) {
+         merger = Executors.newSingleThreadExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "snapshot-merger");
+            thread.setDaemon(true);
+            return thread;
+         });
+      }
+      return merger;
+   }
+
+   /**
+    * @param sequence last journal record contained in the delta
+    * @return file of the delta
+    */
+   private Path delta (final long sequence) {
+      return Paths.get(path + DELTA + sequence);
+   }
+
+   /**
+    * Follows the deltas from a full snapshot. Each step takes the delta reaching furthest
+    * from where the chain is, so a merged delta is preferred to the ones it replaced.
+    * @param path file of the full snapshot
+    * @param sequence sequence the full snapshot was saved at
+    * @return the deltas to apply, in order
+    */
+   private static ArrayList<Path> chain (final Path path, final long sequence)
+         throws IOException {
+      final HashMap<Long, Path> furthest = new HashMap<Long, Path>();
+      final HashMap<Path, Long> reaches = new HashMap<Path, Long>();
+      for (final Path delta: list(path)) {
+         final SnapshotCodec.Delta header;
+         try {
+            header = SnapshotCodec.readDelta(delta, true);
+         } catch (final IOException e) {
+            // deltas are moved into place whole, this is not one
+            continue;
+         }
+         final Path best = furthest.get(header.after);
+         if (best == null || reaches.get(best) < header.sequence) {
+            furthest.put(header.after, delta);
+         }
+         reaches.put(delta, header.sequence);
+      }
+
+      final ArrayList<Path> chain = new ArrayList<Path>();
+      long at = sequence;
+      Path next;
+      while ((next = furthest.get(at)) != null) {
+         chain.add(next);
+         at = reaches.get(next);
+      }
+      return chain;
+   }
+
+   /**
+    * @param path file of the full snapshot
+    * @return every delta next to it, whether it follows it or not
+    */
+   private static ArrayList<Path> list (final Path path) throws IOException {
+      final ArrayList<Path> deltas = new ArrayList<Path>();
+      final String prefix = path.getFileName() + DELTA;
+      try (DirectoryStream<Path> files =
+            Files.newDirectoryStream(path.toAbsolutePath().getParent(), prefix + "*")) {
+         for (final Path file: files) {
+            // temporary files of a save that did not finish are not deltas
+            if (file.getFileName().toString().substring(prefix.length()).matches("\\d+")) {
+               deltas.add(file);
+            }
+         }
+      } catch (final NoSuchFileException e) {
+         // no directory, no deltas
+      }
+      return deltas;
+   }
+
+   private static void deleteDeltas (final Path path, final long sequence) throws IOException {
+      for (final Path delta: list(path)) {
+         if (sequence < 0 || sequenceOf(delta) <= sequence) {
+            Files.deleteIfExists(delta);
+         }
+      }
+   }
+
+   /**
+    * @param delta file of a delta
+    * @return sequence the delta was saved at, from its name
+    */
+   private static long sequenceOf (final Path delta) {
+      final String name = delta.getFileName().toString();
+      return Long.parseLong(name.substring(name.lastIndexOf('.') + 1));
+   }
+
+   private static long afterOf (final Path delta) throws IOException {
+      return SnapshotCodec.readDelta(delta, true).after;
+   }
+}
@@ -0,0 +1,277 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Counters of what the catalog is doing, shown by the STATS command and dumped to a file
+ * by Main. Every command keeps a LatencyHistogram of how long it took, and next to those this
+ * counts product lookups that found or missed the product, how long saving a snapshot took
+ * and how large it was, and samples how fast the live threads allocate. Recording is a few
+ * atomic adds and never allocates.
+ *
+ * With -Dstats.jfr=true every command and every save is also a JFR event, which a flight
+ * recording started with the events enabled keeps along with the JVM's own.
+ * @author Noah Rouse <my_email@noahrouse36@gmail.com>
+ */
+public final class Stats {
+   private static final boolean EVENTS = Boolean.getBoolean("stats.jfr");
+   private static final LongAdder HITS = new LongAdder();
+   private static final LongAdder MISSES = new LongAdder();
+   private static final LatencyHistogram SAVES = new LatencyHistogram();
+   private static final LongAdder SAVED_BYTES = new LongAdder();
+   private static final AtomicLong LAST_SAVE_BYTES = new AtomicLong();
+   private static long sampledAt = 0;
+   private static long sampledBytes = 0;
+   private static double allocationRate = 0;
+   private static double peakAllocationRate = 0;
+
+   /**
+    * A command run by the command loop, a session or a connection
+    */
+   @Name("ProductManagement.Command")
+   @Label("Command")
+   @Category("Product Management")
+   public static final class CommandEvent extends Event {
+      @Label("Command")
+      private String command;
+
+      @Label("Status")
+      private String status;
+   }
+
+   /**
+    * A snapshot of the catalog written to disk
+    */
+   @Name("ProductManagement.Save")
+   @Label("Save")
+   @Category("Product Management")
+   public static final class SaveEvent extends Event {
+      @Label("File")
+      private String file;
+
+      @Label("Size")
+      @DataAmount
+      private long bytes;
+   }
+
+   private Stats () {
+   }
+
+   /**
+    *
+    * @return an event timing a command that is about to run, or null when events are off
+    */
+   public static CommandEvent beginCommand () {
+      if (!EVENTS) {
+         return null;
+      }
+      final CommandEvent event = new CommandEvent();
+      event.begin();
+      return event;
+   }
+
+   /**
+    * Records how long a command took
+    * @param command the command that ran
+    * @param event event returned by beginCommand
+    * @param status outcome of the command
+    * @param nanos how long it took
+    */
+   public static void endCommand (final Commands.Command command, final CommandEvent event,
+         final Main.Status status, final long nanos) {
+      command.latency().record(nanos);
+      if (event != null && event.shouldCommit()) {
+         event.command = command.name();
+         event.status = status.name();
+         event.commit();
+      }
+   }
+
+   /**
+    *
+    * @return an event timing a save that is about to start, or null when events are off
+    */
+   public static SaveEvent beginSave () {
+      if (!EVENTS) {
+         return null;
+      }
+      final SaveEvent event = new SaveEvent();
+      event.begin();
+      return event;
+   }
+
+   /**
+    * Records a snapshot written to disk
+    * @param event event returned by beginSave
+    * @param file file written
+    * @param bytes size of the file
+    * @param nanos how long writing it took
+    */
+   public static void endSave (final SaveEvent event, final String file, final long bytes,
+         final long nanos) {
+      SAVES.record(nanos);
+      SAVED_BYTES.add(bytes);
+      LAST_SAVE_BYTES.set(bytes);
+      if (event != null && event.shouldCommit()) {
+         event.file = file;
+         event.bytes = bytes;
+         event.commit();
+      }
+   }
+
+   /**
+    * Counts a product lookup
+    * @param hit true if the product was found
+    */
+   public static void lookup (final boolean hit) {
+      if (hit) {
+         HITS.increment();
+      } else {
+         MISSES.increment();
+      }
+   }
+
+   /**
+    * Measures how fast the live threads allocated since the previous sample. Threads that
+    * ended in between take their allocations with them, a sample that would go negative
+    * counts as nothing allocated.
+    */
+   public static synchronized void sample () {
+      final long bytes = allocatedBytes();
+      final long now = System.nanoTime();
+      if (bytes < 0) {
+         return;
+      }
+      if (sampledAt != 0 && now > sampledAt) {
+         allocationRate = Math.max(0, (bytes - sampledBytes) * 1e9 / (now - sampledAt));
+         peakAllocationRate = Math.max(peakAllocationRate, allocationRate);
+      }
+      sampledAt = now;
+      sampledBytes = bytes;
+   }
+
+   /**
+    * Prints every counter, commands that never ran are left out
+    * @param table contains all products, its cache is shown when it has one
+    * @param out stream the counters are printed to
+    */
+   public static void print (final Table<String, Product> table, final PrintStream out) {
+      out.printf("%-26s %10s %10s %10s %10s %10s %10s\n", "Command", "count", "mean", "p50",
+            "p90", "p99", "max");
+      for (final Commands.Command command: Commands.commands()) {
+         final LatencyHistogram latency = command.latency();
+         if (latency.count() > 0) {
+            out.printf("%-26s %10d %10s %10s %10s %10s %10s\n", command.name(),
+                  latency.count(), duration((long) latency.mean()),
+                  duration(latency.percentile(50)), duration(latency.percentile(90)),
+                  duration(latency.percentile(99)), duration(latency.max()));
+         }
+      }
+      out.printf("Lookups: %d hits, %d misses\n", HITS.sum(), MISSES.sum());
+
+      final Table<String, Product> storage =
+            table instanceof Catalog ? ((Catalog) table).table() : table;
+      if (storage instanceof CachedTable) {
+         final CachedTable cache = (CachedTable) storage;
+         out.printf("Cache: %d of %d products, %d hits, %d misses, %d evictions\n",
+               cache.cached(), cache.capacity(), cache.hits(), cache.misses(),
+               cache.evictions());
+      }
+
+      out.printf("Saves: %d taking %s, p99 %s, %d bytes written, last %d bytes\n",
+            SAVES.count(), duration(SAVES.total()), duration(SAVES.percentile(99)),
+            SAVED_BYTES.sum(), LAST_SAVE_BYTES.get());
+      synchronized (Stats.class) {
+         if (sampledAt == 0) {
+            out.println("Allocation: not sampled");
+         } else {
+            out.printf("Allocation: %s, peak %s\n", rate(allocationRate),
+                  rate(peakAllocationRate));
+         }
+      }
+   }
+
+   /**
+    * Writes every counter to a file, replacing it in one step so a reader never sees half
+    * @param table contains all products
+    * @param fileName file being written
+    * @return true if the file was written
+    */
+   public static boolean dump (final Table<String, Product> table, final String fileName) {
+      final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      final PrintStream out = new PrintStream(bytes, false, StandardCharsets.UTF_8);
+      print(table, out);
+      out.flush();
+      final Path path = Paths.get(fileName);
+      final Path temp = Paths.get(fileName + ".tmp");
+      try {
+         Files.write(temp, bytes.toByteArray());
+         Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING,
+               StandardCopyOption.ATOMIC_MOVE);
+         return true;
+      } catch (final IOException e) {
+         e.printStackTrace();
+         return false;
+      }
+   }
+
+   /**
+    * @param nanos a duration
+    * @return the duration in the largest unit that keeps it above 1
+    */
+   static String duration (final long nanos) {
+      if (nanos < 1000) {
+         return nanos + " ns";
+      } else if (nanos < 1000000) {
+         return String.format("%.1f us", nanos / 1e3);
+      } else if (nanos < 1000000000) {
+         return String.format("%.1f ms", nanos / 1e6);
+      }
+      return String.format("%.2f s", nanos / 1e9);
+   }
+
+   /**
+    * @param bytes bytes per second
+    * @return the rate in KB/s below a megabyte per second, in MB/s above
+    */
+   private static String rate (final double bytes) {
+      return bytes < (1 << 20)
+            ? String.format("%.1f KB/s", bytes / (1 << 10))
+            : String.format("%.1f MB/s", bytes / (1 << 20));
+   }
+
+   /**
+    * @return bytes allocated by the live threads, or -1 if the JVM does not count them
+    */
+   private static long allocatedBytes () {
+      final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+      if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+         return -1;
+      }
+      final com.sun.management.ThreadMXBean counting = (com.sun.management.ThreadMXBean) threads;
+      if (!counting.isThreadAllocatedMemorySupported()
+            || !counting.isThreadAllocatedMemoryEnabled()) {
+         return -1;
+      }
+      long total = 0;
+      for (final long bytes: counting.getThreadAllocatedBytes(counting.getAllThreadIds())) {
+         // -1 for a thread that ended after the ids were taken
+         total += Math.max(bytes, 0);
+      }
+      return total;
+   }
+}
@@ -0,0 +1,94 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * Inverted index from supplier to the names of the products it supplies, keyed by the
+ * SupplierRegistry id so a renamed supplier is still found under its new name. Catalog keeps
+ * it in step with products being added, removed and changing their suppliers.
+ * @author Noah Rouse <my_email@noahrouse36@gmail.com>
+ */
+public final class SupplierIndex {
+   private final HashMap<Integer, HashSet<String>> products =
+         new HashMap<Integer, HashSet<String>>();
+
+   /**
+    * Indexes every supplier of a product
+    * @param product the product
+    */
+   public synchronized void add (final Product product) {
+      for (final int id: product.supplierIds()) {
+         products.computeIfAbsent(id, key -> new HashSet<String>()).add(product.name());
+      }
+   }
+
+   /**
+    * Removes every supplier of a product from the index
+    * @param product the product
+    */
+   public synchronized void remove (final Product product) {
+      for (final int id: product.supplierIds()) {
+         removed(id, product.name());
+      }
+   }
+
+   /**
+    * @param product the changed product
+    * @param supplier name of the supplier that was added
+    */
+   public synchronized void supplierAdded (final Product product, final String supplier) {
+      products.computeIfAbsent(SupplierRegistry.id(supplier), key -> new HashSet<String>())
+            .add(product.name());
+   }
+
+   /**
+    * @param product the changed product
+    * @param supplier name of the supplier that was removed
+    */
+   public synchronized void supplierRemoved (final Product product, final String supplier) {
+      final int id = SupplierRegistry.find(supplier);
+      if (id != -1) {
+         removed(id, product.name());
+      }
+   }
+
+   /**
+    * @param supplier name of the supplier
+    * @return true if the supplier supplies any product
+    */
+   public synchronized boolean supplies (final String supplier) {
+      final HashSet<String> names = products.get(SupplierRegistry.find(supplier));
+      return names != null && !names.isEmpty();
+   }
+
+   /**
+    * @param supplier name of the supplier
+    * @return sorted names of the products the supplier supplies
+    */
+   public synchronized List<String> products (final String supplier) {
+      final HashSet<String> names = products.get(SupplierRegistry.find(supplier));
+      if (names == null) {
+         return Collections.emptyList();
+      }
+      final ArrayList<String> sorted = new ArrayList<String>(names);
+      Collections.sort(sorted);
+      return sorted;
+   }
+
+   /**
+    *
+    * @return amount of distinct suppliers
+    */
+   public synchronized int size () {
+      return products.size();
+   }
+
+   private void removed (final int id, final String name) {
+      final HashSet<String> names = products.get(id);
+      if (names != null && names.remove(name) && names.isEmpty()) {
+         products.remove(id);
+      }
+   }
+}
@@ -0,0 +1,152 @@
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Locale;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registry of every supplier name in use, giving each supplier an int id. Products keep the
+ * ids of their suppliers instead of the names, so a supplier found on hundreds of thousands
+ * of products is stored once. Names are matched ignoring case like Product always has, the
+ * first spelling registered is the one shown. Renaming a supplier changes the name behind
+ * its id, which renames it on every product at once.
+ *
+ * Ids are never handed out again, a supplier no product uses any more keeps its id until
+ * another supplier is renamed to its name, which the new one then takes over. The old id is
+ * left without a name then.
+ * @author Noah Rouse <my_email@noahrouse36@gmail.com>
+ */
+public final class SupplierRegistry {
+   private static final ConcurrentHashMap<String, Integer> IDS =
+         new ConcurrentHashMap<String, Integer>();
+   private static volatile String[] names = new String[64];
+   private static int count = 0;
+   private static int renames = 0;
+
+   private SupplierRegistry () {
+   }
+
+   /**
+    * Finds the id of a supplier, registering it if it is new
+    * @param name name of the supplier
+    * @return id of the supplier
+    */
+   public static int id (final String name) {
+      final Integer id = IDS.get(key(name));
+      return id != null ? id : register(name);
+   }
+
+   /**
+    * @param name name of the supplier
+    * @return id of the supplier or -1 if it was never registered
+    */
+   public static int find (final String name) {
+      final Integer id = IDS.get(key(name));
+      return id != null ? id : -1;
+   }
+
+   /**
+    * @param id id of a supplier
+    * @return current name of the supplier, null if another supplier took its name over
+    */
+   public static String name (final int id) {
+      return names[id];
+   }
+
+   /**
+    * @param names names of suppliers
+    * @return ids of the suppliers, sorted and without duplicates
+    */
+   public static int[] ids (final Collection<String> names) {
+      final int[] ids = new int[names.size()];
+      int i = 0;
+      for (final String name: names) {
+         ids[i++] = id(name);
+      }
+      return sortedSet(ids);
+   }
+
+   /**
+    * Sorts ids and drops duplicates
+    * @param ids ids of suppliers, sorted in place
+    * @return the sorted ids, a shorter copy if there were duplicates
+    */
+   public static int[] sortedSet (final int[] ids) {
+      Arrays.sort(ids);
+      int distinct = 0;
+      for (int i = 0; i < ids.length; i++) {
+         if (i == 0 || ids[i] != ids[i - 1]) {
+            ids[distinct++] = ids[i];
+         }
+      }
+      return distinct == ids.length ? ids : Arrays.copyOf(ids, distinct);
+   }
+
+   /**
+    * Renames a supplier on every product. Only the spelling may change when the new name
+    * is already registered to the same supplier, the name of another supplier is only taken
+    * over when no product uses that supplier any more.
+    * @param from current name of the supplier
+    * @param to new name of the supplier
+    * @param unused true if no product is supplied by the supplier called to, if there is one
+    * @return id of the renamed supplier
+    * @throws NoSuchElementException when no supplier is called from
+    * @throws IllegalArgumentException when another supplier in use is already called to
+    */
+   public static synchronized int rename (final String from, final String to,
+         final boolean unused) {
+      final Integer id = IDS.get(key(from));
+      if (id == null) {
+         throw new NoSuchElementException("No supplier " + from);
+      }
+      final Integer existing = IDS.get(key(to));
+      if (existing != null && !existing.equals(id) && !unused) {
+         throw new IllegalArgumentException("Supplier " + to + " already exists");
+      }
+      if (existing == null || !existing.equals(id)) {
+         // the id the name had, if any, is left without a name and never found again
+         IDS.put(key(to), id);
+         IDS.remove(key(from));
+         if (existing != null) {
+            names[existing] = null;
+         }
+      }
+      names[id] = to;
+      renames++;
+      return id;
+   }
+
+   /**
+    * Counts renames, which change products without them knowing
+    * @return amount of suppliers renamed so far
+    */
+   public static synchronized int renames () {
+      return renames;
+   }
+
+   /**
+    *
+    * @return amount of suppliers registered
+    */
+   public static synchronized int size () {
+      return count;
+   }
+
+   private static synchronized int register (final String name) {
+      final Integer existing = IDS.get(key(name));
+      if (existing != null) {
+         return existing;
+      }
+      if (count == names.length) {
+         names = Arrays.copyOf(names, count * 2);
+      }
+      final int id = count++;
+      names[id] = name;
+      IDS.put(key(name), id);
+      return id;
+   }
+
+   private static String key (final String name) {
+      return name.toLowerCase(Locale.ROOT);
+   }
+}
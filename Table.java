@@ -0,0 +1,167 @@
+import java.util.Collection;
+import java.util.NoSuchElementException;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * Operations shared by every kind of table the products can be kept in, so the commands in
+ * Main work the same whether the table is held in memory or read lazily from disk.
+ *
+ * The lookups that report a missing key with null instead of NoSuchElementException and the
+ * compute operations have defaults built on get, put and remove. Those are neither atomic nor
+ * cheap on a miss, tables override them to find the key once and change it in the same step.
+ * @author Noah Rouse <my_email@noahrouse36@gmail.com>
+ */
+public interface Table<K, V> {
+   /**
+    * Size of the table
+    * @return returns the amount of entries
+    */
+   int size ();
+
+   /**
+    *
+    * @return Returns true if the table is empty
+    */
+   boolean isEmpty ();
+
+   /**
+    * Retrieves the value associated with the key
+    * @param key associated value for entry
+    * @return returns value associated with key
+    * @throws NoSuchElementException if the key does not exist
+    */
+   V get (K key) throws NoSuchElementException;
+
+   /**
+    * Inserts the entry into the table, replacing the value if the key already exists
+    * @param key index to grab the value
+    * @param value element to be contained
+    */
+   void put (K key, V value);
+
+   /**
+    * Removes entry from the table
+    * @param key index of the value to be removed
+    * @return the value that was removed
+    * @throws NoSuchElementException when key does not exist
+    */
+   V remove (K key) throws NoSuchElementException;
+
+   /**
+    * Prepares the table for an amount of entries, so a table that grows in steps grows to it
+    * at once instead. Tables that do not grow that way ignore it.
+    * @param expected amount of entries expected
+    */
+   default void ensureCapacity (final int expected) {
+   }
+
+   /**
+    * Retrieves the value associated with the key without throwing when it is missing
+    * @param key associated value for entry
+    * @return value associated with key or null if the key does not exist
+    */
+   default V getOrNull (final K key) {
+      try {
+         return get(key);
+      } catch (final NoSuchElementException e) {
+         return null;
+      }
+   }
+
+   /**
+    *
+    * @param key key being looked for
+    * @return true if the key exists
+    */
+   default boolean containsKey (final K key) {
+      return getOrNull(key) != null;
+   }
+
+   /**
+    * Inserts the entry unless the key already exists
+    * @param key index to grab the value
+    * @param value element to be contained
+    * @return the value already associated with the key, or null if the entry was inserted
+    */
+   default V putIfAbsent (final K key, final V value) {
+      final V current = getOrNull(key);
+      if (current == null) {
+         put(key, value);
+      }
+      return current;
+   }
+
+   /**
+    * Removes the entry without throwing when it is missing
+    * @param key index of the value to be removed
+    * @return the value that was removed or null if the key does not exist
+    */
+   default V removeOrNull (final K key) {
+      return containsKey(key) ? remove(key) : null;
+   }
+
+   /**
+    * Inserts the value made by the mapping function unless the key already exists
+    * @param key index to grab the value
+    * @param mapping makes the value from the key, returning null inserts nothing
+    * @return the value associated with the key afterwards, or null if there is none
+    */
+   default V computeIfAbsent (final K key, final Function<? super K, ? extends V> mapping) {
+      final V current = getOrNull(key);
+      if (current != null) {
+         return current;
+      }
+      final V value = mapping.apply(key);
+      if (value != null) {
+         put(key, value);
+      }
+      return value;
+   }
+
+   /**
+    * Replaces the value of the key with the one made by the remapping function
+    * @param key index to grab the value
+    * @param remapping makes the new value from the key and the current value, or null when
+    * the key does not exist. Returning null removes the entry.
+    * @return the value associated with the key afterwards, or null if there is none
+    */
+   default V compute (final K key,
+         final BiFunction<? super K, ? super V, ? extends V> remapping) {
+      final V current = getOrNull(key);
+      final V value = remapping.apply(key, current);
+      if (value != null) {
+         put(key, value);
+      } else if (current != null) {
+         remove(key);
+      }
+      return value;
+   }
+
+   /**
+    * Inserts the value if the key does not exist, otherwise replaces the value of the key
+    * with the one made by the remapping function
+    * @param key index to grab the value
+    * @param value element inserted when the key does not exist
+    * @param remapping makes the new value from the current one and the given one. Returning
+    * null removes the entry.
+    * @return the value associated with the key afterwards, or null if there is none
+    */
+   default V merge (final K key, final V value,
+         final BiFunction<? super V, ? super V, ? extends V> remapping) {
+      return compute(key, (k, current) ->
+            current == null ? value : remapping.apply(current, value));
+   }
+
+   /**
+    *
+    * @return all keys of the table
+    */
+   Collection<K> keySet ();
+
+   /**
+    *
+    * @return all values of the table
+    */
+   Collection<V> values ();
+}
@@ -0,0 +1,275 @@
+import java.io.PrintStream;
+import java.math.BigDecimal;
+import java.util.Arrays;
+
+/**
+ * Shape of a hash table at one moment: how many slots it has and how full they are, how many
+ * probes it takes to find each entry, how long the clusters of an open addressing table or
+ * the chains of a chained one have grown and roughly how much memory it holds on to. The
+ * table fills it in with a single pass over its slots, so it can be asked for while it is in
+ * use. Lookups degrade when the probes or runs grow well beyond a few, long before the load
+ * factor shows it.
+ *
+ * Byte counts are estimates for a 64 bit JVM with compressed references, as used on heaps
+ * below 32 GB.
+ * @author Noah Rouse <my_email@noahrouse36@gmail.com>
+ */
+public final class TableStats {
+   static final int REFERENCE = 4;
+   static final int OBJECT_HEADER = 12;
+   static final int ARRAY_HEADER = 16;
+   private static final int LINEAR_ROWS = 8;
+
+   private final String kind;
+   private final int capacity;
+   private final int size;
+   private final float loadFactor;
+   private final boolean chained;
+   private long[] probes = new long[LINEAR_ROWS + 1];
+   private long[] runs = new long[LINEAR_ROWS + 1];
+   private long entries = 0;
+   private long totalProbes = 0;
+   private int maxProbes = 0;
+   private int longestRun = 0;
+   private long tableBytes = 0;
+   private long contentBytes = 0;
+
+   /**
+    *
+    * @param kind name of the table shown
+    * @param capacity amount of slots or chains
+    * @param size amount of entries
+    * @param loadFactor fraction of the slots or chains that may be used before it grows
+    * @param chained true if colliding entries are chained, false if they probe for a slot
+    */
+   TableStats (final String kind, final int capacity, final int size, final float loadFactor,
+         final boolean chained) {
+      this.kind = kind;
+      this.capacity = capacity;
+      this.size = size;
+      this.loadFactor = loadFactor;
+      this.chained = chained;
+   }
+
+   /**
+    * Counts an entry
+    * @param probes slots or chain links looked at to find the entry, 1 when it is the first
+    * @param bytes estimated size of its key and value
+    */
+   void entry (final int probes, final long bytes) {
+      this.probes = count(this.probes, probes);
+      entries++;
+      totalProbes += probes;
+      maxProbes = Math.max(maxProbes, probes);
+      contentBytes += bytes;
+   }
+
+   /**
+    * Counts a cluster of used slots between two empty ones, or a chain, empty chains included
+    * @param length amount of entries in it
+    */
+   void run (final int length) {
+      runs = count(runs, length);
+      longestRun = Math.max(longestRun, length);
+   }
+
+   /**
+    * Adds to the memory held by the table itself, not counting its keys and values
+    * @param bytes estimated size
+    */
+   void table (final long bytes) {
+      tableBytes += bytes;
+   }
+
+   /**
+    *
+    * @return amount of slots or chains
+    */
+   public int capacity () {
+      return capacity;
+   }
+
+   /**
+    *
+    * @return amount of entries
+    */
+   public int size () {
+      return size;
+   }
+
+   /**
+    *
+    * @return fraction of the slots or chains in use
+    */
+   public double load () {
+      return capacity == 0 ? 0 : size / (double) capacity;
+   }
+
+   /**
+    *
+    * @return fraction of the slots or chains that may be used before the table grows
+    */
+   public float loadFactor () {
+      return loadFactor;
+   }
+
+   /**
+    *
+    * @return mean amount of slots or chain links looked at to find an entry
+    */
+   public double meanProbes () {
+      return entries == 0 ? 0 : totalProbes / (double) entries;
+   }
+
+   /**
+    *
+    * @return most slots or chain links looked at to find an entry
+    */
+   public int maxProbes () {
+      return maxProbes;
+   }
+
+   /**
+    * A key that is not in the table is looked for from a slot picked by its hash. In an open
+    * addressing table that means every slot up to the end of the cluster and the empty slot
+    * after it, in a chained one every link of the chain.
+    * @return mean amount of slots or chain links looked at for a key that is not there
+    */
+   public double missProbes () {
+      if (capacity == 0) {
+         return 0;
+      }
+      long total = 0;
+      for (int length = 0; length < runs.length; length++) {
+         // starting at each of the slots of a cluster, or at the head of a chain
+         total += runs[length] * (chained
+               ? length
+               : (long) length * (length + 1) / 2 + length);
+      }
+      if (!chained) {
+         // starting at an empty slot
+         total += capacity - size;
+      }
+      return total / (double) capacity;
+   }
+
+   /**
+    *
+    * @return most entries in one cluster or chain
+    */
+   public int longestRun () {
+      return longestRun;
+   }
+
+   /**
+    *
+    * @return estimated bytes held by the table, its keys and its values
+    */
+   public long retainedBytes () {
+      return tableBytes + contentBytes;
+   }
+
+   /**
+    * Prints the numbers and both histograms, rows past 8 cover a power of two range each
+    * @param out stream the numbers are printed to
+    */
+   public void print (final PrintStream out) {
+      out.printf("%s: %d entries in %d %s, load %.2f of %.2f\n", kind, size, capacity,
+            chained ? "chains" : "slots", load(), loadFactor);
+      out.printf("Probes for a hit: mean %.2f, max %d\n", meanProbes(), maxProbes);
+      out.printf("Probes for a miss: mean %.2f\n", missProbes());
+      out.printf("Longest %s: %d\n", chained ? "chain" : "cluster", longestRun);
+      out.printf("Estimated retained bytes: %d (table %d, keys and values %d)\n",
+            retainedBytes(), tableBytes, contentBytes);
+      histogram(out, "Probes", "entries", probes, 1);
+      if (chained) {
+         histogram(out, "Chain length", "chains", runs, 0);
+      } else {
+         histogram(out, "Cluster length", "clusters", runs, 1);
+      }
+   }
+
+   /**
+    * @return name of the table, its size and how many probes finding an entry takes
+    */
+   @Override
+   public String toString () {
+      return String.format("%s: %d entries in %d, mean %.2f probes, max %d", kind, size,
+            capacity, meanProbes(), maxProbes);
+   }
+
+   /**
+    * Estimates the memory of a String holding only Latin-1 characters, as product names
+    * mostly do
+    * @param string the string
+    * @return estimated bytes of the string and its character array
+    */
+   public static long stringBytes (final String string) {
+      return align(OBJECT_HEADER + REFERENCE + Integer.BYTES + 2)
+            + array(string.length(), Byte.BYTES);
+   }
+
+   /**
+    * Estimates the memory of a product without its name, which it shares with its key
+    * @param product the product
+    * @return estimated bytes of the product, its price and its supplier ids
+    */
+   public static long productBytes (final Product product) {
+      long bytes = align(OBJECT_HEADER + 4 * REFERENCE + Integer.BYTES);
+      final BigDecimal price = product.price();
+      if (price != null) {
+         // a price that fits a long keeps no BigInteger
+         bytes += align(OBJECT_HEADER + REFERENCE * 2 + 2 * Integer.BYTES + Long.BYTES);
+      }
+      return bytes + array(product.supplierIds().length, Integer.BYTES);
+   }
+
+   /**
+    * @param length amount of elements
+    * @param elementBytes size of one element
+    * @return bytes of an array, aligned to 8
+    */
+   static long array (final long length, final int elementBytes) {
+      return align(ARRAY_HEADER + length * elementBytes);
+   }
+
+   /**
+    * @param bytes size of an object
+    * @return the size rounded up to the 8 byte alignment of objects
+    */
+   static long align (final long bytes) {
+      return (bytes + 7) & ~7L;
+   }
+
+   private static long[] count (final long[] histogram, final int value) {
+      final long[] counts = value < histogram.length
+            ? histogram
+            : Arrays.copyOf(histogram, Math.max(value + 1, histogram.length * 2));
+      counts[value]++;
+      return counts;
+   }
+
+   /**
+    * Prints the rows of a histogram that are not empty, one per value up to 8 and one per
+    * power of two range after that
+    */
+   private static void histogram (final PrintStream out, final String name, final String unit,
+         final long[] counts, final int first) {
+      out.printf("%16s %12s\n", name, unit);
+      int from = first;
+      while (from < counts.length) {
+         final int to = from <= LINEAR_ROWS
+               ? from
+               : Math.min(2 * (from - 1), counts.length - 1);
+         long count = 0;
+         for (int i = from; i <= to; i++) {
+            count += counts[i];
+         }
+         if (count > 0) {
+            out.printf("%16s %12d\n", from == to ? Integer.toString(from) : from + "-" + to,
+                  count);
+         }
+         from = to + 1;
+      }
+   }
+}
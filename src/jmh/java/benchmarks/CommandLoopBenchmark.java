@@ -0,0 +1,46 @@
+package benchmarks;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * A scripted command stream replayed through the command dispatcher one command at a time
+ * and as one batch. One call runs the whole script, seven commands per product.
+ * @author Noah Rouse <my_email@noahrouse36@gmail.com>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CommandLoopBenchmark {
+   @Param({"Main.execute", "Session.commit"})
+   public String operation;
+
+   @Param({"100", "1000"})
+   public int products;
+
+   private Callable<Object> timed;
+
+   @Setup
+   public void setup () throws Exception {
+      timed = Operations.create(operation, products);
+   }
+
+   @Benchmark
+   public Object run () throws Exception {
+      return timed.call();
+   }
+}
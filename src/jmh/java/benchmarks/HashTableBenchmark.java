@@ -0,0 +1,46 @@
+package benchmarks;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Lookups and writes on a HashTable of products holding 1k, 100k and 1M keys
+ * @author Noah Rouse <my_email@noahrouse36@gmail.com>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HashTableBenchmark {
+   @Param({"HashTable.get", "HashTable.getOrNullMiss", "HashTable.putIfAbsent", "HashTable.put",
+         "HashTable.removePut"})
+   public String operation;
+
+   @Param({"1000", "100000", "1000000"})
+   public int keys;
+
+   private Callable<Object> timed;
+
+   @Setup
+   public void setup () throws Exception {
+      timed = Operations.create(operation, keys);
+   }
+
+   @Benchmark
+   public Object run () throws Exception {
+      return timed.call();
+   }
+}
@@ -0,0 +1,33 @@
+package benchmarks;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.Callable;
+
+/**
+ * Hands out the operations set up by Benchmark.java in the root. JMH does not accept benchmark
+ * classes in the default package the catalog is written in, and a class in a package can not
+ * name a class in the default package, so the operation is fetched once through reflection and
+ * every timed call is a plain call of a Callable.
+ * @author Noah Rouse <my_email@noahrouse36@gmail.com>
+ */
+final class Operations {
+   private Operations () {
+   }
+
+   /**
+    * @param name name of the benchmark in Benchmark.java
+    * @param param value of its parameter
+    * @return the operation, one call runs it once
+    * @throws Exception when the setup fails
+    */
+   @SuppressWarnings("unchecked")
+   static Callable<Object> create (final String name, final int param) throws Exception {
+      try {
+         return (Callable<Object>) Class.forName("Benchmark")
+               .getMethod("operation", String.class, int.class)
+               .invoke(null, name, param);
+      } catch (final InvocationTargetException e) {
+         throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+      }
+   }
+}
@@ -0,0 +1,46 @@
+package benchmarks;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Sorted supplier insertion and lookups on products with 10 to 10k suppliers. addSupplier
+ * builds a whole product per call, so its time is for all of the suppliers.
+ * @author Noah Rouse <my_email@noahrouse36@gmail.com>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProductBenchmark {
+   @Param({"Product.addSupplier", "Product.binarySearch", "Product.hasSupplier"})
+   public String operation;
+
+   @Param({"10", "100", "1000", "10000"})
+   public int suppliers;
+
+   private Callable<Object> timed;
+
+   @Setup
+   public void setup () throws Exception {
+      timed = Operations.create(operation, suppliers);
+   }
+
+   @Benchmark
+   public Object run () throws Exception {
+      return timed.call();
+   }
+}
@@ -0,0 +1,143 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+/**
+ * Races threads over a shared ConcurrentHashTable and shared products, checking once they
+ * joined that no unit was sold twice or oversold and no key was lost
+ * @author Noah Rouse <my_email@noahrouse36@gmail.com>
+ */
+class ConcurrentHashTableTest {
+   private static final int PRODUCTS = 1000;
+   private static final int STOCK = 100;
+
+   /**
+    * Every thread sells random products until it made twice as many attempts as there are
+    * units, while adding, reading and removing keys of its own
+    */
+   @ParameterizedTest
+   @ValueSource(ints = {2, 4, 8})
+   void sellsEveryUnitOnce (final int threads) throws Exception {
+      final ConcurrentHashTable<String, Product> table = new ConcurrentHashTable<String, Product>();
+      final String[] names = new String[PRODUCTS];
+      for (int i = 0; i < PRODUCTS; i++) {
+         names[i] = "sku" + i;
+         table.put(names[i], new Product(names[i], 0.99, STOCK));
+      }
+
+      final int attempts = 2 * PRODUCTS * STOCK / threads;
+      final AtomicLong sold = new AtomicLong();
+      final Runnable[] workers = new Runnable[threads];
+      for (int t = 0; t < threads; t++) {
+         final String prefix = "thread" + t + "-";
+         workers[t] = () -> {
+            final Random random = new Random(prefix.hashCode());
+            long mine = 0;
+            for (int i = 0; i < attempts; i++) {
+               try {
+                  table.get(names[random.nextInt(PRODUCTS)]).decreaseInventory(1);
+                  mine++;
+               } catch (final Exception e) {
+                  // sold out
+               }
+
+               final String key = prefix + (i % 64);
+               final Product own = new Product(key);
+               table.put(key, own);
+               assertSame(own, table.get(key), "Lost update of " + key);
+               if ((i & 1) == 1) {
+                  table.remove(key);
+               }
+            }
+            for (int i = 0; i < 64; i++) {
+               try {
+                  table.remove(prefix + i);
+               } catch (final NoSuchElementException e) {
+                  // removed during the run
+               }
+            }
+            sold.addAndGet(mine);
+         };
+      }
+      run(workers);
+
+      // every product is tried about 2 * STOCK times, so all of them are sold out
+      for (final Product product: table.values()) {
+         assertEquals(0, product.amount(), product.name());
+      }
+      assertEquals((long) PRODUCTS * STOCK, sold.get());
+      assertEquals(PRODUCTS, table.size());
+   }
+
+   /**
+    * Threads add to and take from the inventory of one product at the same time
+    */
+   @Test
+   void keepsEveryInventoryChange () throws Exception {
+      final int threads = 8;
+      final int changes = 100000;
+      // enough that the taking threads never run out
+      final int stock = threads * changes;
+      final Product product = new Product("sku", 0.99, stock);
+      final Runnable[] workers = new Runnable[threads];
+      for (int t = 0; t < threads; t++) {
+         final boolean taking = (t & 1) == 1;
+         workers[t] = () -> {
+            for (int i = 0; i < changes; i++) {
+               if (!taking) {
+                  product.increaseInventory(2);
+                  continue;
+               }
+               try {
+                  product.decreaseInventory(1);
+               } catch (final Exception e) {
+                  throw new IllegalStateException(e);
+               }
+            }
+         };
+      }
+      run(workers);
+
+      assertEquals(stock + threads / 2 * changes, product.amount());
+   }
+
+   /**
+    * Runs the workers on threads started together and waits for all of them, failing with
+    * the first error
+    */
+   private static void run (final Runnable[] workers) throws Exception {
+      final CountDownLatch start = new CountDownLatch(1);
+      final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+      final Thread[] started = new Thread[workers.length];
+      for (int i = 0; i < workers.length; i++) {
+         final Runnable worker = workers[i];
+         started[i] = new Thread(() -> {
+            try {
+               start.await();
+               worker.run();
+            } catch (final Throwable e) {
+               failure.compareAndSet(null, e);
+            }
+         });
+         started[i].start();
+      }
+      start.countDown();
+      for (final Thread thread: started) {
+         thread.join();
+      }
+      if (failure.get() instanceof Error) {
+         throw (Error) failure.get();
+      }
+      if (failure.get() != null) {
+         throw new IllegalStateException(failure.get());
+      }
+   }
+}
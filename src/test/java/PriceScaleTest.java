@@ -0,0 +1,68 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Supplier;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+/**
+ * Sets prices of every scale through the command loop and checks that DISPLAYPRODUCT prints
+ * them the same whichever storage holds the catalog
+ * @author Noah Rouse <my_email@noahrouse36@gmail.com>
+ */
+class PriceScaleTest {
+   private static final String[] PRICES = {
+      "1.5", "2.500", "3", "0.99", "2.50", "1E+2", "0.001", "-1.5", "0",
+      "92233720368547758.07", "23058430092136939.51", "-23058430092136939.52"
+   };
+
+   @ParameterizedTest
+   @ValueSource(strings = {"columnar", "offheap"})
+   void displaysPricesAsHashTable (final String storage) {
+      assertEquals(display(HashTable::new), display(storage(storage)));
+   }
+
+   @ParameterizedTest
+   @ValueSource(strings = {"1.5", "2.500", "3", "1E+2"})
+   void keepsScaleOfPrice (final String price) {
+      for (final String storage: new String[] {"columnar", "offheap"}) {
+         final String shown = display(storage(storage));
+         assertTrue(shown.contains("Price: $" + price + "\n"), storage + ":\n" + shown);
+      }
+   }
+
+   private static Supplier<Table<String, Product>> storage (final String name) {
+      switch (name) {
+         case "columnar":
+            return ColumnarTable::new;
+         case "offheap":
+            return () -> new OffHeapTable(16L << 20);
+         default:
+            throw new IllegalArgumentException(name);
+      }
+   }
+
+   /**
+    * Adds a product per price, changes the price of the first one back and forth, and
+    * returns what DISPLAYPRODUCT prints for all of them
+    */
+   private static String display (final Supplier<Table<String, Product>> storage) {
+      final Table<String, Product> table = storage.get();
+      final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      final PrintStream out = new PrintStream(bytes, true, StandardCharsets.UTF_8);
+      for (int i = 0; i < PRICES.length; i++) {
+         Main.execute("ADDPRODUCT p" + i, table, out);
+         Main.execute("SETPRICE p" + i + " " + PRICES[i], table, out);
+      }
+      Main.execute("SETPRICE p0 0.001", table, out);
+      Main.execute("SETPRICE p0 1.5", table, out);
+      bytes.reset();
+      for (int i = 0; i < PRICES.length; i++) {
+         Main.execute("DISPLAYPRODUCT p" + i, table, out);
+      }
+      return bytes.toString(StandardCharsets.UTF_8);
+   }
+}
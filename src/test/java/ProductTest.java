@@ -0,0 +1,83 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.TreeSet;
+import org.junit.jupiter.api.RepeatedTest;
+
+/**
+ * Checks the supplier lookups of Product against the standard library on random supplier
+ * lists. Every repetition uses a new seed, which is part of the failure message.
+ * @author Noah Rouse <my_email@noahrouse36@gmail.com>
+ */
+class ProductTest {
+   private static final Random SEEDS = new Random();
+
+   /**
+    * Searches random sorted ids for every id in them and for random targets around them
+    */
+   @RepeatedTest(50)
+   void binarySearchMatchesCollections () {
+      final long seed = SEEDS.nextLong();
+      final Random random = new Random(seed);
+      final int length = random.nextInt(4) == 0 ? random.nextInt(4) : random.nextInt(2000);
+      final int range = 1 + length * (1 + random.nextInt(4));
+      final TreeSet<Integer> set = new TreeSet<Integer>();
+      while (set.size() < length) {
+         set.add(random.nextInt(range));
+      }
+      final List<Integer> list = new ArrayList<Integer>(set);
+      final int[] ids = list.stream().mapToInt(Integer::intValue).toArray();
+
+      final List<Integer> targets = new ArrayList<Integer>(list);
+      targets.add(-1);
+      targets.add(range);
+      for (int i = 0; i < 1000; i++) {
+         targets.add(random.nextInt(range + 2) - 1);
+      }
+      for (final int target: targets) {
+         final int expected = Collections.binarySearch(list, target);
+         final int actual = Product.binarySearch(ids, target);
+         assertEquals(expected, actual, "seed " + seed + ", target " + target);
+         assertEquals(set.contains(target), actual >= 0, "seed " + seed + ", target " + target);
+      }
+   }
+
+   /**
+    * Adds and removes random suppliers, spelled in random case, and compares the product
+    * with a sorted set of the same names after every step
+    */
+   @RepeatedTest(20)
+   void suppliersMatchSortedSet () {
+      final long seed = SEEDS.nextLong();
+      final Random random = new Random(seed);
+      final int names = 1 + random.nextInt(200);
+      final Product product = new Product("product");
+      final TreeSet<String> expected = new TreeSet<String>(String.CASE_INSENSITIVE_ORDER);
+      for (int step = 0; step < 2000; step++) {
+         final String name = (random.nextBoolean() ? "supplier" : "SUPPLIER")
+               + random.nextInt(names);
+         final String message = "seed " + seed + ", step " + step + ", " + name;
+         if (random.nextBoolean()) {
+            assertEquals(expected.add(name), product.addSupplier(name) != null, message);
+         } else if (expected.remove(name)) {
+            product.removeSupplier(name);
+         } else {
+            assertThrows(NoSuchElementException.class, () -> product.removeSupplier(name),
+                  message);
+         }
+         assertEquals(expected.contains(name), product.hasSupplier(name), message);
+
+         final int[] ids = product.supplierIds();
+         assertArrayEquals(SupplierRegistry.sortedSet(ids.clone()), ids, message);
+         assertEquals(new ArrayList<String>(expected).toString().toLowerCase(Locale.ROOT),
+               product.suppliers().toString().toLowerCase(Locale.ROOT), message);
+      }
+   }
+}